@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman;
+
+import android.support.annotation.NonNull;
+
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.model.ClipItem;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the {@link Metrics} of a benchmark. Timings go in the Metrics
+ * timers, and their percentiles are logged when it is done. What was
+ * recorded before is reset
+ */
+public class Benchmark {
+  private static final String TAG = "Benchmark";
+
+  /** Device of the clips from {@link #getClips(String, int)} */
+  public static final String DEVICE = "Benchmark";
+
+  /** Name of the benchmark */
+  private final String mName;
+
+  /** true if Metrics were recorded before we started */
+  private final boolean mWasEnabled;
+
+  /**
+   * Start recording
+   * @param name name of the benchmark
+   */
+  public Benchmark(@NonNull String name) {
+    mName = name;
+    mWasEnabled = Metrics.isEnabled();
+    Metrics.reset();
+    Metrics.setEnabled(true);
+  }
+
+  /**
+   * Get clips with different texts
+   * @param prefix start of the texts
+   * @param count  number of clips
+   * @return the clips, newest last
+   */
+  @NonNull
+  public static List<ClipItem> getClips(@NonNull String prefix, int count) {
+    final List<ClipItem> ret = new ArrayList<>(count);
+    final long now = System.currentTimeMillis();
+    for (int i = 0; i < count; i++) {
+      final String text = prefix + " " + i +
+        " The quick brown fox jumps over the lazy dog.";
+      // no labels, and no database access
+      ret.add(new ClipItem(-1L, text, now - count + i, (i % 10) == 0, false,
+        DEVICE, null));
+    }
+    return ret;
+  }
+
+  /** Log what was recorded and stop recording */
+  public void report() {
+    try {
+      Log.logD(TAG, mName + ": " + Metrics.toJSON().toString(2));
+    } catch (JSONException ex) {
+      Log.logD(TAG, mName + ": " + ex.getLocalizedMessage());
+    } finally {
+      Metrics.setEnabled(mWasEnabled);
+    }
+  }
+}
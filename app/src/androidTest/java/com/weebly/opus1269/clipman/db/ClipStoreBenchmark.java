@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.weebly.opus1269.clipman.Benchmark;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.model.ClipItem;
+import com.weebly.opus1269.clipman.model.Label;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of the {@link ClipStore} calls of {@link ClipTable} and
+ * {@link LabelTables} against the same work through our
+ * {@link ClipsContentProvider}. The rows it adds are deleted when done
+ */
+@RunWith(AndroidJUnit4.class)
+public class ClipStoreBenchmark {
+  /** Clips we add */
+  private static final int CLIPS = 500;
+
+  /** Calls of each kind */
+  private static final int CALLS = 1000;
+
+  private static final String LABEL_NAME = "ClipStoreBenchmark";
+
+  private static final String ID_SELECTION = ClipsContract.Clip._ID + " = ?";
+
+  private Context mContext;
+
+  private ContentResolver mResolver;
+
+  private List<ClipItem> mClipItems;
+
+  /** PKs of the clips we added */
+  private final List<Long> mIds = new ArrayList<>(CLIPS);
+
+  @Before
+  public void setUp() {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mResolver = mContext.getContentResolver();
+
+    mClipItems = Benchmark.getClips("ClipStore", CLIPS);
+    ClipTable.INST(mContext).insert(mClipItems);
+    LabelTables.INST(mContext).addLabel(new Label(LABEL_NAME));
+
+    final Cursor cursor = ClipStore.INST(mContext).query(
+      ClipsContract.Clip.TABLE_NAME, new String[]{ClipsContract.Clip._ID},
+      ClipsContract.Clip.COL_DEVICE + " = ?",
+      new String[]{Benchmark.DEVICE}, null);
+    try {
+      while (cursor.moveToNext()) {
+        mIds.add(cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    assertEquals(CLIPS, mIds.size());
+  }
+
+  @After
+  public void tearDown() {
+    ClipTable.INST(mContext).delete(mIds);
+    LabelTables.INST(mContext).deleteLabel(new Label(LABEL_NAME));
+  }
+
+  @Test
+  public void clipExists() {
+    final Benchmark benchmark = new Benchmark("clipExists");
+    try {
+      for (int i = 0; i < CALLS; i++) {
+        final String text = mClipItems.get(i % CLIPS).getText();
+
+        long start = Metrics.start();
+        assertTrue(ClipTable.INST(mContext).exists(text));
+        Metrics.time("bench.exists.store", start);
+
+        start = Metrics.start();
+        final Cursor cursor = mResolver.query(ClipsContract.Clip.CONTENT_URI,
+          new String[]{ClipsContract.Clip._ID},
+          ClipsContract.Clip.TEXT_SELECTION,
+          new String[]{Long.toString(ClipsContract.Clip.getHash(text))},
+          null);
+        assertNotNull(cursor);
+        try {
+          assertTrue(cursor.moveToFirst());
+        } finally {
+          cursor.close();
+        }
+        Metrics.time("bench.exists.provider", start);
+      }
+    } finally {
+      benchmark.report();
+    }
+  }
+
+  @Test
+  public void labelId() {
+    final Benchmark benchmark = new Benchmark("labelId");
+    try {
+      for (int i = 0; i < CALLS; i++) {
+        long start = Metrics.start();
+        final long id = LabelTables.INST(mContext).getLabelId(LABEL_NAME);
+        Metrics.time("bench.labelId.store", start);
+        assertTrue(id != -1L);
+
+        start = Metrics.start();
+        final Cursor cursor = mResolver.query(ClipsContract.Label.CONTENT_URI,
+          new String[]{ClipsContract.Label._ID},
+          ClipsContract.Label.COL_NAME + " = ?", new String[]{LABEL_NAME},
+          null);
+        assertNotNull(cursor);
+        try {
+          assertTrue(cursor.moveToFirst());
+          assertEquals(id, cursor.getLong(0));
+        } finally {
+          cursor.close();
+        }
+        Metrics.time("bench.labelId.provider", start);
+      }
+    } finally {
+      benchmark.report();
+    }
+  }
+
+  @Test
+  public void updateFav() {
+    final ContentValues cv = new ContentValues();
+    final Benchmark benchmark = new Benchmark("updateFav");
+    try {
+      for (int i = 0; i < CALLS; i++) {
+        final String[] args = {Long.toString(mIds.get(i % CLIPS))};
+        cv.put(ClipsContract.Clip.COL_FAV, (i % 2) == 0 ? 1L : 0L);
+
+        long start = Metrics.start();
+        int rows = ClipStore.INST(mContext).update(
+          ClipsContract.Clip.CONTENT_URI, ClipsContract.Clip.TABLE_NAME, cv,
+          ID_SELECTION, args);
+        Metrics.time("bench.updateFav.store", start);
+        assertEquals(1, rows);
+
+        start = Metrics.start();
+        rows = mResolver.update(ClipsContract.Clip.CONTENT_URI, cv,
+          ID_SELECTION, args);
+        Metrics.time("bench.updateFav.provider", start);
+        assertEquals(1, rows);
+      }
+    } finally {
+      benchmark.report();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.weebly.opus1269.clipman.Benchmark;
+import com.weebly.opus1269.clipman.app.App;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.model.ClipItem;
+import com.weebly.opus1269.clipman.model.Label;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of the Clip list query while a backup restore replaces the
+ * database. With the write-ahead log the reads don't wait for the restore
+ * transaction. The contents of the database are put back when done
+ */
+@RunWith(AndroidJUnit4.class)
+public class RestoreReadBenchmark {
+  /** Clips in a restore */
+  private static final int CLIPS = 5000;
+
+  /** Restores the reads run against */
+  private static final int RESTORES = 3;
+
+  /** Reads without a restore */
+  private static final int READS = 100;
+
+  /** Rows in a page of the Clip list */
+  private static final int PAGE_SIZE = 200;
+
+  private Context mContext;
+
+  private List<Label> mLabels;
+
+  private List<ClipItem> mClipItems;
+
+  @Before
+  public void setUp() {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mLabels = LabelTables.INST(mContext).getAllLabels();
+    mClipItems = ClipTable.INST(mContext).getAll();
+  }
+
+  @After
+  public void tearDown() {
+    App.getDbHelper().replaceDB(mLabels, mClipItems);
+  }
+
+  @Test
+  public void walMode() {
+    final Cursor cursor = App.getDbHelper().getReadableDatabase()
+      .rawQuery("PRAGMA journal_mode;", null);
+    try {
+      assertTrue(cursor.moveToFirst());
+      assertEquals("wal", cursor.getString(0).toLowerCase(Locale.ROOT));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Test
+  public void readDuringRestore() throws InterruptedException {
+    final List<Label> labels = new ArrayList<>(0);
+    final List<ClipItem> clipItems = Benchmark.getClips("Restore", CLIPS);
+    App.getDbHelper().replaceDB(labels, clipItems);
+
+    final Benchmark benchmark = new Benchmark("readDuringRestore");
+    try {
+      for (int i = 0; i < READS; i++) {
+        readPage("bench.read.idle");
+      }
+
+      final AtomicBoolean done = new AtomicBoolean(false);
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      final Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < RESTORES; i++) {
+              final long start = Metrics.start();
+              App.getDbHelper().replaceDB(labels, clipItems);
+              Metrics.time("bench.restore", start);
+            }
+          } catch (Throwable ex) {
+            error.set(ex);
+          } finally {
+            done.set(true);
+          }
+        }
+      });
+      writer.start();
+
+      int reads = 0;
+      while (!done.get()) {
+        readPage("bench.read.restore");
+        reads++;
+      }
+      writer.join();
+
+      assertNull(error.get());
+      assertTrue(reads > 0);
+    } finally {
+      benchmark.report();
+    }
+  }
+
+  /**
+   * Read the first page of the Clip list, like its Loader
+   * @param name name of the timer
+   */
+  private void readPage(String name) {
+    final long start = Metrics.start();
+    final Cursor cursor = mContext.getContentResolver().query(
+      ClipsContract.Clip.getPageUri(ClipsContract.Clip.CONTENT_URI,
+        PAGE_SIZE), ClipsContract.Clip.LIST_PROJECTION, null, null,
+      ClipsContract.Clip.getSortOrder(mContext));
+    assertNotNull(cursor);
+    try {
+      // fill the window
+      cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+    Metrics.time(name, start);
+  }
+}
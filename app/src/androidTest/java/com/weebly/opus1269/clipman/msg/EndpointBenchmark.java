@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.googleapis.services.GoogleClientRequestInitializer;
+import com.weebly.opus1269.clipman.Benchmark;
+import com.weebly.opus1269.clipman.app.AppUtils;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.backend.messaging.Messaging;
+import com.weebly.opus1269.clipman.backend.messaging.model.EndpointRet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of a message send to a local stand-in for the messaging
+ * endpoint. Before: a new credential and {@link Messaging} client for each
+ * send. After: both are built once and reused, like
+ * {@link MessagingClient} does now
+ */
+@RunWith(AndroidJUnit4.class)
+public class EndpointBenchmark {
+  /** Sends of each kind */
+  private static final int SENDS = 200;
+
+  private static final String ID_TOKEN = "benchmark";
+
+  private static final String REG_TOKEN = "benchmark";
+
+  private static final String MESSAGE = "{\"act\":\"ping_others\"}";
+
+  private Context mContext;
+
+  private StandInServer mServer;
+
+  @Before
+  public void setUp() throws IOException {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mServer = new StandInServer();
+    mServer.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mServer.close();
+  }
+
+  @Test
+  public void send() throws IOException {
+    final Benchmark benchmark = new Benchmark("send");
+    try {
+      // warm up the connection
+      send(getService(getCredential()));
+
+      for (int i = 0; i < SENDS; i++) {
+        final long start = Metrics.start();
+        send(getService(getCredential()));
+        Metrics.time("bench.send.before", start);
+      }
+
+      final Messaging service = getService(getCredential());
+      for (int i = 0; i < SENDS; i++) {
+        final long start = Metrics.start();
+        send(service);
+        Metrics.time("bench.send.after", start);
+      }
+    } finally {
+      benchmark.report();
+    }
+  }
+
+  /**
+   * Send a message and check the reply
+   * @param service the client
+   * @throws IOException if the send failed
+   */
+  private static void send(@NonNull Messaging service) throws IOException {
+    final EndpointRet ret =
+      service.send(REG_TOKEN, MESSAGE, Boolean.FALSE).execute();
+    assertTrue(ret.getSuccess());
+  }
+
+  /**
+   * Build a credential like {@link Endpoint#getCredential(String)}
+   * @return credential
+   */
+  @NonNull
+  private GoogleCredential getCredential() {
+    final MessagingClient client = MessagingClient.INST(mContext);
+    final GoogleCredential credential = new GoogleCredential.Builder()
+      .setTransport(client.getNetHttpTransport())
+      .setJsonFactory(client.getAndroidJsonFactory())
+      .build();
+    credential.setAccessToken(ID_TOKEN);
+    return credential;
+  }
+
+  /**
+   * Build a client like {@link MessagingClient}, pointed at our server.
+   * Like the local server setup, the requests are not compressed
+   * @param credential credential of the calls
+   * @return client
+   */
+  @NonNull
+  private Messaging getService(@NonNull GoogleCredential credential) {
+    final MessagingClient client = MessagingClient.INST(mContext);
+    return new Messaging.Builder(client.getNetHttpTransport(),
+      client.getAndroidJsonFactory(), client.setHttpTimeout(credential))
+      .setApplicationName(AppUtils.getAppName(mContext))
+      .setRootUrl(mServer.getRootUrl())
+      .setGoogleClientRequestInitializer(new GoogleClientRequestInitializer() {
+        @Override
+        public void initialize(AbstractGoogleClientRequest<?> request) {
+          request.setDisableGZipContent(true);
+        }
+      })
+      .build();
+  }
+
+  /**
+   * HTTP server that answers every request with a successful
+   * {@link EndpointRet}. Connections are kept alive
+   */
+  private static class StandInServer extends Thread {
+    private static final byte[] BODY =
+      "{\"success\":true}".getBytes(AppUtils.UTF_8);
+
+    private static final byte[] HEADERS = ("HTTP/1.1 200 OK\r\n" +
+      "Content-Type: application/json; charset=UTF-8\r\n" +
+      "Content-Length: " + BODY.length + "\r\n\r\n").getBytes(AppUtils.UTF_8);
+
+    private final ServerSocket mSocket;
+
+    StandInServer() throws IOException {
+      super("StandInServer");
+      mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      setDaemon(true);
+    }
+
+    /** @return root Url of the endpoints */
+    String getRootUrl() {
+      return "http://127.0.0.1:" + mSocket.getLocalPort() + "/_ah/api/";
+    }
+
+    void close() throws IOException {
+      mSocket.close();
+    }
+
+    @Override
+    public void run() {
+      while (!mSocket.isClosed()) {
+        final Socket socket;
+        try {
+          socket = mSocket.accept();
+        } catch (IOException ex) {
+          // closed
+          return;
+        }
+        final Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(socket);
+          }
+        }, "StandInConnection");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    /**
+     * Answer the requests of a connection until it is closed
+     * @param socket the connection
+     */
+    private static void serve(@NonNull Socket socket) {
+      try {
+        final InputStream in = new BufferedInputStream(socket.getInputStream());
+        final OutputStream out = socket.getOutputStream();
+        String line;
+        while ((line = readLine(in)) != null) {
+          // headers, up to the empty line
+          long contentLength = 0L;
+          while (!line.isEmpty()) {
+            final int pos = line.indexOf(':');
+            if ((pos != -1) && "content-length".equalsIgnoreCase(
+              line.substring(0, pos).trim())) {
+              contentLength = Long.parseLong(line.substring(pos + 1).trim());
+            }
+            line = readLine(in);
+            if (line == null) {
+              return;
+            }
+          }
+          while (contentLength > 0L) {
+            final long skipped = in.skip(contentLength);
+            if (skipped <= 0L) {
+              return;
+            }
+            contentLength -= skipped;
+          }
+          out.write(HEADERS);
+          out.write(BODY);
+          out.flush();
+        }
+      } catch (IOException ex) {
+        // connection closed
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          // ignore
+        }
+      }
+    }
+
+    /**
+     * Read a line of an HTTP request
+     * @param in the request
+     * @return line without its end, null at the end of the stream
+     * @throws IOException if the read failed
+     */
+    private static String readLine(@NonNull InputStream in)
+      throws IOException {
+      final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+      int c;
+      while ((c = in.read()) != -1) {
+        if (c == '\n') {
+          final String ret = new String(line.toByteArray(), AppUtils.UTF_8);
+          return ret.endsWith("\r") ?
+            ret.substring(0, ret.length() - 1) : ret;
+        }
+        line.write(c);
+      }
+      return null;
+    }
+  }
+}
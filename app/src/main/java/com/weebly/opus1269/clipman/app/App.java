@@ -20,8 +20,10 @@ import android.support.v7.preference.PreferenceManager;
 import com.jakewharton.threetenabp.AndroidThreeTen;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.db.ClipsDatabaseHelper;
+import com.weebly.opus1269.clipman.model.Analytics;
 import com.weebly.opus1269.clipman.model.Prefs;
 import com.weebly.opus1269.clipman.model.User;
+import com.weebly.opus1269.clipman.msg.Outbox;
 import com.weebly.opus1269.clipman.services.HeartbeatAlarmReceiver;
 import com.weebly.opus1269.clipman.ui.devices.DevicesActivity;
 import com.weebly.opus1269.clipman.model.Notifications;
@@ -49,6 +51,9 @@ public class App extends Application implements
   private static boolean sIsMainActivityVisible = false;
   private static boolean sIsDevicesActivityVisible = false;
 
+  /** Number of started Activities, zero when we are in the background */
+  private int mStartedCount = 0;
+
   /**
    * Maps between an activity class name and the list of currently running
    * AsyncTasks that were spawned while it was active.
@@ -85,6 +90,9 @@ public class App extends Application implements
     // make sure Shared preferences are initialized
     PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
 
+    // performance metrics are recorded if the user turned them on
+    Metrics.setEnabled(Prefs.INST(this).isMetrics());
+
     // reset fav filter
     Prefs.INST(this).setFavFilter(false);
 
@@ -116,6 +124,9 @@ public class App extends Application implements
     // Setup heartbeat alarm
     HeartbeatAlarmReceiver.updateAlarm(this);
 
+    // send the messages left from the last run
+    Outbox.INST(this).flush();
+
     // listen for shared preference changes
     PreferenceManager
       .getDefaultSharedPreferences(this)
@@ -133,7 +144,7 @@ public class App extends Application implements
 
   @Override
   public void onActivityStarted(Activity activity) {
-    // noop
+    mStartedCount++;
   }
 
   @Override
@@ -156,7 +167,12 @@ public class App extends Application implements
 
   @Override
   public void onActivityStopped(Activity activity) {
-    // noop
+    mStartedCount--;
+    if (mStartedCount <= 0) {
+      mStartedCount = 0;
+      // going to the background, don't hold on to the database events
+      Analytics.INST(this).flushDB();
+    }
   }
 
   @Override
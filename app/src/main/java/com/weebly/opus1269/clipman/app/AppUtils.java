@@ -14,6 +14,7 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
@@ -26,6 +27,9 @@ import com.weebly.opus1269.clipman.R;
 
 import org.threeten.bp.Instant;
 
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
 
 import static android.text.format.DateUtils.formatDateTime;
@@ -44,6 +48,7 @@ public class AppUtils {
     "https://play.google.com/store/apps/details?id=" + PACKAGE_NAME;
   private static final int VERSION_CODE = Build.VERSION.SDK_INT;
   private static final String ERROR_ACTIVITY = "Failed to start activity";
+  public static final Charset UTF_8 = Charset.forName("UTF-8");
 
   private AppUtils() {
   }
@@ -248,6 +253,27 @@ public class AppUtils {
     return ret;
   }
 
+  /**
+   * Get a 64 bit hash of a {@link String}
+   * @param string String to hash
+   * @return the first 64 bits of the SHA-256 digest of the UTF-8 bytes
+   */
+  public static long getHash64(@NonNull String string) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      // required on all Android platforms
+      throw new IllegalStateException(ex);
+    }
+    final byte[] bytes = digest.digest(string.getBytes(UTF_8));
+    long ret = 0L;
+    for (int i = 0; i < 8; i++) {
+      ret = (ret << 8) | (bytes[i] & 0xFFL);
+    }
+    return ret;
+  }
+
   /**
    * Capitalize a {@link String}
    * @param s String to captialize
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.app;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A collection of static methods to record performance metrics: counters,
+ * timers and histograms. When recording is off, the methods return before
+ * they look anything up or allocate anything
+ */
+public class Metrics {
+  /** true if we are recording */
+  private static volatile boolean sEnabled = false;
+
+  /** Counters by name */
+  private static final ConcurrentMap<String, AtomicLong> sCounters =
+    new ConcurrentHashMap<>();
+
+  /** Histograms by name, timers are histograms of microseconds */
+  private static final ConcurrentMap<String, Histogram> sHistograms =
+    new ConcurrentHashMap<>();
+
+  private Metrics() {
+  }
+
+  /** @return true if we are recording */
+  public static boolean isEnabled() {
+    return sEnabled;
+  }
+
+  /**
+   * Turn recording on or off
+   * @param enabled if true, record
+   */
+  public static void setEnabled(boolean enabled) {
+    sEnabled = enabled;
+  }
+
+  /**
+   * Add to a counter
+   * @param name  name of counter
+   * @param delta amount to add
+   */
+  public static void count(@NonNull String name, long delta) {
+    if (!sEnabled) {
+      return;
+    }
+
+    AtomicLong counter = sCounters.get(name);
+    if (counter == null) {
+      sCounters.putIfAbsent(name, new AtomicLong());
+      counter = sCounters.get(name);
+    }
+    counter.addAndGet(delta);
+  }
+
+  /**
+   * Add a value to a histogram
+   * @param name  name of histogram
+   * @param value value to add, must not be negative
+   */
+  public static void record(@NonNull String name, long value) {
+    if (!sEnabled) {
+      return;
+    }
+
+    getHistogram(name, "").record(value);
+  }
+
+  /**
+   * Get the start time of something we want to time
+   * @return start time for {@link #time(String, long)}, 0 if not recording
+   */
+  public static long start() {
+    return sEnabled ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Add the time since a start time to a timer
+   * @param name  name of timer
+   * @param start value of {@link #start()}
+   */
+  public static void time(@NonNull String name, long start) {
+    if (!sEnabled || (start == 0L)) {
+      // turned on in between
+      return;
+    }
+
+    final long micros =
+      TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    getHistogram(name, "us").record(micros);
+  }
+
+  /** Forget everything recorded */
+  public static void reset() {
+    sCounters.clear();
+    sHistograms.clear();
+  }
+
+  /**
+   * Get all the metrics
+   * @return metrics sorted by name
+   * @throws JSONException never
+   */
+  @NonNull
+  public static JSONObject toJSON() throws JSONException {
+    final JSONObject counters = new JSONObject();
+    for (Map.Entry<String, AtomicLong> entry :
+      new TreeMap<>(sCounters).entrySet()) {
+      counters.put(entry.getKey(), entry.getValue().get());
+    }
+
+    final JSONObject histograms = new JSONObject();
+    for (Map.Entry<String, Histogram> entry :
+      new TreeMap<>(sHistograms).entrySet()) {
+      histograms.put(entry.getKey(), entry.getValue().toJSON());
+    }
+
+    final JSONObject ret = new JSONObject();
+    ret.put("enabled", sEnabled);
+    ret.put("counters", counters);
+    ret.put("histograms", histograms);
+    return ret;
+  }
+
+  /**
+   * Get a histogram, creating it if needed
+   * @param name name of histogram
+   * @param unit unit of the values
+   * @return the histogram
+   */
+  @NonNull
+  private static Histogram getHistogram(@NonNull String name,
+                                        @NonNull String unit) {
+    Histogram histogram = sHistograms.get(name);
+    if (histogram == null) {
+      sHistograms.putIfAbsent(name, new Histogram(unit));
+      histogram = sHistograms.get(name);
+    }
+    return histogram;
+  }
+
+  /**
+   * Histogram with buckets that grow with the value, so a value is within
+   * 1/{@value #SUB_BUCKETS} of its bucket for any size of value. Recording
+   * a value doesn't lock or allocate
+   */
+  private static class Histogram {
+    /** Buckets for each power of two */
+    private static final int SUB_BUCKETS = 8;
+
+    /** log2 of SUB_BUCKETS */
+    private static final int SUB_BITS = 3;
+
+    /** Enough buckets for any positive long */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    /** Percentiles we report */
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    /** Unit of the values */
+    private final String unit;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String unit) {
+      this.unit = unit;
+    }
+
+    /**
+     * Add a value
+     * @param value value to add
+     */
+    void record(long value) {
+      final long val = Math.max(0L, value);
+      counts.incrementAndGet(getIndex(val));
+      count.incrementAndGet();
+      sum.addAndGet(val);
+      long curMax = max.get();
+      while ((val > curMax) && !max.compareAndSet(curMax, val)) {
+        curMax = max.get();
+      }
+    }
+
+    /**
+     * Get the summary of the values
+     * @return count, mean, max and percentiles
+     * @throws JSONException never
+     */
+    @NonNull
+    JSONObject toJSON() throws JSONException {
+      final long total = count.get();
+      final JSONObject ret = new JSONObject();
+      ret.put("unit", unit);
+      ret.put("count", total);
+      ret.put("mean", (total == 0L) ? 0L : (sum.get() / total));
+      ret.put("max", max.get());
+      for (int percentile : PERCENTILES) {
+        ret.put("p" + percentile, getPercentile(total, percentile));
+      }
+      return ret;
+    }
+
+    /**
+     * Get the upper bound of the bucket a percentile falls in
+     * @param total      number of values
+     * @param percentile percentile to get
+     * @return value at percentile
+     */
+    private long getPercentile(long total, int percentile) {
+      if (total == 0L) {
+        return 0L;
+      }
+
+      final long rank = Math.max(1L, (total * percentile + 99L) / 100L);
+      long seen = 0L;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts.get(i);
+        if (seen >= rank) {
+          return Math.min(getUpperBound(i), max.get());
+        }
+      }
+      return max.get();
+    }
+
+    /**
+     * Get the bucket of a value
+     * @param value the value
+     * @return index of bucket
+     */
+    private static int getIndex(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      final int exp = 63 - Long.numberOfLeadingZeros(value);
+      final int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+      return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the largest value of a bucket
+     * @param index index of bucket
+     * @return largest value
+     */
+    private static long getUpperBound(int index) {
+      if (index < SUB_BUCKETS) {
+        return index;
+      }
+      final int exp = (index / SUB_BUCKETS) + SUB_BITS - 1;
+      final long sub = index % SUB_BUCKETS;
+      final long lower = (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+      return lower + (1L << (exp - SUB_BITS)) - 1L;
+    }
+  }
+}
@@ -49,6 +49,10 @@ public class BackupContents {
   @NonNull
   static BackupContents getDB(Context context) {
     List<ClipItem> clipItems = ClipTable.INST(context).getAll();
+    for (ClipItem clipItem : clipItems) {
+      // labels are built lazily and Gson serializes the fields directly
+      clipItem.getLabels();
+    }
     List<Label> labels = LabelTables.INST(context).getAllLabels();
     return new BackupContents(labels, clipItems);
   }
@@ -19,6 +19,7 @@ import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.App;
 import com.weebly.opus1269.clipman.app.CustomAsyncTask;
 import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
 import com.weebly.opus1269.clipman.db.LabelTables;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Device;
@@ -45,6 +46,9 @@ public class BackupHelper {
   /** Name of file in the zipfile */
   private final String BACKUP_FILNAME = "backup.txt";
 
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "backup.";
+
   private BackupHelper(@NonNull Context context) {
     mContext = context.getApplicationContext();
   }
@@ -68,10 +72,13 @@ public class BackupHelper {
    */
   public void createBackup(@Nullable BackupActivity activity) {
     try {
+      final long start = Metrics.start();
       final String lastBackup = Prefs.INST(mContext).getLastBackup();
       final String zipName = getZipFilename();
       final byte[] zipData =
         BackupHelper.INST(mContext).createZipFileContentsFromDB();
+      Metrics.time(METRIC + "create", start);
+      Metrics.record(METRIC + "zipBytes", zipData.length);
       DriveHelper.INST(mContext).createBackup(activity, zipName, zipData,
         lastBackup);
     } catch (Exception ex) {
@@ -118,7 +125,9 @@ public class BackupHelper {
   void restoreBackup(@NonNull BackupActivity activity, BackupContents
     contents) {
     try {
+      final long start = Metrics.start();
       BackupHelper.INST(activity).saveContentsToDB(contents);
+      Metrics.time(METRIC + "restore", start);
     } catch (Exception ex) {
       final String errMessage = mContext.getString(R.string.err_restore_backup);
       showMessage(activity, errMessage, ex);
@@ -133,11 +142,13 @@ public class BackupHelper {
   void syncBackup(@NonNull BackupActivity activity, DriveFile driveFile,
                   BackupContents contents) {
     try {
+      final long start = Metrics.start();
       final BackupContents mergedContents =
         BackupHelper.INST(activity).saveMergedContentsToDB(contents);
       final byte[] mergedData = mergedContents.getAsJSON().getBytes();
       final byte[] data =
         BackupHelper.INST(mContext).createZipFileContents(mergedData);
+      Metrics.time(METRIC + "sync", start);
       DriveHelper.INST(mContext).updateBackup(activity, driveFile, data);
     } catch (Exception ex) {
       final String errMessage = mContext.getString(R.string.err_sync_backup);
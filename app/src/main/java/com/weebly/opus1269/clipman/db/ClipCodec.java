@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.annotation.SuppressLint;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.App;
+import com.weebly.opus1269.clipman.app.AppUtils;
+import com.weebly.opus1269.clipman.app.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Singleton to store the text of a clip. Small text is stored as is.
+ * Larger text is deflated into the {@link ClipsContract.Clip#COL_DATA} BLOB,
+ * and very large text is deflated into an app-private file named by
+ * {@link ClipsContract.Clip#COL_FILE}. The hash, size and preview of a row are
+ * always those of the original text. The full text search index has no
+ * copy of the text, so the encoded rows are only indexed by their preview
+ */
+public class ClipCodec {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static ClipCodec sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  /** Class identifier */
+  private final String TAG = this.getClass().getSimpleName();
+
+  /** Text of at least this many bytes is deflated */
+  private static final int DEFLATE_SIZE = 4 * 1024;
+
+  /** Text of at least this many bytes is stored in a file */
+  private static final int FILE_SIZE = 256 * 1024;
+
+  /** Most rows encoded in one transaction */
+  private static final int CHUNK_SIZE = 50;
+
+  /** Files without a row newer than this may still be getting one */
+  private static final long ORPHAN_AGE = TimeUnit.HOURS.toMillis(1);
+
+  private static final String DIR_NAME = "clips";
+  private static final String FILE_EXT = ".z";
+  private static final String TMP_EXT = ".tmp";
+
+  private static final String SQL_UPDATE = "UPDATE " +
+    ClipsContract.Clip.TABLE_NAME + " SET " +
+    ClipsContract.Clip.COL_TEXT + " = ?, " +
+    ClipsContract.Clip.COL_DATA + " = ?, " +
+    ClipsContract.Clip.COL_FILE + " = ?" +
+    " WHERE " + ClipsContract.Clip._ID + " = ?";
+
+  private final String ERROR_READ;
+
+  private ClipCodec(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+
+    ERROR_READ = mContext.getString(R.string.err_read_clip);
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static ClipCodec INST(@NonNull Context context) {
+    synchronized (ClipCodec.class) {
+      if (sInstance == null) {
+        sInstance = new ClipCodec(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Add the stored form of a clip's text. No file is written here, text
+   * large enough for one is deflated into the row until
+   * {@link #encodeRows()} moves it
+   * @param cv   values of the row
+   * @param text the text
+   */
+  public void put(@NonNull ContentValues cv, @NonNull String text) {
+    final Body body = encode(text, false);
+    cv.put(ClipsContract.Clip.COL_TEXT, body.text);
+    cv.put(ClipsContract.Clip.COL_DATA, body.data);
+    cv.put(ClipsContract.Clip.COL_FILE, body.file);
+  }
+
+  /**
+   * Get the text of the current row
+   * @param cursor a Cursor with the text columns
+   * @return the text, the preview if it can't be read
+   */
+  @NonNull
+  public String getText(@NonNull Cursor cursor) {
+    return getText(cursor,
+      cursor.getColumnIndex(ClipsContract.Clip.COL_TEXT),
+      cursor.getColumnIndex(ClipsContract.Clip.COL_DATA),
+      cursor.getColumnIndex(ClipsContract.Clip.COL_FILE),
+      cursor.getColumnIndex(ClipsContract.Clip.COL_PREVIEW));
+  }
+
+  /**
+   * Get the text of the current row. If it can't be read, the user was
+   * told, and the preview is what is left of it
+   * @param cursor     a Cursor
+   * @param textIdx    index of {@link ClipsContract.Clip#COL_TEXT}
+   * @param dataIdx    index of {@link ClipsContract.Clip#COL_DATA}, or -1
+   * @param fileIdx    index of {@link ClipsContract.Clip#COL_FILE}, or -1
+   * @param previewIdx index of {@link ClipsContract.Clip#COL_PREVIEW}, or -1
+   * @return the text, the preview if it can't be read
+   */
+  @NonNull
+  String getText(@NonNull Cursor cursor, int textIdx, int dataIdx,
+                 int fileIdx, int previewIdx) {
+    final String text = getText(cursor, textIdx, dataIdx, fileIdx);
+    if (text != null) {
+      return text;
+    }
+    return ((previewIdx != -1) && !cursor.isNull(previewIdx)) ?
+      cursor.getString(previewIdx) : "";
+  }
+
+  /**
+   * Get the text of the current row. A failure to read it, e.g. a missing
+   * file, is reported to the user
+   * @param cursor   a Cursor
+   * @param textIdx  index of {@link ClipsContract.Clip#COL_TEXT}
+   * @param dataIdx  index of {@link ClipsContract.Clip#COL_DATA}, or -1
+   * @param fileIdx  index of {@link ClipsContract.Clip#COL_FILE}, or -1
+   * @return the text, null if the row has none or it can't be read
+   */
+  @Nullable
+  String getText(@NonNull Cursor cursor, int textIdx, int dataIdx,
+                 int fileIdx) {
+    if ((textIdx != -1) && !cursor.isNull(textIdx)) {
+      return cursor.getString(textIdx);
+    }
+
+    try {
+      if ((dataIdx != -1) && !cursor.isNull(dataIdx)) {
+        return new String(inflate(cursor.getBlob(dataIdx)), AppUtils.UTF_8);
+      }
+      if ((fileIdx != -1) && !cursor.isNull(fileIdx)) {
+        return new String(readFile(cursor.getString(fileIdx)),
+          AppUtils.UTF_8);
+      }
+    } catch (IOException ex) {
+      Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, ERROR_READ,
+        true);
+    }
+
+    return null;
+  }
+
+  /**
+   * Encode the rows stored as text that are large enough to deflate, and
+   * move the deflated rows large enough for a file to their file.
+   * Runs in small transactions, call from a background thread
+   * @return number of rows encoded
+   */
+  public int encodeRows() {
+    final long start = System.currentTimeMillis();
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final String[] idProjection = {ClipsContract.Clip._ID};
+    final String[] textProjection = {
+      ClipsContract.Clip.COL_TEXT,
+      ClipsContract.Clip.COL_DATA,
+      ClipsContract.Clip.COL_HASH,
+    };
+    final String selection = "((" +
+      ClipsContract.Clip.COL_TEXT + " NOT NULL AND " +
+      ClipsContract.Clip.COL_SIZE + " >= " + DEFLATE_SIZE + ") OR (" +
+      ClipsContract.Clip.COL_DATA + " NOT NULL AND " +
+      ClipsContract.Clip.COL_SIZE + " >= " + FILE_SIZE + ")) AND " +
+      ClipsContract.Clip._ID + " > ?";
+    final String idSelection = ClipsContract.Clip._ID + " = ?";
+    final List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+    long lastId = 0L;
+    int ret = 0;
+
+    final SQLiteStatement stmt = db.compileStatement(SQL_UPDATE);
+    try {
+      while (true) {
+        // the next chunk, in PK order so rows that don't shrink are skipped
+        ids.clear();
+        Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME, idProjection,
+          selection, new String[]{Long.toString(lastId)}, null, null,
+          ClipsContract.Clip._ID + " ASC", Integer.toString(CHUNK_SIZE));
+        try {
+          while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+          }
+        } finally {
+          cursor.close();
+        }
+        if (ids.isEmpty()) {
+          break;
+        }
+        lastId = ids.get(ids.size() - 1);
+
+        db.beginTransaction();
+        try {
+          for (long id : ids) {
+            final String[] args = {Long.toString(id)};
+            cursor = db.query(ClipsContract.Clip.TABLE_NAME, textProjection,
+              idSelection, args, null, null, null);
+            Body body = null;
+            try {
+              if (!cursor.moveToFirst()) {
+                continue;
+              }
+              if (!cursor.isNull(0)) {
+                body = encode(cursor.getString(0));
+              } else if (!cursor.isNull(1)) {
+                // deflated by put, it only needs its file
+                body = encodeFile(cursor.getLong(2), cursor.getBlob(1));
+                if (body.file == null) {
+                  body = null;
+                }
+              }
+            } finally {
+              cursor.close();
+            }
+
+            if ((body != null) && (body.text == null)) {
+              bind(stmt, 1, body);
+              stmt.bindLong(4, id);
+              stmt.executeUpdateDelete();
+              ret++;
+            }
+          }
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+      }
+    } finally {
+      stmt.close();
+    }
+
+    Log.logD(TAG, "encoded " + ret + " rows in " +
+      (System.currentTimeMillis() - start) + " ms");
+
+    return ret;
+  }
+
+  /**
+   * Delete the files that no row refers to. Files are only written in a
+   * write transaction, so holding one keeps a file from getting a row
+   * after the names are read
+   * @return number of files deleted
+   */
+  public int deleteOrphanFiles() {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    int ret = 0;
+
+    db.beginTransaction();
+    try {
+      final File[] files = getDir().listFiles();
+      if ((files == null) || (files.length == 0)) {
+        return 0;
+      }
+
+      final Set<String> names = new HashSet<>();
+      final Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME,
+        new String[]{ClipsContract.Clip.COL_FILE},
+        ClipsContract.Clip.COL_FILE + " NOT NULL", null, null, null, null);
+      try {
+        while (cursor.moveToNext()) {
+          names.add(cursor.getString(0));
+        }
+      } finally {
+        cursor.close();
+      }
+
+      final long now = System.currentTimeMillis();
+      for (File file : files) {
+        if (!names.contains(file.getName()) &&
+          ((now - file.lastModified()) > ORPHAN_AGE) && file.delete()) {
+          ret++;
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Get the stored form of a clip's text. Call in a write transaction, it
+   * may write a file
+   * @param text the text
+   * @return stored form, the text itself if encoding fails
+   */
+  @NonNull
+  Body encode(@NonNull String text) {
+    return encode(text, true);
+  }
+
+  /**
+   * Get the stored form of a clip's text
+   * @param text   the text
+   * @param toFile if false, text large enough for a file is only deflated
+   * @return stored form, the text itself if encoding fails
+   */
+  @NonNull
+  private Body encode(@NonNull String text, boolean toFile) {
+    final byte[] bytes = text.getBytes(AppUtils.UTF_8);
+    if (bytes.length < DEFLATE_SIZE) {
+      return new Body(text, null, null);
+    }
+
+    try {
+      final byte[] data = deflate(bytes);
+      if (data.length < bytes.length) {
+        if (!toFile || (bytes.length < FILE_SIZE)) {
+          return new Body(null, data, null);
+        }
+        return encodeFile(ClipsContract.Clip.getHash(text), data);
+      }
+    } catch (IOException ex) {
+      Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, false);
+    }
+
+    return new Body(text, null, null);
+  }
+
+  /**
+   * Get the stored form of deflated text that goes in a file.
+   * Call in a write transaction, it writes the file
+   * @param hash hash of the text
+   * @param data the deflated text
+   * @return stored form, the data itself if the write fails
+   */
+  @NonNull
+  private Body encodeFile(long hash, @NonNull byte[] data) {
+    // the hash is unique, so it names the file
+    final String name = Long.toHexString(hash) + FILE_EXT;
+    try {
+      writeFile(name, data);
+      return new Body(null, null, name);
+    } catch (IOException ex) {
+      Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, false);
+    }
+
+    return new Body(null, data, null);
+  }
+
+  /**
+   * Bind the stored form of a clip's text
+   * @param stmt  statement to bind to
+   * @param index index of the text, the data and file follow it
+   * @param body  stored form
+   */
+  static void bind(@NonNull SQLiteStatement stmt, int index,
+                   @NonNull Body body) {
+    DatabaseUtils.bindObjectToProgram(stmt, index, body.text);
+    DatabaseUtils.bindObjectToProgram(stmt, index + 1, body.data);
+    DatabaseUtils.bindObjectToProgram(stmt, index + 2, body.file);
+  }
+
+  /** @return directory of the clip files */
+  private File getDir() {
+    final File dir = new File(mContext.getFilesDir(), DIR_NAME);
+    if (!dir.exists() && !dir.mkdirs()) {
+      Log.logD(TAG, "failed to create: " + dir.getPath());
+    }
+    return dir;
+  }
+
+  /**
+   * Write a clip file. The file is complete or not there at all
+   * @param name file name
+   * @param data contents
+   * @throws IOException if the write fails
+   */
+  private void writeFile(@NonNull String name, @NonNull byte[] data)
+    throws IOException {
+    final File file = new File(getDir(), name);
+    if (file.exists() && (file.length() == data.length)) {
+      // same hash, same text. It may be an orphan, so it is new again
+      if (!file.setLastModified(System.currentTimeMillis())) {
+        Log.logD(TAG, "failed to touch: " + file.getPath());
+      }
+      return;
+    }
+
+    final File tmpFile = new File(getDir(), name + TMP_EXT);
+    final OutputStream out = new FileOutputStream(tmpFile);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Failed to rename: " + tmpFile.getPath());
+    }
+  }
+
+  /**
+   * Read a clip file
+   * @param name file name
+   * @return inflated contents
+   * @throws IOException if the read fails
+   */
+  private byte[] readFile(@NonNull String name) throws IOException {
+    final InputStream in = new FileInputStream(new File(getDir(), name));
+    try {
+      return inflate(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] deflate(@NonNull byte[] bytes) throws IOException {
+    final ByteArrayOutputStream out =
+      new ByteArrayOutputStream(bytes.length / 2);
+    final DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+    try {
+      deflater.write(bytes);
+    } finally {
+      deflater.close();
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] inflate(@NonNull byte[] data) throws IOException {
+    return inflate(new ByteArrayInputStream(data));
+  }
+
+  private static byte[] inflate(@NonNull InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final InflaterInputStream inflater = new InflaterInputStream(in);
+    try {
+      final byte[] buffer = new byte[8192];
+      int count;
+      while ((count = inflater.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+    } finally {
+      inflater.close();
+    }
+    return out.toByteArray();
+  }
+
+  /** The stored form of a clip's text. Only one of the values is set */
+  static class Body {
+    final String text;
+    final byte[] data;
+    final String file;
+
+    private Body(String text, byte[] data, String file) {
+      this.text = text;
+      this.data = data;
+      this.file = file;
+    }
+  }
+}
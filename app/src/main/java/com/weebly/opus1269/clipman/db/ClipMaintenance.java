@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import com.weebly.opus1269.clipman.app.App;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+
+import java.io.File;
+
+/**
+ * Singleton to keep the Clips.db file compact and its planner statistics
+ * current. Each step is timed and the file sizes are recorded in the
+ * {@link Metrics}
+ */
+public class ClipMaintenance {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static ClipMaintenance sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  /** Class identifier */
+  private final String TAG = this.getClass().getSimpleName();
+
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "maintenance.";
+
+  /** Value of PRAGMA auto_vacuum for INCREMENTAL */
+  private static final long AUTO_VACUUM_INCREMENTAL = 2L;
+
+  /** Suffix of the write-ahead log file */
+  private static final String WAL_SUFFIX = "-wal";
+
+  private static final String SQL_HAS_STATS = "SELECT COUNT(*) FROM " +
+    "sqlite_master WHERE type = 'table' AND name = 'sqlite_stat1'";
+
+  private ClipMaintenance(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static ClipMaintenance INST(@NonNull Context context) {
+    synchronized (ClipMaintenance.class) {
+      if (sInstance == null) {
+        sInstance = new ClipMaintenance(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Return free pages to the file system, update the statistics, check
+   * the integrity and checkpoint the write-ahead log.
+   * Call from a background thread
+   */
+  public void run() {
+    final ClipsDatabaseHelper helper = App.getDbHelper();
+    final SQLiteDatabase db = helper.getWritableDatabase();
+    final long sizeBefore = getFileSize(db);
+
+    long start = Metrics.start();
+    long time = System.currentTimeMillis();
+    final long freePages =
+      DatabaseUtils.longForQuery(db, "PRAGMA freelist_count;", null);
+    if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum;", null) !=
+      AUTO_VACUUM_INCREMENTAL) {
+      // databases created before auto_vacuum was set have to be rebuilt
+      // once for it to take effect. Not allowed in onUpgrade's transaction
+      ClipsDatabaseHelper.execPragma(db, "auto_vacuum = INCREMENTAL");
+      db.execSQL("VACUUM;");
+      Log.logD(TAG, "converted to incremental vacuum");
+    } else if (freePages > 0L) {
+      ClipsDatabaseHelper.execPragma(db, "incremental_vacuum");
+    }
+    Metrics.time(METRIC + "vacuum", start);
+    Log.logD(TAG, "vacuum of " + freePages + " free pages took: " +
+      (System.currentTimeMillis() - time) + " ms");
+
+    start = Metrics.start();
+    time = System.currentTimeMillis();
+    if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) &&
+      (DatabaseUtils.longForQuery(db, SQL_HAS_STATS, null) > 0L)) {
+      // only analyzes the tables whose statistics are out of date
+      ClipsDatabaseHelper.execPragma(db, "optimize");
+    } else {
+      // older SQLite versions don't have optimize
+      db.execSQL("ANALYZE;");
+    }
+    Metrics.time(METRIC + "analyze", start);
+    Log.logD(TAG, "analyze took: " + (System.currentTimeMillis() - time) +
+      " ms");
+
+    start = Metrics.start();
+    final String check =
+      DatabaseUtils.stringForQuery(db, "PRAGMA quick_check;", null);
+    Metrics.time(METRIC + "check", start);
+    if (!"ok".equals(check)) {
+      Log.logE(mContext, TAG, "Integrity check failed: " + check,
+        "Database may be corrupt", false);
+    }
+
+    start = Metrics.start();
+    helper.checkpoint();
+    Metrics.time(METRIC + "checkpoint", start);
+
+    final long sizeAfter = getFileSize(db);
+    Metrics.record(METRIC + "bytesBefore", sizeBefore);
+    Metrics.record(METRIC + "bytesAfter", sizeAfter);
+    Log.logD(TAG, "file size before: " + sizeBefore + " after: " +
+      sizeAfter);
+  }
+
+  /**
+   * Get the size of the database and its write-ahead log
+   * @param db the Clips.db database
+   * @return size in bytes
+   */
+  private static long getFileSize(@NonNull SQLiteDatabase db) {
+    final String path = db.getPath();
+    return new File(path).length() + new File(path + WAL_SUFFIX).length();
+  }
+}
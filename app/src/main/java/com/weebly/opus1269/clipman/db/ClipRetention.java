@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.App;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.model.Analytics;
+import com.weebly.opus1269.clipman.model.Prefs;
+
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.LocalDateTime;
+import org.threeten.bp.ZoneId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Singleton to keep the Clip table within the storage duration, maximum
+ * clips and maximum storage limits. Favorites are never deleted. Rows are
+ * deleted in small transactions, so the writer is never blocked for long
+ */
+public class ClipRetention {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static ClipRetention sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  /** Class identifier */
+  private final String TAG = this.getClass().getSimpleName();
+
+  /** Most rows deleted in one transaction */
+  private static final int CHUNK_SIZE = 100;
+
+  private static final String NOT_FAV =
+    ClipsContract.Clip.COL_FAV + " = 0";
+
+  private static final String SQL_SELECT_STATS = "SELECT " +
+    ClipsContract.ClipStats.COL_COUNT + ", " +
+    ClipsContract.ClipStats.COL_BYTES + " FROM " +
+    ClipsContract.ClipStats.TABLE_NAME;
+
+  // one chunk of the non-favorites older than the argument
+  private static final String OLD_CHUNK_SELECTION =
+    ClipsContract.Clip._ID + " IN (SELECT " + ClipsContract.Clip._ID +
+      " FROM " + ClipsContract.Clip.TABLE_NAME +
+      " WHERE " + NOT_FAV + " AND " + ClipsContract.Clip.COL_DATE + " < ?" +
+      " LIMIT " + CHUNK_SIZE + ")";
+
+  private ClipRetention(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static ClipRetention INST(@NonNull Context context) {
+    synchronized (ClipRetention.class) {
+      if (sInstance == null) {
+        sInstance = new ClipRetention(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Delete non-favorites until all the limits are met.
+   * Call from a background thread
+   * @return number of rows deleted
+   */
+  public int run() {
+    final long start = System.currentTimeMillis();
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final Prefs prefs = Prefs.INST(mContext);
+
+    int deleted = deleteOlderThan(db, getDeleteTime(prefs.getDuration()));
+
+    final String orderBy = prefs.isDeleteLargestFirst() ?
+      ClipsContract.Clip.COL_SIZE + " DESC" :
+      ClipsContract.Clip.COL_DATE + " ASC";
+    deleted += deleteOverLimits(db, prefs.getMaxClips(),
+      prefs.getMaxStorage(), orderBy);
+
+    if (deleted > 0) {
+      Analytics.INST(mContext).eventDB(Analytics.INST(mContext).DB_DELETE,
+        Analytics.INST(mContext).DB_CLIP_ITEM, deleted);
+      mContext.getContentResolver()
+        .notifyChange(ClipsContract.Clip.CONTENT_URI, null);
+    }
+
+    Log.logD(TAG, "deleted " + deleted + " rows in " +
+      (System.currentTimeMillis() - start) + " ms");
+
+    return deleted;
+  }
+
+  /**
+   * Delete the non-favorites older than a time
+   * @param db         the Clips.db database
+   * @param deleteTime time in millis, nothing is deleted if not positive
+   * @return number of rows deleted
+   */
+  private int deleteOlderThan(@NonNull SQLiteDatabase db, long deleteTime) {
+    if (deleteTime <= 0L) {
+      return 0;
+    }
+
+    final String[] selectionArgs = {Long.toString(deleteTime)};
+    int ret = 0;
+    int count;
+    do {
+      count = db.delete(ClipsContract.Clip.TABLE_NAME, OLD_CHUNK_SELECTION,
+        selectionArgs);
+      ret += count;
+    } while (count == CHUNK_SIZE);
+
+    return ret;
+  }
+
+  /**
+   * Delete non-favorites in the given order until there are no more than
+   * maxCount rows and maxBytes of text. The running totals are kept
+   * by triggers, so the table is never scanned
+   * @param db       the Clips.db database
+   * @param maxCount maximum number of rows, 0 if no limit
+   * @param maxBytes maximum size of the text, 0 if no limit
+   * @param orderBy  order to delete in
+   * @return number of rows deleted
+   */
+  private int deleteOverLimits(@NonNull SQLiteDatabase db, int maxCount,
+                               long maxBytes, @NonNull String orderBy) {
+    if ((maxCount <= 0) && (maxBytes <= 0L)) {
+      return 0;
+    }
+
+    final String[] projection =
+      {ClipsContract.Clip._ID, ClipsContract.Clip.COL_SIZE};
+    final List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+    int ret = 0;
+
+    while (true) {
+      final long[] stats = getStats(db);
+      long overCount = (maxCount > 0) ? (stats[0] - maxCount) : 0L;
+      long overBytes = (maxBytes > 0L) ? (stats[1] - maxBytes) : 0L;
+      if ((overCount <= 0L) && (overBytes <= 0L)) {
+        break;
+      }
+
+      // pick just enough rows
+      ids.clear();
+      final Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME,
+        projection, NOT_FAV, null, null, null, orderBy,
+        Integer.toString(CHUNK_SIZE));
+      try {
+        while (((overCount > 0L) || (overBytes > 0L)) && cursor.moveToNext()) {
+          ids.add(cursor.getLong(0));
+          overCount--;
+          overBytes -= cursor.getLong(1);
+        }
+      } finally {
+        cursor.close();
+      }
+
+      if (ids.isEmpty()) {
+        // only favorites left
+        break;
+      }
+
+      final String selection =
+        ClipsContract.Clip._ID + " IN (" + TextUtils.join(",", ids) + ")";
+      final int count =
+        db.delete(ClipsContract.Clip.TABLE_NAME, selection, null);
+      if (count == 0) {
+        break;
+      }
+      ret += count;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Get the number of rows and size of the Clip table
+   * @param db the Clips.db database
+   * @return count and bytes
+   */
+  private long[] getStats(@NonNull SQLiteDatabase db) {
+    final long[] ret = {0L, 0L};
+    final Cursor cursor = db.rawQuery(SQL_SELECT_STATS, null);
+    try {
+      if (cursor.moveToFirst()) {
+        ret[0] = cursor.getLong(0);
+        ret[1] = cursor.getLong(1);
+      }
+    } finally {
+      cursor.close();
+    }
+    return ret;
+  }
+
+  /**
+   * Get the time before which clips are deleted
+   * @param duration storage duration preference
+   * @return time in millis, 0 to keep forever
+   */
+  private long getDeleteTime(@NonNull String duration) {
+    if (duration.equals(
+      mContext.getString(R.string.ar_duration_forever_value))) {
+      return 0L;
+    }
+
+    LocalDateTime deleteDate = LocalDate.now().atStartOfDay();
+    switch (duration) {
+      case "day":
+        deleteDate = deleteDate.minusDays(1);
+        break;
+      case "week":
+        deleteDate = deleteDate.minusWeeks(1);
+        break;
+      case "month":
+        deleteDate = deleteDate.minusMonths(1);
+        break;
+      case "year":
+        deleteDate = deleteDate.minusYears(1);
+        break;
+      default:
+        return 0L;
+    }
+
+    return deleteDate.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.weebly.opus1269.clipman.model.ClipItem;
+
+/**
+ * Build {@link ClipItem} objects from the rows of a Cursor that uses the
+ * {@link ClipsContract.Clip#FULL_PROJECTION}. No additional queries are made.
+ */
+public class ClipRowMapper {
+  private final ClipCodec mCodec;
+  private final int mIdIdx;
+  private final int mTextIdx;
+  private final int mDataIdx;
+  private final int mFileIdx;
+  private final int mPreviewIdx;
+  private final int mDateIdx;
+  private final int mFavIdx;
+  private final int mRemoteIdx;
+  private final int mDeviceIdx;
+  private final int mLabelsIdx;
+
+  /**
+   * Lookup the column positions once for the Cursor
+   * @param context a Context
+   * @param cursor  the Cursor we will map
+   */
+  public ClipRowMapper(@NonNull Context context, @NonNull Cursor cursor) {
+    mCodec = ClipCodec.INST(context);
+    mIdIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip._ID);
+    mTextIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_TEXT);
+    mDataIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_DATA);
+    mFileIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_FILE);
+    mPreviewIdx = cursor.getColumnIndex(ClipsContract.Clip.COL_PREVIEW);
+    mDateIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_DATE);
+    mFavIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_FAV);
+    mRemoteIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_REMOTE);
+    mDeviceIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_DEVICE);
+    mLabelsIdx = cursor.getColumnIndexOrThrow(ClipsContract.Clip.COL_LABELS);
+  }
+
+  /**
+   * Create a {@link ClipItem} from the current row
+   * @param cursor the Cursor we were created with
+   * @return new clip
+   */
+  @NonNull
+  public ClipItem map(@NonNull Cursor cursor) {
+    return new ClipItem(
+      cursor.getLong(mIdIdx),
+      mCodec.getText(cursor, mTextIdx, mDataIdx, mFileIdx, mPreviewIdx),
+      cursor.getLong(mDateIdx),
+      cursor.getLong(mFavIdx) != 0L,
+      cursor.getLong(mRemoteIdx) != 0L,
+      cursor.getString(mDeviceIdx),
+      cursor.getString(mLabelsIdx));
+  }
+}
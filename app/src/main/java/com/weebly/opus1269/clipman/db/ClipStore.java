@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.annotation.SuppressLint;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.weebly.opus1269.clipman.app.App;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.model.Analytics;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Singleton for in-process access to the Clips.db. It goes straight to the
+ * database with compiled statements that are kept for reuse, and sends the
+ * same change notifications as the {@link ClipsContentProvider}, which is
+ * only used by the Loaders and batches of operations
+ */
+public class ClipStore {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static ClipStore sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  /** Class identifier */
+  private final String TAG = this.getClass().getSimpleName();
+
+  /** Clip table joined to the LabelMap for filtering by Label */
+  static final String CLIP_LABEL_MAP_JOIN = ClipsContract.Clip.TABLE_NAME +
+    " INNER JOIN " + ClipsContract.LabelMap.TABLE_NAME + " ON " +
+    ClipsContract.Clip.TABLE_NAME + '.' + ClipsContract.Clip._ID + " = " +
+    ClipsContract.LabelMap.TABLE_NAME + '.' +
+    ClipsContract.LabelMap.COL_CLIP_ID;
+
+  /** Compiled statements not in use, by SQL */
+  private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
+  /** Database the statements were compiled for */
+  private SQLiteDatabase mDb;
+
+  private ClipStore(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static ClipStore INST(@NonNull Context context) {
+    synchronized (ClipStore.class) {
+      if (sInstance == null) {
+        sInstance = new ClipStore(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Query a table. The Cursor is not watched for changes
+   * @param table      table or join to query
+   * @param projection columns to return, null for all
+   * @param selection  WHERE clause, may be null
+   * @param args       arguments of selection, may be null
+   * @param orderBy    ORDER BY clause, may be null
+   * @return the rows
+   */
+  @NonNull
+  Cursor query(@NonNull String table, @Nullable String[] projection,
+               @Nullable String selection, @Nullable String[] args,
+               @Nullable String orderBy) {
+    final SQLiteDatabase db = App.getDbHelper().getReadableDatabase();
+    return db.query(table, projection, selection, args, null, null, orderBy);
+  }
+
+  /**
+   * Run a query that returns one long, e.g. a PK
+   * @param sql  SELECT statement
+   * @param args arguments of the statement
+   * @return first column of the first row, -1L if there are no rows
+   */
+  long queryForLong(@NonNull String sql, Object... args) {
+    final SQLiteStatement stmt = acquire(sql, args);
+    try {
+      return stmt.simpleQueryForLong();
+    } catch (SQLiteDoneException ignored) {
+      return -1L;
+    } finally {
+      release(sql, stmt);
+    }
+  }
+
+  /**
+   * Run a query that returns one String
+   * @param sql  SELECT statement
+   * @param args arguments of the statement
+   * @return first column of the first row, null if there are no rows
+   */
+  @Nullable
+  String queryForString(@NonNull String sql, Object... args) {
+    final SQLiteStatement stmt = acquire(sql, args);
+    try {
+      return stmt.simpleQueryForString();
+    } catch (SQLiteDoneException ignored) {
+      return null;
+    } finally {
+      release(sql, stmt);
+    }
+  }
+
+  /**
+   * Run an UPDATE or DELETE statement
+   * @param uri  Uri of the table that changes
+   * @param sql  statement to run
+   * @param args arguments of the statement
+   * @return number of rows changed
+   */
+  int execute(@NonNull Uri uri, @NonNull String sql, Object... args) {
+    final int rows;
+    final SQLiteStatement stmt = acquire(sql, args);
+    try {
+      rows = stmt.executeUpdateDelete();
+    } finally {
+      release(sql, stmt);
+    }
+
+    if (rows > 0) {
+      notifyChange(uri);
+    }
+
+    return rows;
+  }
+
+  /**
+   * Run a statement that is only used once, like one with a list of PKs,
+   * so it isn't kept for reuse
+   * @param uri  Uri of the table that changes
+   * @param sql  statement to run
+   * @param args arguments of the statement
+   * @return number of rows changed
+   */
+  int executeOnce(@NonNull Uri uri, @NonNull String sql, Object... args) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final int rows;
+    final SQLiteStatement stmt = db.compileStatement(sql);
+    try {
+      bindArgs(stmt, args);
+      rows = stmt.executeUpdateDelete();
+    } finally {
+      stmt.close();
+    }
+
+    if (rows > 0) {
+      notifyChange(uri);
+    }
+
+    return rows;
+  }
+
+  /**
+   * Run an INSERT statement
+   * @param uri  Uri of the table that changes
+   * @param sql  statement to run
+   * @param args arguments of the statement
+   * @return PK of the new row, -1L if none was added
+   */
+  long executeInsert(@NonNull Uri uri, @NonNull String sql, Object... args) {
+    final long row;
+    final SQLiteStatement stmt = acquire(sql, args);
+    try {
+      row = stmt.executeInsert();
+    } finally {
+      release(sql, stmt);
+    }
+
+    if (row != -1L) {
+      notifyChange(ContentUris.withAppendedId(uri, row));
+    }
+
+    return row;
+  }
+
+  /**
+   * Insert or replace a row, like {@link ClipsContentProvider#insert}
+   * @param uri    Uri of the table
+   * @param table  table name
+   * @param values column values
+   * @return PK of the row, -1L on error
+   */
+  long insert(@NonNull Uri uri, @NonNull String table,
+              @NonNull ContentValues values) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final long row = db.replaceOrThrow(table, null, values);
+
+    if (row != -1L) {
+      Log.logD(TAG, "Added or updated row: " + row + " in table: " + table);
+      eventDB(Analytics.INST(mContext).DB_CREATE_OR_UPDATE, table, 1);
+      notifyChange(ContentUris.withAppendedId(uri, row));
+    }
+
+    return row;
+  }
+
+  /**
+   * Update rows, like {@link ClipsContentProvider#update}
+   * @param uri       Uri of the table
+   * @param table     table name
+   * @param values    new column values
+   * @param selection WHERE clause, may be null
+   * @param args      arguments of selection, may be null
+   * @return number of rows updated
+   */
+  int update(@NonNull Uri uri, @NonNull String table,
+             @NonNull ContentValues values, @Nullable String selection,
+             @Nullable String[] args) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final int rows = db.update(table, values, selection, args);
+
+    Log.logD(TAG, "Updated rows: " + rows + " in table: " + table);
+    eventDB(Analytics.INST(mContext).DB_UPDATE, table, rows);
+    notifyChange(uri);
+
+    return rows;
+  }
+
+  /**
+   * Delete rows, like {@link ClipsContentProvider#delete}
+   * @param uri       Uri of the table
+   * @param table     table name
+   * @param selection WHERE clause, null for all rows
+   * @param args      arguments of selection, may be null
+   * @return number of rows deleted
+   */
+  int delete(@NonNull Uri uri, @NonNull String table,
+             @Nullable String selection, @Nullable String[] args) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final int rows = db.delete(table, selection, args);
+
+    Log.logD(TAG, "Deleted rows: " + rows + " in table: " + table);
+    if (rows > 0) {
+      eventDB(Analytics.INST(mContext).DB_DELETE, table, rows);
+    }
+    notifyChange(uri);
+
+    if (ClipsContract.LabelMap.TABLE_NAME.equals(table)) {
+      // also force Clip table change in case deleted label is in
+      // current MainActivity view
+      notifyChange(ClipsContract.Clip.CONTENT_URI);
+    }
+
+    return rows;
+  }
+
+  /**
+   * Notify observers of a change
+   * @param uri Uri that changed
+   */
+  void notifyChange(@NonNull Uri uri) {
+    mContext.getContentResolver().notifyChange(uri, null);
+  }
+
+  /**
+   * Get a compiled statement, reusing one if we can, and bind its arguments.
+   * A statement is used by one thread at a time, so another thread compiles
+   * its own rather than waiting, which could deadlock with a transaction
+   * @param sql  statement
+   * @param args arguments of the statement
+   * @return statement ready to run
+   */
+  @NonNull
+  private SQLiteStatement acquire(@NonNull String sql, Object[] args) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    SQLiteStatement stmt;
+    synchronized (mStatements) {
+      if (db != mDb) {
+        // statements belong to the database they were compiled for
+        closeStatements();
+        mDb = db;
+      }
+      stmt = mStatements.remove(sql);
+    }
+
+    if (stmt == null) {
+      stmt = db.compileStatement(sql);
+    }
+
+    bindArgs(stmt, args);
+
+    return stmt;
+  }
+
+  /**
+   * Bind the arguments of a statement
+   * @param stmt statement
+   * @param args arguments, may be null
+   */
+  private static void bindArgs(@NonNull SQLiteStatement stmt, Object[] args) {
+    if (args != null) {
+      for (int i = 0; i < args.length; i++) {
+        DatabaseUtils.bindObjectToProgram(stmt, i + 1, args[i]);
+      }
+    }
+  }
+
+  /**
+   * Get a selection for the rows with the given PKs. The PKs are numbers,
+   * so they go in the SQL, since there is a limit on the number of
+   * arguments
+   * @param column column with the PKs
+   * @param ids    the PKs
+   * @return selection
+   */
+  static String getIdSelection(@NonNull String column,
+                               @NonNull Collection<Long> ids) {
+    final StringBuilder ret = new StringBuilder(column).append(" IN (");
+    String sep = "";
+    for (long id : ids) {
+      ret.append(sep).append(id);
+      sep = ", ";
+    }
+    return ret.append(')').toString();
+  }
+
+  /**
+   * Keep a statement for reuse
+   * @param sql  statement
+   * @param stmt compiled statement
+   */
+  private void release(@NonNull String sql, @NonNull SQLiteStatement stmt) {
+    stmt.clearBindings();
+    synchronized (mStatements) {
+      if (mStatements.containsKey(sql)) {
+        // another thread released one first
+        stmt.close();
+      } else {
+        mStatements.put(sql, stmt);
+      }
+    }
+  }
+
+  /** Close all the unused statements, caller must hold the lock */
+  private void closeStatements() {
+    for (SQLiteStatement stmt : mStatements.values()) {
+      stmt.close();
+    }
+    mStatements.clear();
+  }
+
+  /**
+   * Count a database Analytics event for the Clip and Label tables,
+   * the same as the {@link ClipsContentProvider}
+   * @param action event action
+   * @param table  table name
+   * @param count  number of rows
+   */
+  private void eventDB(String action, String table, int count) {
+    final String label;
+    if (ClipsContract.Clip.TABLE_NAME.equals(table)) {
+      label = Analytics.INST(mContext).DB_CLIP_ITEM;
+    } else if (ClipsContract.Label.TABLE_NAME.equals(table)) {
+      label = Analytics.INST(mContext).DB_LABEL;
+    } else {
+      return;
+    }
+
+    Analytics.INST(mContext).eventDB(action, label, count);
+  }
+}
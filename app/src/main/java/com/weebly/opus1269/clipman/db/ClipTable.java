@@ -8,29 +8,33 @@
 package com.weebly.opus1269.clipman.db;
 
 import android.annotation.SuppressLint;
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
-import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.App;
 import com.weebly.opus1269.clipman.app.AppUtils;
 import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.model.Analytics;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Label;
 import com.weebly.opus1269.clipman.model.Prefs;
 
-import org.threeten.bp.LocalDate;
-import org.threeten.bp.LocalDateTime;
-import org.threeten.bp.ZoneId;
-
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /** Singleton to manage the Clips.db Clip table */
 public class ClipTable {
@@ -44,6 +48,83 @@ public class ClipTable {
   /** Class identifier */
   private final String TAG = this.getClass().getSimpleName();
 
+  /** Number of clips to insert between transaction yields */
+  private static final int YIELD_COUNT = 100;
+
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "clipTable.";
+
+  private static final String SQL_SELECT_ID = "SELECT " +
+    ClipsContract.Clip._ID + " FROM " + ClipsContract.Clip.TABLE_NAME +
+    " WHERE " + ClipsContract.Clip.TEXT_SELECTION;
+
+  private static final String SQL_SELECT_ID_FAV = SQL_SELECT_ID + "AND " +
+    ClipsContract.Clip.COL_FAV + " = ?";
+
+  private static final String SQL_UPDATE = "UPDATE " +
+    ClipsContract.Clip.TABLE_NAME + " SET " +
+    ClipsContract.Clip.COL_DATE + " = ?, " +
+    ClipsContract.Clip.COL_FAV + " = ?, " +
+    ClipsContract.Clip.COL_REMOTE + " = ?, " +
+    ClipsContract.Clip.COL_DEVICE + " = ?" +
+    " WHERE " + ClipsContract.Clip._ID + " = ?";
+
+  // same column order as SQL_INSERT
+  private static final String SQL_UPDATE_TEXT = "UPDATE " +
+    ClipsContract.Clip.TABLE_NAME + " SET " +
+    ClipsContract.Clip.COL_TEXT + " = ?, " +
+    ClipsContract.Clip.COL_DATA + " = ?, " +
+    ClipsContract.Clip.COL_FILE + " = ?, " +
+    ClipsContract.Clip.COL_HASH + " = ?, " +
+    ClipsContract.Clip.COL_FINGERPRINT + " = ?, " +
+    ClipsContract.Clip.COL_SIZE + " = ?, " +
+    ClipsContract.Clip.COL_PREVIEW + " = ?, " +
+    ClipsContract.Clip.COL_SORT_KEY + " = ?, " +
+    ClipsContract.Clip.COL_DATE + " = ?, " +
+    ClipsContract.Clip.COL_FAV + " = ?, " +
+    ClipsContract.Clip.COL_REMOTE + " = ?, " +
+    ClipsContract.Clip.COL_DEVICE + " = ?" +
+    " WHERE " + ClipsContract.Clip._ID + " = ?";
+
+  // a near duplicate keeps its text and gets the newest date and the
+  // favorite state of either
+  private static final String SQL_MERGE = "UPDATE " +
+    ClipsContract.Clip.TABLE_NAME + " SET " +
+    ClipsContract.Clip.COL_DATE + " = MAX(" +
+    ClipsContract.Clip.COL_DATE + ", ?), " +
+    ClipsContract.Clip.COL_FAV + " = MAX(" +
+    ClipsContract.Clip.COL_FAV + ", ?), " +
+    ClipsContract.Clip.COL_REMOTE + " = ?, " +
+    ClipsContract.Clip.COL_DEVICE + " = ?" +
+    " WHERE " + ClipsContract.Clip._ID + " = ?";
+
+  private static final String[] NEAR_PROJECTION = {
+    ClipsContract.Clip._ID,
+    ClipsContract.Clip.COL_TEXT,
+    ClipsContract.Clip.COL_DATA,
+    ClipsContract.Clip.COL_FILE,
+  };
+
+  private static final String NEAR_SELECTION =
+    ClipsContract.Clip.COL_FINGERPRINT + " = ?";
+
+  // the unique hash index is the clip identity
+  private static final String SQL_INSERT = "INSERT OR IGNORE INTO " +
+    ClipsContract.Clip.TABLE_NAME + " (" +
+    ClipsContract.Clip.COL_TEXT + ", " +
+    ClipsContract.Clip.COL_DATA + ", " +
+    ClipsContract.Clip.COL_FILE + ", " +
+    ClipsContract.Clip.COL_HASH + ", " +
+    ClipsContract.Clip.COL_FINGERPRINT + ", " +
+    ClipsContract.Clip.COL_SIZE + ", " +
+    ClipsContract.Clip.COL_PREVIEW + ", " +
+    ClipsContract.Clip.COL_SORT_KEY + ", " +
+    ClipsContract.Clip.COL_DATE + ", " +
+    ClipsContract.Clip.COL_FAV + ", " +
+    ClipsContract.Clip.COL_REMOTE + ", " +
+    ClipsContract.Clip.COL_DEVICE + ")" +
+    " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
 
   private ClipTable(@NonNull Context context) {
     mContext = context.getApplicationContext();
@@ -68,21 +149,8 @@ public class ClipTable {
    * @return true if in db
    */
   public boolean exists(@NonNull String clipText) {
-    boolean ret = false;
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final String[] projection = {ClipsContract.Clip._ID};
-    final String selection = ClipsContract.Clip.COL_TEXT + " = ?";
-    final String[] selectionArgs = {clipText};
-
-    final Cursor cursor = resolver.query(ClipsContract.Clip.CONTENT_URI,
-      projection, selection, selectionArgs, null);
-
-    if ((cursor != null) && (cursor.getCount() > 0)) {
-      ret = true;
-      cursor.close();
-    }
-    return ret;
+    return ClipStore.INST(mContext).queryForLong(SQL_SELECT_ID,
+      ClipsContract.Clip.getHash(clipText)) != -1L;
   }
 
   /**
@@ -96,49 +164,35 @@ public class ClipTable {
       return false;
     }
 
-    boolean ret = false;
-    final String favString = fav ? "1" : "0";
-
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final String[] projection = {ClipsContract.Clip._ID};
-    final String selection = ClipsContract.Clip.COL_TEXT + " = ? AND " +
-      ClipsContract.Clip.COL_FAV + " = ? ";
-    final String[] selectionArgs = {clipText, favString};
-
-    final Cursor cursor = resolver.query(ClipsContract.Clip.CONTENT_URI,
-      projection, selection, selectionArgs, null);
-
-    if ((cursor != null) && (cursor.getCount() > 0)) {
-      ret = true;
-      cursor.close();
-    }
-    return ret;
+    return ClipStore.INST(mContext).queryForLong(SQL_SELECT_ID_FAV,
+      ClipsContract.Clip.getHash(clipText), fav ? 1L : 0L) != -1L;
   }
 
   /**
-   * Get the PK of a {@link ClipItem}
-   * @param clipItem clip
-   * @return PK, -1L if not found
+   * Get a {@link ClipItem} with its full text
+   * @param id PK of the clip
+   * @return the clip, null if not found
    */
-  public long getId(@NonNull ClipItem clipItem) {
-    long ret = -1L;
-    final ContentResolver resolver = mContext.getContentResolver();
+  @Nullable
+  public ClipItem get(long id) {
+    final long start = Metrics.start();
+    final String selection = ClipsContract.Clip._ID + " = ?";
+    final String[] selectionArgs = {Long.toString(id)};
 
-    final String[] projection = {ClipsContract.Clip._ID};
-    final String selection = ClipsContract.Clip.COL_TEXT + " = ? ";
-    final String[] selectionArgs = {clipItem.getText()};
+    final Cursor cursor = ClipStore.INST(mContext).query(
+      ClipsContract.Clip.TABLE_NAME, ClipsContract.Clip.FULL_PROJECTION,
+      selection, selectionArgs, null);
 
-    final Cursor cursor = resolver.query(ClipsContract.Clip.CONTENT_URI,
-      projection, selection, selectionArgs, null);
-
-    if ((cursor != null) && (cursor.getCount() > 0)) {
-      cursor.moveToNext();
-      ret = cursor.getLong(cursor.getColumnIndex(ClipsContract.Clip._ID));
+    try {
+      if (cursor.moveToFirst()) {
+        return new ClipRowMapper(mContext, cursor).map(cursor);
+      }
+    } finally {
       cursor.close();
-      return ret;
+      Metrics.time(METRIC + "get", start);
     }
-    return ret;
+
+    return null;
   }
 
   /**
@@ -147,19 +201,15 @@ public class ClipTable {
    */
   public ArrayList<ClipItem> getAll() {
     final ArrayList<ClipItem> ret = new ArrayList<>(100);
-    final ContentResolver resolver = mContext.getContentResolver();
 
-    Uri uri = ClipsContract.Clip.CONTENT_URI;
-    final String[] projection = ClipsContract.Clip.FULL_PROJECTION;
-
-    final Cursor cursor = resolver.query(uri, projection, null, null, null);
-    if (cursor == null) {
-      return ret;
-    }
+    final Cursor cursor = ClipStore.INST(mContext).query(
+      ClipsContract.Clip.TABLE_NAME, ClipsContract.Clip.FULL_PROJECTION,
+      null, null, ClipsContract.Clip.getDefaultSortOrder(mContext));
 
     try {
+      final ClipRowMapper mapper = new ClipRowMapper(mContext, cursor);
       while (cursor.moveToNext()) {
-        ret.add(new ClipItem(mContext, cursor));
+        ret.add(mapper.map(cursor));
       }
     } finally {
       cursor.close();
@@ -181,9 +231,8 @@ public class ClipTable {
     }
 
     final ArrayList<ClipItem> ret = new ArrayList<>(100);
-    final ContentResolver resolver = mContext.getContentResolver();
 
-    Uri uri = ClipsContract.Clip.CONTENT_URI;
+    String table = ClipsContract.Clip.TABLE_NAME;
     final String[] projection = ClipsContract.Clip.FULL_PROJECTION;
 
     // Select all non-favorites
@@ -195,27 +244,27 @@ public class ClipTable {
       selection += ")";
     }
 
+    String[] selectionArgs = null;
     if (!AppUtils.isWhitespace(labelFilter)) {
-      // special Uri to JOIN
-      uri = ClipsContract.Clip.CONTENT_URI_JOIN;
-      // filter by Label name
-      selection += " AND (" + ClipsContract.LabelMap.COL_LABEL_NAME +
-        " = '" + labelFilter + "' )";
+      // JOIN to the LabelMap
+      table = ClipStore.CLIP_LABEL_MAP_JOIN;
+      // filter by Label PK
+      selection += " AND (" + ClipsContract.LabelMap.LABEL_NAME_SELECTION +
+        " )";
+      selectionArgs = new String[]{labelFilter};
     }
 
-    final Cursor cursor = resolver.query(
-      uri,
+    final Cursor cursor = ClipStore.INST(mContext).query(
+      table,
       projection,
       selection,
-      null,
-      null);
-    if (cursor == null) {
-      return ret;
-    }
+      selectionArgs,
+      ClipsContract.Clip.getDefaultSortOrder(mContext));
 
     try {
+      final ClipRowMapper mapper = new ClipRowMapper(mContext, cursor);
       while (cursor.moveToNext()) {
-        ret.add(new ClipItem(mContext, cursor));
+        ret.add(mapper.map(cursor));
       }
     } finally {
       cursor.close();
@@ -235,32 +284,229 @@ public class ClipTable {
       return false;
     }
 
-    final long id = getId(clipItem);
-    final boolean exists = (id != -1L);
+    final long start = Metrics.start();
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final boolean saved;
+
+    // one transaction, no lookups
+    db.beginTransaction();
+    try {
+      saved = save(db, clipItem, onNewOnly);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (saved) {
+      onSaved(1);
+    }
+
+    Metrics.time(METRIC + "save", start);
+
+    return saved;
+  }
+
+  /**
+   * Save a group of {@link ClipItem} objects to the database in one
+   * transaction, with one change notification
+   * @param clipItems the items to save
+   * @param onNewOnly for each item, if true only save if it doesn't exist
+   * @return for each item, true if it was saved
+   */
+  public boolean[] save(@NonNull List<ClipItem> clipItems,
+                        @NonNull boolean[] onNewOnly) {
+    final long start = Metrics.start();
+    final int count = clipItems.size();
+    final boolean[] ret = new boolean[count];
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    int nSaved = 0;
+
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < count; i++) {
+        final ClipItem clipItem = clipItems.get(i);
+        if (!ClipItem.isWhitespace(clipItem)) {
+          ret[i] = save(db, clipItem, onNewOnly[i]);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    for (boolean saved : ret) {
+      if (saved) {
+        nSaved++;
+      }
+    }
+    if (nSaved > 0) {
+      onSaved(nSaved);
+    }
+
+    Metrics.time(METRIC + "saveGroup", start);
+    Metrics.record(METRIC + "groupSize", count);
+
+    return ret;
+  }
+
+  /**
+   * Update or add a {@link ClipItem}. An item from the db is updated by its
+   * PK. A capture is matched by its text, and a near duplicate of an
+   * existing item is merged into it, as set by the user. The item gets the
+   * PK of its row
+   * @param db        writable database, in a transaction
+   * @param clipItem  the item to save
+   * @param onNewOnly if true, only save if it doesn't exist in db
+   * @return true if saved
+   */
+  private boolean save(@NonNull SQLiteDatabase db, @NonNull ClipItem clipItem,
+                       boolean onNewOnly) {
+    final long hash = ClipsContract.Clip.getHash(clipItem.getText());
+    boolean saved = false;
+
+    if (!onNewOnly) {
+      long id = clipItem.getId();
+      if (id == -1L) {
+        // a capture, find it by its text
+        id = ClipStore.INST(mContext).queryForLong(SQL_SELECT_ID, hash);
+      }
+      if ((id != -1L) && update(db, clipItem, id)) {
+        clipItem.setId(id);
+        saved = true;
+      }
+    }
+    if (!saved) {
+      final long nearId = getNearDuplicateId(db, clipItem.getText());
+      if (nearId != -1L) {
+        // not new, the same as an exact copy
+        if (!onNewOnly) {
+          merge(db, clipItem, nearId);
+          clipItem.setId(nearId);
+          saved = true;
+        }
+        return saved;
+      }
 
-    if (onNewOnly && exists) {
-      // already exists
+      final long id = insert(db, clipItem, hash);
+      if (id != -1L) {
+        LabelTables.INST(mContext).insertLabelsMap(db, clipItem, id);
+        clipItem.setId(id);
+        saved = true;
+      }
+    }
+
+    return saved;
+  }
+
+  /**
+   * Save a {@link ClipItem} from the db whose text was changed. The row
+   * keeps its PK and {@link Label} map
+   * @param clipItem the item with its new text
+   * @return true if saved
+   */
+  public boolean saveText(@NonNull ClipItem clipItem) {
+    final long id = clipItem.getId();
+    if ((id == -1L) || ClipItem.isWhitespace(clipItem)) {
       return false;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-    final ContentValues cvs = clipItem.getContentValues();
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final String text = clipItem.getText();
+    final boolean saved;
 
-    if (exists) {
-      // update
-      final Uri uri =
-        ContentUris.withAppendedId(ClipsContract.Clip.CONTENT_URI, id);
-      resolver.update(uri, cvs, null, null);
-    } else {
-      // insert new
-      resolver.insert(ClipsContract.Clip.CONTENT_URI, cvs);
+    // the codec may write a file, so it is in a write transaction
+    db.beginTransaction();
+    try {
+      final SQLiteStatement stmt = db.compileStatement(SQL_UPDATE_TEXT);
+      try {
+        bindText(stmt, text, ClipsContract.Clip.getHash(text));
+        bindValues(stmt, 9, clipItem);
+        stmt.bindLong(13, id);
+        saved = stmt.executeUpdateDelete() > 0;
+      } finally {
+        stmt.close();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
-      // add the LabelMap
-      LabelTables.INST(mContext)
-        .insertLabelsMap(new ArrayList<>(Collections.singleton(clipItem)));
+    if (saved) {
+      onSaved(1);
+    }
+
+    return saved;
+  }
+
+  /**
+   * Get the PK of an item whose text is the same as the given text when
+   * normalized at the level set by the user
+   * @param db   the Clips.db database
+   * @param text text to match
+   * @return PK of the newest match, -1L if there is none
+   */
+  private long getNearDuplicateId(@NonNull SQLiteDatabase db,
+                                  @NonNull String text) {
+    final Prefs prefs = Prefs.INST(mContext);
+    if (!prefs.isMergeWhitespace()) {
+      return -1L;
+    }
+
+    final boolean ignoreCase = prefs.isMergeCase();
+    final String[] selectionArgs =
+      {Long.toString(ClipsContract.Clip.getFingerprint(text))};
+
+    // the fingerprint is at the most aggressive level, so check the text
+    final Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME,
+      NEAR_PROJECTION, NEAR_SELECTION, selectionArgs, null, null,
+      ClipsContract.Clip.COL_DATE + " DESC");
+    try {
+      while (cursor.moveToNext()) {
+        final String other = ClipCodec.INST(mContext).getText(cursor, 1, 2, 3);
+        if ((other != null) &&
+          ClipsContract.Clip.isNearDuplicate(text, other, ignoreCase)) {
+          return cursor.getLong(0);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return -1L;
+  }
+
+  /**
+   * Merge a {@link ClipItem} into its near duplicate. The Labels of both
+   * are kept
+   * @param db       writable database, in a transaction
+   * @param clipItem the item to merge
+   * @param id       PK of the near duplicate
+   */
+  private void merge(@NonNull SQLiteDatabase db, @NonNull ClipItem clipItem,
+                     long id) {
+    final SQLiteStatement stmt = db.compileStatement(SQL_MERGE);
+    try {
+      bindValues(stmt, 1, clipItem);
+      stmt.bindLong(5, id);
+      stmt.executeUpdateDelete();
+    } finally {
+      stmt.close();
     }
 
-    return true;
+    LabelTables.INST(mContext).insertLabelsMap(db, clipItem, id);
+    Metrics.count(METRIC + "merged", 1L);
+    Log.logD(TAG, "Merged a near duplicate into: " + id);
+  }
+
+  /**
+   * Let everyone know clips were saved
+   * @param count number of clips
+   */
+  private void onSaved(int count) {
+    Analytics.INST(mContext).eventDB(
+      Analytics.INST(mContext).DB_CREATE_OR_UPDATE,
+      Analytics.INST(mContext).DB_CLIP_ITEM, count);
+    ClipStore.INST(mContext).notifyChange(ClipsContract.Clip.CONTENT_URI);
   }
 
   /**
@@ -273,51 +519,190 @@ public class ClipTable {
       return 0;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-    int ret;
+    final ArrayList<ContentProviderOperation> ops =
+      new ArrayList<>(clipItems.size());
+    addInsertOps(ops, clipItems, null, true);
 
-    // add the clips
-    final ContentValues[] clipCVs = new ContentValues[clipItems.size()];
-    for (int i = 0; i < clipItems.size(); i++) {
-      clipCVs[i] = clipItems.get(i).getContentValues();
-    }
-    ret = resolver.bulkInsert(ClipsContract.Clip.CONTENT_URI, clipCVs);
+    final ContentProviderResult[] results =
+      ClipsContentProvider.runBatch(mContext, ops);
 
-    // add the LabelMap
-    LabelTables.INST(mContext).insertLabelsMap(clipItems);
+    // count the clips that were added
+    int ret = 0;
+    for (int i = 0; i < results.length; i++) {
+      final Uri uri = ops.get(i).getUri();
+      if (ClipsContract.Clip.CONTENT_URI.equals(uri) &&
+        (results[i].uri != null) && (ContentUris.parseId(results[i].uri) > 0)) {
+        ret++;
+      }
+    }
 
     return ret;
   }
 
+  /**
+   * Update an existing {@link ClipItem} in place
+   * @param db       writable database, in a transaction
+   * @param clipItem the item to update
+   * @param id       PK of the item's row
+   * @return true if the row existed
+   */
+  private boolean update(@NonNull SQLiteDatabase db,
+                         @NonNull ClipItem clipItem, long id) {
+    final SQLiteStatement stmt = db.compileStatement(SQL_UPDATE);
+    try {
+      bindValues(stmt, 1, clipItem);
+      stmt.bindLong(5, id);
+      return stmt.executeUpdateDelete() > 0;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Add a {@link ClipItem} if its text is not in the table
+   * @param db       writable database, in a transaction
+   * @param clipItem the item to add
+   * @param hash     hash of the item's text
+   * @return row id of the new item, -1 if it already existed
+   */
+  private long insert(@NonNull SQLiteDatabase db,
+                      @NonNull ClipItem clipItem, long hash) {
+    final SQLiteStatement stmt = db.compileStatement(SQL_INSERT);
+    try {
+      bindText(stmt, clipItem.getText(), hash);
+      bindValues(stmt, 9, clipItem);
+      return stmt.executeInsert();
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Bind the stored form of a {@link ClipItem} text and the values
+   * computed from it, in the column order of {@link #SQL_INSERT}
+   * @param stmt statement to bind to
+   * @param text the text
+   * @param hash hash of the text
+   */
+  private void bindText(@NonNull SQLiteStatement stmt, @NonNull String text,
+                        long hash) {
+    ClipCodec.bind(stmt, 1, ClipCodec.INST(mContext).encode(text));
+    stmt.bindLong(4, hash);
+    stmt.bindLong(5, ClipsContract.Clip.getFingerprint(text));
+    stmt.bindLong(6, ClipsContract.Clip.getSize(text));
+    final String preview = ClipsContract.Clip.getPreview(text);
+    stmt.bindString(7, preview);
+    stmt.bindString(8, ClipsContract.Clip.getSortKey(preview));
+  }
+
+  /**
+   * Bind the date, fav, remote and device of a {@link ClipItem}
+   * @param stmt     statement to bind to
+   * @param index    index of the first value
+   * @param clipItem the item
+   */
+  private static void bindValues(@NonNull SQLiteStatement stmt, int index,
+                                 @NonNull ClipItem clipItem) {
+    stmt.bindLong(index, clipItem.getTime());
+    stmt.bindLong(index + 1, clipItem.isFav() ? 1L : 0L);
+    stmt.bindLong(index + 2, clipItem.isRemote() ? 1L : 0L);
+    DatabaseUtils.bindObjectToProgram(stmt, index + 3, clipItem.getDevice());
+  }
+
+  /**
+   * Add the operations to insert {@link ClipItem} objects and their
+   * {@link Label} map to a batch
+   * @param ops        the batch
+   * @param clipItems  the items to add
+   * @param labelOps   index of the operations that insert the Labels, if the
+   *                   batch inserts them
+   * @param allowYield if true, the batch may commit between items
+   */
+  void addInsertOps(@NonNull ArrayList<ContentProviderOperation> ops,
+                    @NonNull List<ClipItem> clipItems,
+                    @Nullable Map<String, Integer> labelOps,
+                    boolean allowYield) {
+    int count = 0;
+    for (ClipItem clipItem : clipItems) {
+      final int clipOp = ops.size();
+      ops.add(ContentProviderOperation
+        .newInsert(ClipsContract.Clip.CONTENT_URI)
+        .withValues(clipItem.getContentValues(mContext))
+        .withYieldAllowed(allowYield && (count % YIELD_COUNT == 0))
+        .build());
+      LabelTables.INST(mContext)
+        .addLabelsMapOps(ops, clipItem, clipOp, labelOps);
+      count++;
+    }
+  }
+
   /**
    * Delete the {@link ClipItem}
    * @param clipItem item to delete
    * @return true if deleted
    */
   public boolean delete(@NonNull ClipItem clipItem) {
-    if (ClipItem.isWhitespace(clipItem)) {
+    final long id = clipItem.getId();
+    if (id == -1L) {
       return false;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final String selection = ClipsContract.Clip.COL_TEXT + " = ? ";
-    final String[] selectionArgs = {clipItem.getText()};
+    final String selection = ClipsContract.Clip._ID + " = ?";
+    final String[] selectionArgs = {Long.toString(id)};
 
-    final long nRows = resolver.delete(ClipsContract.Clip.CONTENT_URI,
+    final long nRows = ClipStore.INST(mContext).delete(
+      ClipsContract.Clip.CONTENT_URI, ClipsContract.Clip.TABLE_NAME,
       selection, selectionArgs);
 
     return (nRows != -1L);
   }
 
+  /**
+   * Set the favorite state of a group of {@link ClipItem} objects in one
+   * statement, with one change notification
+   * @param ids PKs of the items
+   * @param fav new state
+   * @return number of rows updated
+   */
+  public int setFav(@NonNull Collection<Long> ids, boolean fav) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+
+    final ContentValues cv = new ContentValues(1);
+    cv.put(ClipsContract.Clip.COL_FAV, fav ? 1L : 0L);
+    final String selection =
+      ClipStore.getIdSelection(ClipsContract.Clip._ID, ids);
+
+    return ClipStore.INST(mContext).update(ClipsContract.Clip.CONTENT_URI,
+      ClipsContract.Clip.TABLE_NAME, cv, selection, null);
+  }
+
+  /**
+   * Delete a group of {@link ClipItem} objects in one statement, with one
+   * change notification. Their Label map is deleted with them
+   * @param ids PKs of the items
+   * @return number of rows deleted
+   */
+  public int delete(@NonNull Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+
+    final String selection =
+      ClipStore.getIdSelection(ClipsContract.Clip._ID, ids);
+
+    return ClipStore.INST(mContext).delete(ClipsContract.Clip.CONTENT_URI,
+      ClipsContract.Clip.TABLE_NAME, selection, null);
+  }
+
   /**
    * Delete all the {@link ClipItem} objects from the db
    * @return Number of rows deleted
    */
   public int deleteAll() {
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    return resolver.delete(ClipsContract.Clip.CONTENT_URI, null, null);
+    return ClipStore.INST(mContext).delete(ClipsContract.Clip.CONTENT_URI,
+      ClipsContract.Clip.TABLE_NAME, null, null);
   }
 
   /**
@@ -333,32 +718,16 @@ public class ClipTable {
       return deleteAll();
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
     String selection;
+    String[] selectionArgs = null;
     if (!AppUtils.isWhitespace(labelFilter)) {
-      final String CLIP = ClipsContract.Clip.TABLE_NAME;
-      final String CLIP_ID = ClipsContract.Clip._ID;
-      final String CLIP_FAV = ClipsContract.Clip.COL_FAV;
-      final String CLIP_DOT_ID = CLIP + "." + CLIP_ID;
-      final String CLIP_DOT_FAV = CLIP + "." + CLIP_FAV;
-      final String LBL = ClipsContract.LabelMap.TABLE_NAME;
-      final String LBL_CLIP_ID = ClipsContract.LabelMap.COL_CLIP_ID;
-      final String LBL_NAME = ClipsContract.LabelMap.COL_LABEL_NAME;
-      final String LBL_DOT_CLIP_ID = LBL + "." + LBL_CLIP_ID;
-      final String LBL_DOT_NAME = LBL + "." + LBL_NAME;
-
-      String innerSelect = " SELECT " + CLIP_DOT_ID + " FROM " + CLIP +
-        " INNER JOIN " + LBL + " ON " + CLIP_DOT_ID + " = " + LBL_DOT_CLIP_ID;
-
-      String innerWhere = " WHERE " + LBL_DOT_NAME + " = '" + labelFilter + "'";
+      // select by Label PK
+      selection = ClipsContract.Clip.LABEL_NAME_SELECTION;
+      selectionArgs = new String[]{labelFilter};
       if (!deleteFavs) {
         // select non-favs only
-        innerWhere += " AND " + "( " + CLIP_DOT_FAV + " = 0 )";
+        selection += " AND ( " + ClipsContract.Clip.COL_FAV + " = 0 )";
       }
-
-      selection = CLIP_ID + " IN ( " + innerSelect + innerWhere + " )";
-
     } else {
       // no Label filter
       if (deleteFavs) {
@@ -370,44 +739,7 @@ public class ClipTable {
       }
     }
 
-    return resolver.delete(ClipsContract.Clip.CONTENT_URI, selection, null);
-  }
-
-  /** Delete rows older than the storage duration */
-  public void deleteOldItems() {
-    Log.logD(TAG, "deleteOldItems called");
-    final String value = Prefs.INST(mContext).getDuration();
-    if (value.equals(mContext.getString(R.string.ar_duration_forever))) {
-      return;
-    }
-
-    LocalDateTime deleteDate = LocalDate.now().atStartOfDay();
-    switch (value) {
-      case "day":
-        deleteDate = deleteDate.minusDays(1);
-        break;
-      case "week":
-        deleteDate = deleteDate.minusWeeks(1);
-        break;
-      case "month":
-        deleteDate = deleteDate.minusMonths(1);
-        break;
-      case "year":
-        deleteDate = deleteDate.minusYears(1);
-        break;
-      default:
-        return;
-    }
-
-    final long deleteTime =
-      deleteDate.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
-
-    // Select all non-favorites older than the calculated time
-    final String selection =
-      "(" + ClipsContract.Clip.COL_FAV + " = 0 " + ")" + " AND (" +
-        ClipsContract.Clip.COL_DATE + " < " + deleteTime + ")";
-
-    final ContentResolver resolver = mContext.getContentResolver();
-    resolver.delete(ClipsContract.Clip.CONTENT_URI, selection, null);
+    return ClipStore.INST(mContext).delete(ClipsContract.Clip.CONTENT_URI,
+      ClipsContract.Clip.TABLE_NAME, selection, selectionArgs);
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.model.ClipItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that saves clipboard captures on its own thread, one
+ * transaction at a time. Captures that arrive close together, like the
+ * double writes of some apps, are saved in the same transaction.
+ * Results are delivered on the main thread
+ */
+public class ClipWriter {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static ClipWriter sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  /** Class identifier */
+  private final String TAG = this.getClass().getSimpleName();
+
+  /** Most captures waiting to be saved */
+  private static final int QUEUE_SIZE = 32;
+
+  /** Most captures saved in one transaction */
+  private static final int GROUP_SIZE = 16;
+
+  /** How long to wait for more captures to join a transaction */
+  private static final long GROUP_MILLIS = 50L;
+
+  /** Captures waiting to be saved */
+  private final BlockingQueue<Capture> mQueue =
+    new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+  /** Delivers the results */
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  private ClipWriter(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        writeLoop();
+      }
+    }, TAG);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static ClipWriter INST(@NonNull Context context) {
+    synchronized (ClipWriter.class) {
+      if (sInstance == null) {
+        sInstance = new ClipWriter(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Queue a {@link ClipItem} to be saved. If the queue is full, the oldest
+   * capture is dropped, since the newest one is what the user copied
+   * @param clipItem  the item to save
+   * @param onNewOnly if true, only save if it doesn't exist in db
+   * @param listener  told the result on the main thread
+   */
+  public void save(@NonNull ClipItem clipItem, boolean onNewOnly,
+                   @NonNull Listener listener) {
+    final Capture capture = new Capture(clipItem, onNewOnly, listener);
+    while (!mQueue.offer(capture)) {
+      final Capture dropped = mQueue.poll();
+      if (dropped != null) {
+        Log.logD(TAG, "Queue full, dropped a capture");
+        deliver(dropped, false);
+      }
+    }
+  }
+
+  /** Save the captures as they arrive, forever */
+  private void writeLoop() {
+    final List<Capture> captures = new ArrayList<>(GROUP_SIZE);
+    //noinspection InfiniteLoopStatement
+    while (true) {
+      try {
+        captures.add(mQueue.take());
+        // give close captures a chance to join the transaction
+        Capture capture;
+        while ((captures.size() < GROUP_SIZE) &&
+          ((capture = mQueue.poll(GROUP_MILLIS, TimeUnit.MILLISECONDS))
+            != null)) {
+          captures.add(capture);
+        }
+        write(captures);
+      } catch (InterruptedException ignored) {
+        // keep going
+      } finally {
+        captures.clear();
+      }
+    }
+  }
+
+  /**
+   * Save a group of captures in one transaction
+   * @param captures the captures
+   */
+  private void write(@NonNull List<Capture> captures) {
+    final int count = captures.size();
+    final List<ClipItem> clipItems = new ArrayList<>(count);
+    final boolean[] onNewOnly = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      clipItems.add(captures.get(i).clipItem);
+      onNewOnly[i] = captures.get(i).onNewOnly;
+    }
+
+    boolean[] saved;
+    try {
+      saved = ClipTable.INST(mContext).save(clipItems, onNewOnly);
+    } catch (Exception ex) {
+      Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex,
+        "Failed to save clips", false);
+      saved = new boolean[count];
+    }
+
+    if (count > 1) {
+      Log.logD(TAG, "Saved " + count + " captures in one transaction");
+    }
+
+    for (int i = 0; i < count; i++) {
+      deliver(captures.get(i), saved[i]);
+    }
+  }
+
+  /**
+   * Tell the listener of a capture the result on the main thread
+   * @param capture the capture
+   * @param saved   true if it was saved
+   */
+  private void deliver(@NonNull final Capture capture, final boolean saved) {
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        capture.listener.onSaved(capture.clipItem, saved);
+      }
+    });
+  }
+
+  /** Receives the result of a save */
+  public interface Listener {
+    /**
+     * A capture was handled
+     * @param clipItem the item
+     * @param saved    true if it was saved
+     */
+    void onSaved(@NonNull ClipItem clipItem, boolean saved);
+  }
+
+  /** A {@link ClipItem} waiting to be saved */
+  private static class Capture {
+    final ClipItem clipItem;
+    final boolean onNewOnly;
+    final Listener listener;
+
+    Capture(ClipItem clipItem, boolean onNewOnly, Listener listener) {
+      this.clipItem = clipItem;
+      this.onNewOnly = onNewOnly;
+      this.listener = listener;
+    }
+  }
+}
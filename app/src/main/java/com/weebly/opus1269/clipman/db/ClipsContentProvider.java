@@ -8,30 +8,49 @@
 package com.weebly.opus1269.clipman.db;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.weebly.opus1269.clipman.app.App;
 import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
 import com.weebly.opus1269.clipman.model.Analytics;
 
-/** App private {@link ContentProvider} for the Clips.db */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * App private {@link ContentProvider} for the Clips.db. It serves the
+ * Loaders and batches of operations, other app code uses {@link ClipStore}
+ */
 public class ClipsContentProvider extends ContentProvider {
   private static final String TAG = "ClipsContentProvider";
 
   private static final String UNKNOWN_URI = "Unknown URI: ";
   private static final String UNSUPPORTED_URI = "Unsupported URI: ";
 
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "provider.";
+
   // used for the UriMatcher
   private static final int CLIP = 10;
   private static final int CLIP_ID = 20;
@@ -40,6 +59,7 @@ public class ClipsContentProvider extends ContentProvider {
   private static final int LABEL_MAP = 50;
   private static final int LABEL_MAP_ID = 60;
   private static final int CLIP_LABEL_MAP_JOIN = 70;
+  private static final int CLIP_SEARCH = 80;
   private static final UriMatcher URI_MATCHER =
     new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -52,11 +72,15 @@ public class ClipsContentProvider extends ContentProvider {
     URI_MATCHER.addURI(ClipsContract.AUTHORITY, "label_map/#", LABEL_MAP_ID);
     URI_MATCHER.addURI(ClipsContract.AUTHORITY, "clip_label_map_join",
       CLIP_LABEL_MAP_JOIN);
+    URI_MATCHER.addURI(ClipsContract.AUTHORITY, "clip_search", CLIP_SEARCH);
   }
 
   /** Context we are running in */
   private Context mContext;
 
+  /** State of the batch running on a thread, null if not in a batch */
+  private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
   @Override
   public boolean onCreate() {
     mContext = getContext();
@@ -66,6 +90,7 @@ public class ClipsContentProvider extends ContentProvider {
   @Override
   public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                       String[] selectionArgs, String sortOrder) {
+    final long start = Metrics.start();
 
     Uri newUri = uri;
     String newSelection = selection;
@@ -101,41 +126,75 @@ public class ClipsContentProvider extends ContentProvider {
         // present. Get the last path segment from the URI; this is the
         // _ID value. Then, append the value to the WHERE clause for
         // the query
-        newSelection += "and _ID = " + uri.getLastPathSegment();
+        queryBuilder.appendWhere(ClipsContract.Clip._ID + " = " +
+          Long.parseLong(uri.getLastPathSegment()));
         break;
       case LABEL_ID:
         queryBuilder.setTables(ClipsContract.Label.TABLE_NAME);
         if (TextUtils.isEmpty(sortOrder)) {
           newSortOrder = ClipsContract.Label.getDefaultSortOrder();
         }
-        newSelection += "and _ID = " + uri.getLastPathSegment();
+        queryBuilder.appendWhere(ClipsContract.Label._ID + " = " +
+          Long.parseLong(uri.getLastPathSegment()));
         break;
       case LABEL_MAP_ID:
         queryBuilder.setTables(ClipsContract.LabelMap.TABLE_NAME);
         if (TextUtils.isEmpty(sortOrder)) {
           newSortOrder = ClipsContract.LabelMap.getDefaultSortOrder();
         }
-        newSelection += "and _ID = " + uri.getLastPathSegment();
+        queryBuilder.appendWhere(ClipsContract.LabelMap._ID + " = " +
+          Long.parseLong(uri.getLastPathSegment()));
         break;
       case CLIP_LABEL_MAP_JOIN:
         // special case for filtering by Label
-        final String table = ClipsContract.Clip.TABLE_NAME + " INNER JOIN " +
-          ClipsContract.LabelMap.TABLE_NAME + " ON " +
-          ClipsContract.Clip.TABLE_NAME + '.' +
-          ClipsContract.Clip._ID + " = " +
-          ClipsContract.LabelMap.TABLE_NAME + '.' +
-          ClipsContract.LabelMap.COL_CLIP_ID;
-        queryBuilder.setTables(table);
+        queryBuilder.setTables(ClipStore.CLIP_LABEL_MAP_JOIN);
         if (TextUtils.isEmpty(sortOrder)) {
           newSortOrder = ClipsContract.Clip.getDefaultSortOrder(mContext);
         }
         // set to Clip Uri for notifications
         newUri = ClipsContract.Clip.CONTENT_URI;
          break;
+      case CLIP_SEARCH:
+        queryBuilder.setTables(ClipsContract.Clip.TABLE_NAME);
+        if (TextUtils.isEmpty(sortOrder)) {
+          newSortOrder = ClipsContract.Clip.getDefaultSortOrder(mContext);
+        }
+        final String match = ClipsContract.Clip.getSearchMatch(
+          uri.getQueryParameter(ClipsContract.Clip.PARAM_QUERY));
+        if (match != null) {
+          // use the FTS index instead of scanning all the text
+          queryBuilder.appendWhere(ClipsContract.Clip.TABLE_NAME + '.' +
+            ClipsContract.Clip._ID + " IN (SELECT docid FROM " +
+            ClipsContract.Clip.FTS_TABLE_NAME + " WHERE " +
+            ClipsContract.Clip.FTS_TABLE_NAME + " MATCH ");
+          queryBuilder.appendWhereEscapeString(match);
+          queryBuilder.appendWhere(")");
+        }
+        // set to Clip Uri for notifications
+        newUri = ClipsContract.Clip.CONTENT_URI;
+        break;
       default:
         throw new IllegalArgumentException(UNKNOWN_URI + uri);
     }
 
+    String limit = null;
+    if ((uriType == CLIP) || (uriType == CLIP_LABEL_MAP_JOIN) ||
+      (uriType == CLIP_SEARCH)) {
+      // paging of the Clip list
+      final String limitParam =
+        uri.getQueryParameter(ClipsContract.Clip.PARAM_LIMIT);
+      if (limitParam != null) {
+        limit = Integer.toString(Integer.parseInt(limitParam));
+      }
+      final String after = ClipsContract.Clip.getAfterSelection(uri);
+      if (after != null) {
+        // the keyset only works in its own order
+        newSelection = TextUtils.isEmpty(newSelection) ? after :
+          "(" + newSelection + ") AND " + after;
+        newSortOrder = ClipsContract.Clip.getAfterSortOrder(uri);
+      }
+    }
+
     // Do the query
     final SQLiteDatabase db = App.getDbHelper().getReadableDatabase();
     final Cursor cursor = queryBuilder.query(
@@ -145,12 +204,14 @@ public class ClipsContentProvider extends ContentProvider {
       selectionArgs,
       null,
       null,
-      newSortOrder);
+      newSortOrder,
+      limit);
 
     // set notifier
     final ContentResolver resolver = mContext.getContentResolver();
     cursor.setNotificationUri(resolver, newUri);
 
+    Metrics.time(METRIC + "query", start);
     return cursor;
   }
 
@@ -162,6 +223,7 @@ public class ClipsContentProvider extends ContentProvider {
 
   @Override
   public Uri insert(@NonNull Uri uri, ContentValues values) {
+    final long start = Metrics.start();
 
     Uri newUri = uri;
     final String table;
@@ -201,18 +263,19 @@ public class ClipsContentProvider extends ContentProvider {
       Log.logD(TAG, "Added or updated row from insert: " + row +
         " in table: " + table);
       if (labelGA != null) {
-        Analytics.INST(mContext).eventDB(actionGA, labelGA);
+        eventDB(actionGA, labelGA, 1);
       }
 
-      final ContentResolver resolver = mContext.getContentResolver();
-      resolver.notifyChange(newUri, null);
+      notifyChange(newUri);
     }
 
+    Metrics.time(METRIC + "insert", start);
     return newUri;
   }
 
   @Override
   public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+    final long start = Metrics.start();
     int insertCount = 0;
     final int uriType = URI_MATCHER.match(uri);
     final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
@@ -253,22 +316,19 @@ public class ClipsContentProvider extends ContentProvider {
 
     Log.logD(TAG, "Bulk insert rows: " + insertCount + " into table: " + table);
     if (labelGA != null) {
-      if (insertCount > 1) {
-        labelGA = labelGA + " " + insertCount;
-      }
-      Analytics.INST(mContext).eventDB(actionGA, labelGA);
+      eventDB(actionGA, labelGA, insertCount);
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-    resolver.notifyChange(uri, null);
+    notifyChange(uri);
 
+    Metrics.time(METRIC + "bulkInsert", start);
     return insertCount;
   }
 
   @Override
   public int delete(@NonNull Uri uri, String selection, String[]
     selectionArgs) {
-
+    final long start = Metrics.start();
     final int uriType = URI_MATCHER.match(uri);
     final String table;
     String newSelection = selection;
@@ -331,27 +391,25 @@ public class ClipsContentProvider extends ContentProvider {
 
     Log.logD(TAG, "Deleted rows: " + rowsDeleted + " in table: " + table);
     if ((labelGA != null) && (rowsDeleted > 0)) {
-      if (rowsDeleted > 1) {
-        labelGA = labelGA + " " + rowsDeleted;
-      }
-      Analytics.INST(mContext).eventDB(actionGA, labelGA);
+      eventDB(actionGA, labelGA, rowsDeleted);
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-    resolver.notifyChange(uri, null);
+    notifyChange(uri);
 
     if ((uriType == LABEL_MAP) || (uriType == LABEL_MAP_ID)) {
       // also force Clip table change in case deleted label is in
       // current MainActivity view
-      resolver.notifyChange(ClipsContract.Clip.CONTENT_URI, null);
+      notifyChange(ClipsContract.Clip.CONTENT_URI);
     }
 
+    Metrics.time(METRIC + "delete", start);
     return rowsDeleted;
   }
 
   @Override
   public int update(@NonNull Uri uri, ContentValues values, String selection,
                     String[] selectionArgs) {
+    final long start = Metrics.start();
     final String table;
     String newSelection = selection;
 
@@ -416,17 +474,148 @@ public class ClipsContentProvider extends ContentProvider {
       newSelection,
       selectionArgs);
 
-    final ContentResolver resolver = mContext.getContentResolver();
-    resolver.notifyChange(uri, null);
+    notifyChange(uri);
 
     Log.logD(TAG, "Updated rows: " + rowsUpdated + " in table: " + table);
     if (labelGA != null) {
-      if (rowsUpdated > 1) {
-        labelGA = labelGA + " " + rowsUpdated;
-      }
-      Analytics.INST(mContext).eventDB(actionGA, labelGA);
+      eventDB(actionGA, labelGA, rowsUpdated);
     }
 
+    Metrics.time(METRIC + "update", start);
     return rowsUpdated;
   }
+
+  /**
+   * Apply the operations in a single transaction. Change notifications
+   * are held until the transaction commits and sent once per Uri.
+   * The transaction may yield to other threads at operations that allow it,
+   * unless the batch is part of a transaction the caller started.
+   */
+  @NonNull
+  @Override
+  public ContentProviderResult[]
+  applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+    throws OperationApplicationException {
+    final long start = Metrics.start();
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final boolean isNested = db.inTransaction();
+    final int count = operations.size();
+    final ContentProviderResult[] results = new ContentProviderResult[count];
+    final Batch batch = new Batch();
+
+    mBatch.set(batch);
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < count; i++) {
+        final ContentProviderOperation operation = operations.get(i);
+        if (!isNested && (i > 0) && operation.isYieldAllowed()) {
+          db.yieldIfContendedSafely();
+        }
+        results[i] = operation.apply(this, results, i);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      mBatch.remove();
+    }
+
+    Log.logD(TAG, "Applied batch of: " + count + " operations");
+
+    // committed, let everyone know
+    final ContentResolver resolver = mContext.getContentResolver();
+    for (Uri uri : batch.uris) {
+      resolver.notifyChange(uri, null);
+    }
+    for (Map.Entry<String, Integer> entry : batch.events.entrySet()) {
+      final String[] key = entry.getKey().split(Batch.KEY_SEP);
+      sendEventDB(key[0], key[1], entry.getValue());
+    }
+
+    Metrics.time(METRIC + "applyBatch", start);
+    return results;
+  }
+
+  /**
+   * Apply a batch of operations to the Clips.db
+   * @param context  a Context
+   * @param ops      operations to apply
+   * @return results of the operations
+   * @throws SQLException - if the batch failed
+   */
+  static ContentProviderResult[]
+  runBatch(@NonNull Context context,
+           @NonNull ArrayList<ContentProviderOperation> ops)
+    throws SQLException {
+    if (ops.isEmpty()) {
+      return new ContentProviderResult[0];
+    }
+
+    try {
+      return context.getContentResolver()
+        .applyBatch(ClipsContract.AUTHORITY, ops);
+    } catch (RemoteException | OperationApplicationException ex) {
+      throw new SQLException("Batch failed: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Notify observers of a change, or defer it if we are in a batch
+   * @param uri Uri that changed
+   */
+  private void notifyChange(@NonNull Uri uri) {
+    final Batch batch = mBatch.get();
+    if (batch != null) {
+      // a change to a row is a change to its table for the batch
+      final List<String> segments = uri.getPathSegments();
+      if ((segments.size() > 1) &&
+        TextUtils.isDigitsOnly(uri.getLastPathSegment())) {
+        batch.uris.add(uri.buildUpon()
+          .path(TextUtils.join("/", segments.subList(0, segments.size() - 1)))
+          .build());
+      } else {
+        batch.uris.add(uri);
+      }
+    } else {
+      mContext.getContentResolver().notifyChange(uri, null);
+    }
+  }
+
+  /**
+   * Count a database Analytics event, or defer it if we are in a batch.
+   * {@link Analytics} sends the counts later, off our thread
+   * @param action event action
+   * @param label  event label
+   * @param count  number of rows
+   */
+  private void eventDB(String action, String label, int count) {
+    final Batch batch = mBatch.get();
+    if (batch != null) {
+      final String key = action + Batch.KEY_SEP + label;
+      final Integer total = batch.events.get(key);
+      batch.events.put(key, (total == null) ? count : (total + count));
+    } else {
+      sendEventDB(action, label, count);
+    }
+  }
+
+  /**
+   * Count a database Analytics event
+   * @param action event action
+   * @param label  event label
+   * @param count  number of rows
+   */
+  private void sendEventDB(String action, String label, int count) {
+    Analytics.INST(mContext).eventDB(action, label, count);
+  }
+
+  /** Changes made during an {@link #applyBatch(ArrayList)} */
+  private static class Batch {
+    static final String KEY_SEP = "\n";
+
+    /** Uris to notify on commit */
+    final Set<Uri> uris = new LinkedHashSet<>();
+
+    /** Analytics row counts by action and label */
+    final Map<String, Integer> events = new LinkedHashMap<>();
+  }
 }
@@ -8,14 +8,22 @@
 package com.weebly.opus1269.clipman.db;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import com.weebly.opus1269.clipman.BuildConfig;
 import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.AppUtils;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Prefs;
 
+import java.util.Locale;
+
 /** The contract between the {@link ClipsContentProvider} and applications. */
 public class ClipsContract {
 
@@ -34,21 +42,420 @@ public class ClipsContract {
     public static final Uri CONTENT_URI = Uri.parse(AUTHORITY_URI + "/clip");
     public static final Uri CONTENT_URI_JOIN = Uri.parse(AUTHORITY_URI +
       "/clip_label_map_join");
+    /** Full text search, use {@link #getSearchUri(String)} */
+    public static final Uri CONTENT_URI_SEARCH = Uri.parse(AUTHORITY_URI +
+      "/clip_search");
+    /** Query parameter of {@link #CONTENT_URI_SEARCH} with the search text */
+    public static final String PARAM_QUERY = "q";
+    /** Query parameter with the most rows to return */
+    public static final String PARAM_LIMIT = "limit";
+    /**
+     * Query parameters with the keyset of the last row of the previous page.
+     * Only rows after it in the date or text order are returned.
+     * Use {@link #getPageUri(Uri, int, Cursor, boolean, boolean)}
+     */
+    public static final String PARAM_AFTER_FAV = "after_fav";
+    public static final String PARAM_AFTER_DATE = "after_date";
+    public static final String PARAM_AFTER_SORT_KEY = "after_sort_key";
+    public static final String PARAM_AFTER_ID = "after_id";
     public static final String TABLE_NAME = "clip";
+    /**
+     * FTS4 index of the text, kept in sync with triggers. It has no copy of
+     * the text, so the rows {@link ClipCodec} deflated or put in a file are
+     * only indexed, and matched, by their preview
+     */
+    public static final String FTS_TABLE_NAME = "clip_fts";
     public static final String COL_TEXT = "text";
     public static final String COL_FAV = "fav";
     public static final String COL_DATE = "date";
     public static final String COL_REMOTE = "remote";
     public static final String COL_DEVICE = "device";
+    /** 64 bit hash of the text, indexed for fast identity lookups */
+    public static final String COL_HASH = "hash";
+    /**
+     * 64 bit hash of the text with its whitespace collapsed and its case
+     * folded, indexed to find near duplicates
+     */
+    public static final String COL_FINGERPRINT = "fingerprint";
+    /** Bytes used to store the text */
+    public static final String COL_SIZE = "size";
+    public static final String COL_PREVIEW = "preview";
+    /**
+     * Case folded start of the {@link #COL_PREVIEW}, indexed for the
+     * alphabetical order
+     */
+    public static final String COL_SORT_KEY = "sort_key";
+    /** Deflated text, if it is not stored in {@link #COL_TEXT} */
+    public static final String COL_DATA = "data";
+    /** Name of a file with the deflated text, if it is very large */
+    public static final String COL_FILE = "file";
+
+    /** Most characters in {@link #COL_PREVIEW} */
+    public static final int PREVIEW_LENGTH = 200;
+    /** Most characters in {@link #COL_SORT_KEY} */
+    static final int SORT_KEY_LENGTH = 64;
+    /** Computed column of all the {@link Label} items for a clip */
+    public static final String COL_LABELS = "labels";
+    /** Separates a Label's id from its name in {@link #COL_LABELS} */
+    public static final String LABELS_ID_SEP = "\u001F";
+    /** Separates the Label entries in {@link #COL_LABELS} */
+    public static final String LABELS_SEP = "\u001E";
+    /**
+     * Correlated subquery that gathers a clip's labels in the same query
+     * as the clip, so we don't have to do a query per row
+     */
+    public static final String LABELS_SELECT = "(SELECT GROUP_CONCAT(" +
+      "l." + ClipsContract.Label._ID + " || '" + LABELS_ID_SEP + "' || " +
+      "l." + ClipsContract.Label.COL_NAME + ", '" + LABELS_SEP + "')" +
+      " FROM " + ClipsContract.LabelMap.TABLE_NAME + " AS lm" +
+      " INNER JOIN " + ClipsContract.Label.TABLE_NAME + " AS l" +
+      " ON l." + ClipsContract.Label._ID +
+      " = lm." + ClipsContract.LabelMap.COL_LABEL_ID +
+      " WHERE lm." + ClipsContract.LabelMap.COL_CLIP_ID +
+      " = " + TABLE_NAME + '.' + ClipsContract.Clip._ID + ")" +
+      " AS " + COL_LABELS;
     public static final String[] FULL_PROJECTION = {
       TABLE_NAME + '.' + ClipsContract.Clip._ID,
       ClipsContract.Clip.COL_TEXT,
+      ClipsContract.Clip.COL_DATA,
+      ClipsContract.Clip.COL_FILE,
+      ClipsContract.Clip.COL_PREVIEW,
       ClipsContract.Clip.COL_DATE,
       ClipsContract.Clip.COL_FAV,
       ClipsContract.Clip.COL_REMOTE,
-      ClipsContract.Clip.COL_DEVICE
+      ClipsContract.Clip.COL_DEVICE,
+      LABELS_SELECT
+    };
+
+    /**
+     * Columns for the rows of a list. The full text is not loaded, the sort
+     * key is the keyset of the text order
+     */
+    public static final String[] LIST_PROJECTION = {
+      TABLE_NAME + '.' + ClipsContract.Clip._ID,
+      ClipsContract.Clip.COL_PREVIEW,
+      ClipsContract.Clip.COL_DATE,
+      ClipsContract.Clip.COL_FAV,
+      ClipsContract.Clip.COL_SORT_KEY,
     };
 
+    /**
+     * Selection for a row by its text. The unique hash is the identity,
+     * the stored text may be encoded
+     */
+    static final String TEXT_SELECTION = COL_HASH + " = ? ";
+
+    /** Selection for the rows with a Label, the argument is its name */
+    public static final String LABEL_NAME_SELECTION =
+      TABLE_NAME + '.' + ClipsContract.Clip._ID + " IN (SELECT " +
+        ClipsContract.LabelMap.TABLE_NAME + '.' +
+        ClipsContract.LabelMap.COL_CLIP_ID + " FROM " +
+        ClipsContract.LabelMap.TABLE_NAME + " WHERE " +
+        ClipsContract.LabelMap.LABEL_NAME_SELECTION + ")";
+
+    /**
+     * Selection for the rows whose text is LIKE the argument, for searches
+     * the index can't match. Like the index, it only sees the preview of
+     * the encoded rows
+     */
+    public static final String TEXT_LIKE_SELECTION =
+      "COALESCE(" + COL_TEXT + ", " + COL_PREVIEW + ") LIKE ?";
+
+    /**
+     * Get the hash of a clip's text
+     * @param text the text
+     * @return value for {@link #COL_HASH}
+     */
+    public static long getHash(@NonNull String text) {
+      return AppUtils.getHash64(text);
+    }
+
+    /**
+     * Get the fingerprint of a clip's text. Texts that are the same when
+     * normalized at any level have the same fingerprint
+     * @param text the text
+     * @return value for {@link #COL_FINGERPRINT}
+     */
+    public static long getFingerprint(@NonNull String text) {
+      return AppUtils.getHash64(normalize(text, true));
+    }
+
+    /**
+     * Normalize a clip's text for near duplicate detection. Line endings
+     * are unified and the whitespace at the end of lines and of the text
+     * is removed
+     * @param text       the text
+     * @param ignoreCase if true, also collapse all whitespace to one space
+     *                   and fold the case
+     * @return normalized text
+     */
+    public static String normalize(@NonNull String text, boolean ignoreCase) {
+      if (ignoreCase) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+      }
+      return text.replaceAll("\\r\\n?", "\n")
+        .replaceAll("[ \\t\\x0B\\f]+\n", "\n").trim();
+    }
+
+    /**
+     * Determine if a clip's text is a near duplicate of another, so it is
+     * merged into it
+     * @param text       the text
+     * @param other      text of an existing clip
+     * @param ignoreCase true if also merging copies that differ in case
+     * @return true if the same when normalized
+     */
+    static boolean isNearDuplicate(@NonNull String text,
+                                   @NonNull String other,
+                                   boolean ignoreCase) {
+      return normalize(text, ignoreCase).equals(normalize(other, ignoreCase));
+    }
+
+    /**
+     * Get the storage size of a clip's text
+     * @param text the text
+     * @return value for {@link #COL_SIZE}
+     */
+    public static long getSize(@NonNull String text) {
+      return text.getBytes(AppUtils.UTF_8).length;
+    }
+
+    /**
+     * Get the start of a clip's text, with the whitespace collapsed
+     * @param text the text
+     * @return value for {@link #COL_PREVIEW}
+     */
+    public static String getPreview(@NonNull String text) {
+      // only look at enough of the text to fill the preview
+      final int end = Math.min(text.length(), PREVIEW_LENGTH * 4);
+      String ret = text.substring(0, end).trim().replaceAll("\\s+", " ");
+      if (ret.length() > PREVIEW_LENGTH) {
+        int len = PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(ret.charAt(len - 1))) {
+          // don't split a character
+          len--;
+        }
+        ret = ret.substring(0, len);
+      }
+      return ret;
+    }
+
+    /**
+     * Get the key of a clip's text in the alphabetical order
+     * @param preview value of {@link #COL_PREVIEW} for the text
+     * @return value for {@link #COL_SORT_KEY}
+     */
+    public static String getSortKey(@NonNull String preview) {
+      String ret = preview;
+      if (ret.length() > SORT_KEY_LENGTH) {
+        int len = SORT_KEY_LENGTH;
+        if (Character.isHighSurrogate(ret.charAt(len - 1))) {
+          // don't split a character
+          len--;
+        }
+        ret = ret.substring(0, len);
+      }
+      return ret.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the Uri to search the text of the clips
+     * @param query text to search for
+     * @return search Uri
+     */
+    public static Uri getSearchUri(@NonNull String query) {
+      return CONTENT_URI_SEARCH.buildUpon()
+        .appendQueryParameter(PARAM_QUERY, query)
+        .build();
+    }
+
+    /**
+     * Convert search text to a MATCH expression for {@link #FTS_TABLE_NAME}.
+     * Each word is a prefix search, and all must be present.
+     * @param query text to search for
+     * @return expression, null if the text has no searchable words
+     */
+    @Nullable
+    public static String getSearchMatch(@Nullable String query) {
+      if (TextUtils.isEmpty(query)) {
+        return null;
+      }
+
+      // split the same way as the 'simple' FTS tokenizer
+      final String[] tokens = query.toLowerCase(Locale.US)
+        .split("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+");
+      final StringBuilder match = new StringBuilder();
+      for (String token : tokens) {
+        if (!token.isEmpty()) {
+          if (match.length() > 0) {
+            match.append(' ');
+          }
+          match.append(token).append('*');
+        }
+      }
+
+      return (match.length() > 0) ? match.toString() : null;
+    }
+
+    /**
+     * Get a Uri that returns a limited number of rows
+     * @param uri   Clip Uri
+     * @param limit most rows to return
+     * @return page Uri
+     */
+    public static Uri getPageUri(@NonNull Uri uri, int limit) {
+      return uri.buildUpon()
+        .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+        .build();
+    }
+
+    /**
+     * Get a Uri for the page that follows a row in the date or text order
+     * @param uri    Clip Uri
+     * @param limit  most rows to return
+     * @param last   positioned on the last row of the previous page
+     * @param pinFav true if favorites are sorted first
+     * @param byDate true if in the date order
+     * @return page Uri
+     */
+    public static Uri getPageUri(@NonNull Uri uri, int limit,
+                                 @NonNull Cursor last, boolean pinFav,
+                                 boolean byDate) {
+      final Uri.Builder builder = getPageUri(uri, limit).buildUpon();
+      if (pinFav) {
+        builder.appendQueryParameter(PARAM_AFTER_FAV, Long.toString(
+          last.getLong(last.getColumnIndexOrThrow(COL_FAV))));
+      }
+      if (byDate) {
+        builder.appendQueryParameter(PARAM_AFTER_DATE, Long.toString(
+          last.getLong(last.getColumnIndexOrThrow(COL_DATE))));
+      } else {
+        final String sortKey =
+          last.getString(last.getColumnIndexOrThrow(COL_SORT_KEY));
+        builder.appendQueryParameter(PARAM_AFTER_SORT_KEY,
+          (sortKey == null) ? "" : sortKey);
+      }
+      return builder
+        .appendQueryParameter(PARAM_AFTER_ID, Long.toString(
+          last.getLong(last.getColumnIndexOrThrow(_ID))))
+        .build();
+    }
+
+    /**
+     * Get the selection for the keyset parameters of a page Uri.
+     * The numbers are parsed and the sort key is escaped, so they are safe
+     * to inline
+     * @param uri page Uri
+     * @return selection, null if the Uri has no keyset
+     * @throws NumberFormatException if a value is not a number
+     */
+    @Nullable
+    static String getAfterSelection(@NonNull Uri uri) {
+      final String date = uri.getQueryParameter(PARAM_AFTER_DATE);
+      final String sortKey = uri.getQueryParameter(PARAM_AFTER_SORT_KEY);
+      final String id = uri.getQueryParameter(PARAM_AFTER_ID);
+      if (((date == null) && (sortKey == null)) || (id == null)) {
+        return null;
+      }
+
+      final String ID = TABLE_NAME + '.' + _ID;
+      final long idValue = Long.parseLong(id);
+      String ret;
+      if (date != null) {
+        final long dateValue = Long.parseLong(date);
+        ret = COL_DATE + " < " + dateValue + " OR (" +
+          COL_DATE + " = " + dateValue + " AND " + ID + " < " + idValue + ")";
+      } else {
+        final String keyValue = DatabaseUtils.sqlEscapeString(sortKey);
+        ret = COL_SORT_KEY + " > " + keyValue + " OR (" +
+          COL_SORT_KEY + " = " + keyValue + " AND " + ID + " < " + idValue +
+          ")";
+      }
+
+      final String fav = uri.getQueryParameter(PARAM_AFTER_FAV);
+      if (fav != null) {
+        final long favValue = Long.parseLong(fav);
+        ret = COL_FAV + " < " + favValue + " OR (" +
+          COL_FAV + " = " + favValue + " AND (" + ret + "))";
+      }
+
+      return "(" + ret + ")";
+    }
+
+    /**
+     * Get the order of the keyset pages
+     * @param uri page Uri
+     * @return date or text order, with favorites first if the keyset has them
+     */
+    static String getAfterSortOrder(@NonNull Uri uri) {
+      String ret = "";
+      if (uri.getQueryParameter(PARAM_AFTER_FAV) != null) {
+        ret = COL_FAV + " DESC, ";
+      }
+      if (uri.getQueryParameter(PARAM_AFTER_DATE) != null) {
+        ret += COL_DATE + " DESC, ";
+      } else {
+        ret += COL_SORT_KEY + " ASC, ";
+      }
+      return ret + TABLE_NAME + '.' + _ID + " DESC";
+    }
+
+    /**
+     * Is the list sorted by date
+     * @param context a Context
+     * @return true if by date
+     */
+    public static boolean isSortByDate(Context context) {
+      return Prefs.INST(context).getSortType() == 0;
+    }
+
+    /** Columns of a row needed for {@link #getBeforeArgs(Context, Cursor)} */
+    public static final String[] SORT_KEY_PROJECTION = {
+      COL_FAV,
+      COL_DATE,
+      COL_SORT_KEY,
+      _ID,
+    };
+
+    /**
+     * Get the selection for the rows before a row in the order of
+     * {@link #getSortOrder(Context)}. The number of them is its position
+     * @param context a Context
+     * @return selection
+     */
+    public static String getBeforeSelection(Context context) {
+      final String ID = TABLE_NAME + '.' + _ID;
+      String ret;
+      if (isSortByDate(context)) {
+        ret = COL_DATE + " > ? OR (" + COL_DATE + " = ? AND " + ID + " > ?)";
+      } else {
+        ret = COL_SORT_KEY + " < ? OR (" + COL_SORT_KEY + " = ? AND " + ID +
+          " > ?)";
+      }
+      if (Prefs.INST(context).isPinFav()) {
+        ret = COL_FAV + " > ? OR (" + COL_FAV + " = ? AND (" + ret + "))";
+      }
+      return "(" + ret + ")";
+    }
+
+    /**
+     * Get the arguments for {@link #getBeforeSelection(Context)}
+     * @param context a Context
+     * @param cursor  positioned on a row of {@link #SORT_KEY_PROJECTION}
+     * @return selection arguments
+     */
+    public static String[] getBeforeArgs(Context context,
+                                         @NonNull Cursor cursor) {
+      final String key = isSortByDate(context) ?
+        Long.toString(cursor.getLong(1)) : cursor.getString(2);
+      final String id = Long.toString(cursor.getLong(3));
+      if (Prefs.INST(context).isPinFav()) {
+        final String fav = Long.toString(cursor.getLong(0));
+        return new String[]{fav, fav, key, key, id};
+      }
+      return new String[]{key, key, id};
+    }
+
     static String getDefaultSortOrder(Context context) {
       final String[] sorts =
         context.getResources().getStringArray(R.array
@@ -62,13 +469,41 @@ public class ClipsContract {
           .sort_type_clip_values);
       String ret = "";
       if (Prefs.INST(context).isPinFav()) {
-        ret = "fav DESC, ";
+        ret = COL_FAV + " DESC, ";
       }
       ret += sorts[Prefs.INST(context).getSortType()];
+      // unique, so the rows have a position. Matches the sort indexes
+      ret += ", " + TABLE_NAME + '.' + _ID + " DESC";
       return ret;
     }
   }
 
+  /**
+   * Inner class that defines the single row table with the running totals
+   * of the Clip table. It is kept current by triggers. Not in the provider
+   */
+  static class ClipStats {
+    static final String TABLE_NAME = "clip_stats";
+    static final String COL_COUNT = "count";
+    static final String COL_BYTES = "bytes";
+  }
+
+  /**
+   * Inner class that defines the table of the messages waiting to be sent
+   * to our other devices. Not in the provider
+   */
+  static class Outbox implements BaseColumns {
+    static final String TABLE_NAME = "outbox";
+    /** Unique id of the message, a retry is not queued twice */
+    static final String COL_MSG_ID = "msg_id";
+    /** The message JSON */
+    static final String COL_DATA = "data";
+    /** When it was queued */
+    static final String COL_DATE = "date";
+    /** Number of failed sends */
+    static final String COL_ATTEMPTS = "attempts";
+  }
+
   /** Inner class that defines the Label table */
   public static class Label implements BaseColumns {
     public static final String TABLE_NAME = "label";
@@ -93,17 +528,27 @@ public class ClipsContract {
       Uri.parse(AUTHORITY_URI + "/label_map");
     public static final String TABLE_NAME = "label_map";
     public static final String COL_CLIP_ID = "clip_id";
-    public static final String COL_LABEL_NAME = "label_name";
+    public static final String COL_LABEL_ID = "label_id";
     @SuppressWarnings("unused")
     public static final String[] FULL_PROJECTION = {
       ClipsContract.LabelMap._ID,
       ClipsContract.LabelMap.COL_CLIP_ID,
-      ClipsContract.LabelMap.COL_LABEL_NAME,
+      ClipsContract.LabelMap.COL_LABEL_ID,
     };
 
+    /**
+     * Selection for the rows of a Label, the argument is its name.
+     * The name is only compared once, in the Label table
+     */
+    public static final String LABEL_NAME_SELECTION =
+      TABLE_NAME + '.' + COL_LABEL_ID + " = (SELECT " +
+        ClipsContract.Label._ID + " FROM " +
+        ClipsContract.Label.TABLE_NAME + " WHERE " +
+        ClipsContract.Label.COL_NAME + " = ?)";
+
     @SuppressWarnings("SameReturnValue")
     static String getDefaultSortOrder() {
-      return "LOWER(label_name) ASC";
+      return COL_LABEL_ID + " ASC";
     }
   }
 }
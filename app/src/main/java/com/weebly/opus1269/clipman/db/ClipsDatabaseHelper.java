@@ -7,55 +7,240 @@
 
 package com.weebly.opus1269.clipman.db;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 
 import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.Log;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Label;
 
 import org.threeten.bp.Instant;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /** Manage access to and versioning of the Clips.db */
 public class ClipsDatabaseHelper extends SQLiteOpenHelper {
+  private static final String TAG = "ClipsDatabaseHelper";
+
   // If you change the database schema, you must increment the database version.
-  private static final int DATABASE_VERSION = 2;
+  private static final int DATABASE_VERSION = 11;
   private static final String DATABASE_NAME = "Clips.db";
 
+  // connection tuning - page cache per connection in KiB,
+  // memory mapped I/O and WAL file size limit in bytes
+  private static final int CACHE_SIZE_KB = 4096;
+  private static final long MMAP_SIZE = 16L * 1024L * 1024L;
+  private static final long JOURNAL_SIZE_LIMIT = 1024L * 1024L;
+  private static final int MAX_SQL_CACHE_SIZE = 50;
+
   private static final String TEXT = " TEXT";
   private static final String INTEGER = " INTEGER";
+  private static final String BLOB = " BLOB";
   private static final String UNIQUE = " UNIQUE";
 
-  private static final String SQL_CREATE_CLIP = "CREATE TABLE " +
-    ClipsContract.Clip.TABLE_NAME + " (" +
+  private static final String SQL_CLIP_COLUMNS = " (" +
     ClipsContract.Clip._ID + " INTEGER PRIMARY KEY" + "," +
-    ClipsContract.Clip.COL_TEXT + TEXT + UNIQUE + "," +
+    ClipsContract.Clip.COL_TEXT + TEXT + "," +
     ClipsContract.Clip.COL_DATE + INTEGER + "," +
     ClipsContract.Clip.COL_FAV + INTEGER + "," +
     ClipsContract.Clip.COL_REMOTE + INTEGER + "," +
-    ClipsContract.Clip.COL_DEVICE + TEXT +
+    ClipsContract.Clip.COL_DEVICE + TEXT + "," +
+    ClipsContract.Clip.COL_HASH + INTEGER + "," +
+    ClipsContract.Clip.COL_SIZE + INTEGER + "," +
+    ClipsContract.Clip.COL_PREVIEW + TEXT + "," +
+    ClipsContract.Clip.COL_DATA + BLOB + "," +
+    ClipsContract.Clip.COL_FILE + TEXT + "," +
+    ClipsContract.Clip.COL_FINGERPRINT + INTEGER + "," +
+    ClipsContract.Clip.COL_SORT_KEY + TEXT +
     " );";
 
+  private static final String SQL_CREATE_CLIP = "CREATE TABLE " +
+    ClipsContract.Clip.TABLE_NAME + SQL_CLIP_COLUMNS;
+
+  private static final String SQL_CREATE_CLIP_HASH_INDEX =
+    "CREATE UNIQUE INDEX " + ClipsContract.Clip.TABLE_NAME + "_hash_idx" +
+    " ON " + ClipsContract.Clip.TABLE_NAME +
+    " (" + ClipsContract.Clip.COL_HASH + ");";
+
+  // not unique, the same fingerprint is only a candidate near duplicate
+  private static final String SQL_CREATE_CLIP_FINGERPRINT_INDEX =
+    "CREATE INDEX " + ClipsContract.Clip.TABLE_NAME + "_fingerprint_idx" +
+    " ON " + ClipsContract.Clip.TABLE_NAME +
+    " (" + ClipsContract.Clip.COL_FINGERPRINT + ");";
+
+  // the list orders of ClipsContract.Clip.getSortOrder, with and without
+  // the favorites first. The date indexes are scanned backwards and end
+  // with the implicit _id
+  private static final String[] SQL_CREATE_CLIP_SORT_INDEXES = {
+    "CREATE INDEX " + ClipsContract.Clip.TABLE_NAME + "_date_idx" +
+      " ON " + ClipsContract.Clip.TABLE_NAME +
+      " (" + ClipsContract.Clip.COL_DATE + ");",
+    "CREATE INDEX " + ClipsContract.Clip.TABLE_NAME + "_sort_key_idx" +
+      " ON " + ClipsContract.Clip.TABLE_NAME +
+      " (" + ClipsContract.Clip.COL_SORT_KEY + ", " +
+      ClipsContract.Clip._ID + " DESC);",
+    "CREATE INDEX " + ClipsContract.Clip.TABLE_NAME + "_fav_sort_key_idx" +
+      " ON " + ClipsContract.Clip.TABLE_NAME +
+      " (" + ClipsContract.Clip.COL_FAV + " DESC, " +
+      ClipsContract.Clip.COL_SORT_KEY + ", " +
+      ClipsContract.Clip._ID + " DESC);",
+  };
+
+  // the retention order of the non-favorites, oldest or largest first
+  private static final String[] SQL_CREATE_CLIP_RETENTION_INDEXES = {
+    "CREATE INDEX " + ClipsContract.Clip.TABLE_NAME + "_fav_date_idx" +
+      " ON " + ClipsContract.Clip.TABLE_NAME +
+      " (" + ClipsContract.Clip.COL_FAV + ", " +
+      ClipsContract.Clip.COL_DATE + ");",
+    "CREATE INDEX " + ClipsContract.Clip.TABLE_NAME + "_fav_size_idx" +
+      " ON " + ClipsContract.Clip.TABLE_NAME +
+      " (" + ClipsContract.Clip.COL_FAV + ", " +
+      ClipsContract.Clip.COL_SIZE + ");",
+  };
+
+  private static final String SQL_CREATE_OUTBOX = "CREATE TABLE " +
+    ClipsContract.Outbox.TABLE_NAME + " (" +
+    ClipsContract.Outbox._ID + " INTEGER PRIMARY KEY" + "," +
+    ClipsContract.Outbox.COL_MSG_ID + TEXT + UNIQUE + " NOT NULL" + "," +
+    ClipsContract.Outbox.COL_DATA + TEXT + " NOT NULL" + "," +
+    ClipsContract.Outbox.COL_DATE + INTEGER + " NOT NULL" + "," +
+    ClipsContract.Outbox.COL_ATTEMPTS + INTEGER + " NOT NULL DEFAULT 0" +
+    " );";
+
+  private static final String SQL_UPDATE_CLIP_SIZE = "UPDATE " +
+    ClipsContract.Clip.TABLE_NAME + " SET " + ClipsContract.Clip.COL_SIZE +
+    " = LENGTH(CAST(" + ClipsContract.Clip.COL_TEXT + " AS BLOB));";
+
+  private static final String SQL_CREATE_CLIP_STATS = "CREATE TABLE " +
+    ClipsContract.ClipStats.TABLE_NAME + " (" +
+    "_id INTEGER PRIMARY KEY CHECK (_id = 1)" + "," +
+    ClipsContract.ClipStats.COL_COUNT + INTEGER + " NOT NULL" + "," +
+    ClipsContract.ClipStats.COL_BYTES + INTEGER + " NOT NULL" +
+    " );";
+
+  // the totals are kept as the clips change, so they never need a scan
+  private static final String[] SQL_CREATE_CLIP_STATS_TRIGGERS = {
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_stats_ai" +
+      " AFTER INSERT ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      " UPDATE " + ClipsContract.ClipStats.TABLE_NAME + " SET " +
+      ClipsContract.ClipStats.COL_COUNT + " = " +
+      ClipsContract.ClipStats.COL_COUNT + " + 1, " +
+      ClipsContract.ClipStats.COL_BYTES + " = " +
+      ClipsContract.ClipStats.COL_BYTES +
+      " + IFNULL(new." + ClipsContract.Clip.COL_SIZE + ", 0); END;",
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_stats_ad" +
+      " AFTER DELETE ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      " UPDATE " + ClipsContract.ClipStats.TABLE_NAME + " SET " +
+      ClipsContract.ClipStats.COL_COUNT + " = " +
+      ClipsContract.ClipStats.COL_COUNT + " - 1, " +
+      ClipsContract.ClipStats.COL_BYTES + " = " +
+      ClipsContract.ClipStats.COL_BYTES +
+      " - IFNULL(old." + ClipsContract.Clip.COL_SIZE + ", 0); END;",
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_stats_au" +
+      " AFTER UPDATE OF " + ClipsContract.Clip.COL_SIZE +
+      " ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      " UPDATE " + ClipsContract.ClipStats.TABLE_NAME + " SET " +
+      ClipsContract.ClipStats.COL_BYTES + " = " +
+      ClipsContract.ClipStats.COL_BYTES +
+      " + IFNULL(new." + ClipsContract.Clip.COL_SIZE + ", 0)" +
+      " - IFNULL(old." + ClipsContract.Clip.COL_SIZE + ", 0); END;",
+  };
+
+  // start the totals from the current rows
+  private static final String SQL_INIT_CLIP_STATS = "INSERT OR REPLACE INTO " +
+    ClipsContract.ClipStats.TABLE_NAME + " (_id, " +
+    ClipsContract.ClipStats.COL_COUNT + ", " +
+    ClipsContract.ClipStats.COL_BYTES + ")" +
+    " SELECT 1, COUNT(*), IFNULL(SUM(" + ClipsContract.Clip.COL_SIZE + "), 0)" +
+    " FROM " + ClipsContract.Clip.TABLE_NAME + ";";
+
+  private static final String FTS_CONTENT_NAME =
+    ClipsContract.Clip.FTS_TABLE_NAME + "_content";
+
+  // the indexed text of a row, encoded rows only have their preview in SQL
+  private static final String SQL_CREATE_CLIP_FTS_CONTENT = "CREATE VIEW " +
+    FTS_CONTENT_NAME + " AS SELECT " +
+    ClipsContract.Clip._ID + " AS rowid, COALESCE(" +
+    ClipsContract.Clip.COL_TEXT + ", " + ClipsContract.Clip.COL_PREVIEW +
+    ") AS " + ClipsContract.Clip.COL_TEXT +
+    " FROM " + ClipsContract.Clip.TABLE_NAME + ";";
+
+  // external content FTS4 table, so the text isn't stored twice
+  private static final String SQL_CREATE_CLIP_FTS = "CREATE VIRTUAL TABLE " +
+    ClipsContract.Clip.FTS_TABLE_NAME + " USING fts4(" +
+    "content=\"" + FTS_CONTENT_NAME + "\", " +
+    ClipsContract.Clip.COL_TEXT +
+    ");";
+
+  // FTS4 reads the old text from the content view, before the row changes
+  private static final String SQL_DELETE_CLIP_FTS = " DELETE FROM " +
+    ClipsContract.Clip.FTS_TABLE_NAME + " WHERE docid = old.rowid; END;";
+
+  // same text as the content view
+  private static final String SQL_INSERT_CLIP_FTS = " INSERT INTO " +
+    ClipsContract.Clip.FTS_TABLE_NAME +
+    "(docid, " + ClipsContract.Clip.COL_TEXT + ")" +
+    " VALUES (new.rowid, COALESCE(new." + ClipsContract.Clip.COL_TEXT +
+    ", new." + ClipsContract.Clip.COL_PREVIEW + ")); END;";
+
+  // keep the FTS index in sync with the Clip text,
+  // other columns change without reindexing
+  private static final String[] SQL_CREATE_CLIP_FTS_UPDATE_TRIGGERS = {
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_fts_bu" +
+      " BEFORE UPDATE OF " + ClipsContract.Clip.COL_TEXT +
+      " ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      SQL_DELETE_CLIP_FTS,
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_fts_au" +
+      " AFTER UPDATE OF " + ClipsContract.Clip.COL_TEXT +
+      " ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      SQL_INSERT_CLIP_FTS,
+  };
+
+  // keep the FTS index in sync with the Clip rows
+  private static final String[] SQL_CREATE_CLIP_FTS_TRIGGERS = {
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_fts_bd" +
+      " BEFORE DELETE ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      SQL_DELETE_CLIP_FTS,
+    "CREATE TRIGGER " + ClipsContract.Clip.TABLE_NAME + "_fts_ai" +
+      " AFTER INSERT ON " + ClipsContract.Clip.TABLE_NAME + " BEGIN" +
+      SQL_INSERT_CLIP_FTS,
+  };
+
+  private static final String[] CLIP_FTS_TRIGGER_NAMES = {
+    ClipsContract.Clip.TABLE_NAME + "_fts_bu",
+    ClipsContract.Clip.TABLE_NAME + "_fts_au",
+    ClipsContract.Clip.TABLE_NAME + "_fts_bd",
+    ClipsContract.Clip.TABLE_NAME + "_fts_ai",
+  };
+
+  // index the existing rows
+  private static final String SQL_REBUILD_CLIP_FTS = "INSERT INTO " +
+    ClipsContract.Clip.FTS_TABLE_NAME + "(" +
+    ClipsContract.Clip.FTS_TABLE_NAME + ") VALUES('rebuild');";
+
   private static final String SQL_CREATE_LABEL = "CREATE TABLE " +
     ClipsContract.Label.TABLE_NAME + " (" +
     ClipsContract.Label._ID + " INTEGER PRIMARY KEY" + "," +
     ClipsContract.Label.COL_NAME + TEXT + UNIQUE +
     " );";
 
-  private static final String SQL_CREATE_LABEL_MAP = "CREATE TABLE " +
-    ClipsContract.LabelMap.TABLE_NAME + " (" +
+  private static final String SQL_LABEL_MAP_COLUMNS = " (" +
     ClipsContract.LabelMap._ID + " INTEGER PRIMARY KEY" + "," +
     ClipsContract.LabelMap.COL_CLIP_ID + INTEGER + "," +
-    ClipsContract.LabelMap.COL_LABEL_NAME + TEXT + "," +
-    " FOREIGN KEY (" + ClipsContract.LabelMap.COL_LABEL_NAME + ") " +
+    ClipsContract.LabelMap.COL_LABEL_ID + INTEGER + "," +
+    " FOREIGN KEY (" + ClipsContract.LabelMap.COL_LABEL_ID + ") " +
     "REFERENCES " +
-    ClipsContract.Label.TABLE_NAME + "(" + ClipsContract.Label.COL_NAME + ")" +
+    ClipsContract.Label.TABLE_NAME + "(" + ClipsContract.Label._ID + ")" +
     " ON DELETE CASCADE" + " ON UPDATE CASCADE" + "," +
     " FOREIGN KEY (" + ClipsContract.LabelMap.COL_CLIP_ID + ") " +
     "REFERENCES " +
@@ -63,6 +248,22 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
     " ON DELETE CASCADE"  + " ON UPDATE CASCADE" +
     " );";
 
+  private static final String SQL_CREATE_LABEL_MAP = "CREATE TABLE " +
+    ClipsContract.LabelMap.TABLE_NAME + SQL_LABEL_MAP_COLUMNS;
+
+  // a clip's labels, and the cascades when a clip is deleted
+  private static final String SQL_CREATE_LABEL_MAP_CLIP_INDEX =
+    "CREATE INDEX " + ClipsContract.LabelMap.TABLE_NAME + "_clip_idx" +
+    " ON " + ClipsContract.LabelMap.TABLE_NAME +
+    " (" + ClipsContract.LabelMap.COL_CLIP_ID + ");";
+
+  // a label's clips, covers the label filter
+  private static final String SQL_CREATE_LABEL_MAP_LABEL_INDEX =
+    "CREATE UNIQUE INDEX " + ClipsContract.LabelMap.TABLE_NAME + "_label_idx" +
+    " ON " + ClipsContract.LabelMap.TABLE_NAME +
+    " (" + ClipsContract.LabelMap.COL_LABEL_ID + ", " +
+    ClipsContract.LabelMap.COL_CLIP_ID + ");";
+
   private final Context mContext;
 
   public ClipsDatabaseHelper(Context context) {
@@ -73,15 +274,44 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
   @Override
   public void onConfigure(SQLiteDatabase db) {
     super.onConfigure(db);
+
+    // readers get their own connections and don't block on the writer
+    db.enableWriteAheadLogging();
+    db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
+
+    // WAL is durable across app crashes with NORMAL, only a power loss
+    // can roll back the last transactions
+    execPragma(db, "synchronous = NORMAL");
+    execPragma(db, "cache_size = -" + CACHE_SIZE_KB);
+    execPragma(db, "mmap_size = " + MMAP_SIZE);
+    execPragma(db, "journal_size_limit = " + JOURNAL_SIZE_LIMIT);
+    // only takes effect for a new file, ClipMaintenance converts old ones
+    execPragma(db, "auto_vacuum = INCREMENTAL");
+  }
+
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    super.onOpen(db);
+    // not in onConfigure, so table rebuilds in onUpgrade don't cascade
     db.setForeignKeyConstraintsEnabled(true);
+    // so rows deleted by REPLACE fire the FTS delete trigger
+    db.execSQL("PRAGMA recursive_triggers = ON;");
   }
 
   @Override
   public void onCreate(SQLiteDatabase db) {
     // create the tables
     db.execSQL(SQL_CREATE_CLIP);
+    db.execSQL(SQL_CREATE_CLIP_HASH_INDEX);
+    db.execSQL(SQL_CREATE_CLIP_FINGERPRINT_INDEX);
+    for (String sql : SQL_CREATE_CLIP_SORT_INDEXES) {
+      db.execSQL(sql);
+    }
+    createClipFts(db);
+    createClipRetention(db);
     db.execSQL(SQL_CREATE_LABEL);
-    db.execSQL(SQL_CREATE_LABEL_MAP);
+    createLabelMap(db);
+    db.execSQL(SQL_CREATE_OUTBOX);
 
     // add some descriptive entries
     initDbRows(db);
@@ -89,14 +319,106 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
 
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    if ((oldVersion == 1) && (newVersion == 2)) {
+    if ((oldVersion < 3) && (newVersion >= 3)) {
+      // Replace the UNIQUE text constraint with a hash column and index
+      // Do this first, new ClipItem rows include the hash
+      upgradeClipHash(db);
+    }
+
+    if ((oldVersion < 2) && (newVersion >= 2)) {
       // Add the Label and LabelMap tables
       db.execSQL(SQL_CREATE_LABEL);
-      db.execSQL(SQL_CREATE_LABEL_MAP);
+      createLabelMap(db);
 
       // show how the new Label feature works
       createExampleLabel(db, Instant.now().toEpochMilli());
     }
+
+    if ((oldVersion >= 2) && (oldVersion < 5) && (newVersion >= 5)) {
+      // Link the LabelMap to the Label PK instead of its name
+      // Versions before 2 got the new LabelMap table above
+      upgradeLabelMapId(db);
+    }
+
+    if ((oldVersion < 6) && (newVersion >= 6)) {
+      if (oldVersion >= 4) {
+        // only reindex the text when it changes
+        db.execSQL("DROP TRIGGER IF EXISTS " +
+          ClipsContract.Clip.TABLE_NAME + "_fts_bu;");
+        db.execSQL("DROP TRIGGER IF EXISTS " +
+          ClipsContract.Clip.TABLE_NAME + "_fts_au;");
+        for (String sql : SQL_CREATE_CLIP_FTS_UPDATE_TRIGGERS) {
+          db.execSQL(sql);
+        }
+      }
+      if (oldVersion >= 3) {
+        // Versions before 3 got the size column in the rebuild above
+        db.execSQL("ALTER TABLE " + ClipsContract.Clip.TABLE_NAME +
+          " ADD COLUMN " + ClipsContract.Clip.COL_SIZE + INTEGER + ";");
+        db.execSQL(SQL_UPDATE_CLIP_SIZE);
+      }
+      // Add the indexes and totals for the retention limits
+      createClipRetention(db);
+    }
+
+    if ((oldVersion < 7) && (newVersion >= 7)) {
+      if (oldVersion >= 3) {
+        // Versions before 3 got the preview column in the rebuild above
+        db.execSQL("ALTER TABLE " + ClipsContract.Clip.TABLE_NAME +
+          " ADD COLUMN " + ClipsContract.Clip.COL_PREVIEW + TEXT + ";");
+      }
+      // Lists show the preview instead of loading all the text
+      upgradeClipPreview(db);
+    }
+
+    if ((oldVersion < 8) && (newVersion >= 8)) {
+      if (oldVersion >= 3) {
+        // Versions before 3 got the columns in the rebuild above
+        db.execSQL("ALTER TABLE " + ClipsContract.Clip.TABLE_NAME +
+          " ADD COLUMN " + ClipsContract.Clip.COL_DATA + BLOB + ";");
+        db.execSQL("ALTER TABLE " + ClipsContract.Clip.TABLE_NAME +
+          " ADD COLUMN " + ClipsContract.Clip.COL_FILE + TEXT + ";");
+      }
+      // Full text search of the clips, added in version 4. Recreate it to
+      // read the text through a view, so encoded rows are indexed by their
+      // preview. Needs the preview column, so it is done last
+      if (oldVersion >= 4) {
+        dropClipFts(db);
+      }
+      createClipFts(db);
+      db.execSQL(SQL_REBUILD_CLIP_FTS);
+
+      // the large rows are encoded in the background by ClipCodec
+    }
+
+    if ((oldVersion < 9) && (newVersion >= 9)) {
+      if (oldVersion >= 3) {
+        // Versions before 3 got the column in the rebuild above
+        db.execSQL("ALTER TABLE " + ClipsContract.Clip.TABLE_NAME +
+          " ADD COLUMN " + ClipsContract.Clip.COL_FINGERPRINT + INTEGER + ";");
+      }
+      // Near duplicates are found by the fingerprint of the text
+      upgradeClipFingerprint(db);
+      db.execSQL(SQL_CREATE_CLIP_FINGERPRINT_INDEX);
+    }
+
+    if ((oldVersion < 10) && (newVersion >= 10)) {
+      if (oldVersion >= 3) {
+        // Versions before 3 got the column in the rebuild above
+        db.execSQL("ALTER TABLE " + ClipsContract.Clip.TABLE_NAME +
+          " ADD COLUMN " + ClipsContract.Clip.COL_SORT_KEY + TEXT + ";");
+      }
+      // The lists are sorted by indexes instead of LOWER(preview)
+      upgradeClipSortKey(db);
+      for (String sql : SQL_CREATE_CLIP_SORT_INDEXES) {
+        db.execSQL(sql);
+      }
+    }
+
+    if ((oldVersion < 11) && (newVersion >= 11)) {
+      // Messages are queued until they are sent
+      db.execSQL(SQL_CREATE_OUTBOX);
+    }
   }
 
   @Override
@@ -112,22 +434,283 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
    */
   public void replaceDB(@NonNull List<Label> labels,
                         @NonNull List<ClipItem> clipItems) throws SQLException {
+    // one transaction, with no yields
+    final ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+
+    // clear tables
+    ops.add(ContentProviderOperation
+      .newDelete(ClipsContract.Clip.CONTENT_URI)
+      .build());
+    ops.add(ContentProviderOperation
+      .newDelete(ClipsContract.Label.CONTENT_URI)
+      .build());
+
+    // add contents, the LabelMap refers to the new Label rows
+    final Map<String, Integer> labelOps =
+      LabelTables.INST(mContext).addInsertLabelsOps(ops, labels);
+    ClipTable.INST(mContext).addInsertOps(ops, clipItems, labelOps, false);
+
+    ClipsContentProvider.runBatch(mContext, ops);
+
+    // move the restore into the database file now
+    checkpoint();
+  }
+
+  /**
+   * Copy the contents of the write-ahead log to the database and reset it.
+   * SQLite only does passive checkpoints as the log grows, so do a full one
+   * after large changes and periodically
+   */
+  public void checkpoint() {
     final SQLiteDatabase db = getWritableDatabase();
+    final long start = System.currentTimeMillis();
+    // TRUNCATE is PASSIVE on older SQLite versions, journal_size_limit
+    // still keeps the log small there
+    execPragma(db, "wal_checkpoint(TRUNCATE)");
+    Log.logD(TAG, "checkpoint took: " +
+      (System.currentTimeMillis() - start) + " ms");
+  }
+
+  /**
+   * Run a PRAGMA statement. Some return a row, so execSQL can't be used
+   * @param db     the Clips.db database
+   * @param pragma statement without the PRAGMA keyword
+   */
+  static void execPragma(SQLiteDatabase db, String pragma) {
+    final Cursor cursor = db.rawQuery("PRAGMA " + pragma + ";", null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Rebuild the Clip table with the hash column. SQLite can't drop the
+   * UNIQUE constraint on the text, so the table has to be copied
+   * @param db the Clips.db database
+   */
+  private void upgradeClipHash(SQLiteDatabase db) {
+    final String CLIP = ClipsContract.Clip.TABLE_NAME;
+    final String CLIP_NEW = CLIP + "_new";
+
+    db.execSQL("CREATE TABLE " + CLIP_NEW + SQL_CLIP_COLUMNS);
 
-    db.beginTransaction();
+    final String[] projection = {
+      ClipsContract.Clip._ID,
+      ClipsContract.Clip.COL_TEXT,
+      ClipsContract.Clip.COL_DATE,
+      ClipsContract.Clip.COL_FAV,
+      ClipsContract.Clip.COL_REMOTE,
+      ClipsContract.Clip.COL_DEVICE,
+    };
+    final Cursor cursor =
+      db.query(CLIP, projection, null, null, null, null, null);
     try {
-      // clear tables
-      ClipTable.INST(mContext).deleteAll();
-      LabelTables.INST(mContext).deleteAllLabels();
+      final ContentValues cv = new ContentValues();
+      while (cursor.moveToNext()) {
+        final String text = cursor.getString(1);
+        cv.clear();
+        cv.put(ClipsContract.Clip._ID, cursor.getLong(0));
+        cv.put(ClipsContract.Clip.COL_TEXT, text);
+        cv.put(ClipsContract.Clip.COL_DATE, cursor.getLong(2));
+        cv.put(ClipsContract.Clip.COL_FAV, cursor.getLong(3));
+        cv.put(ClipsContract.Clip.COL_REMOTE, cursor.getLong(4));
+        cv.put(ClipsContract.Clip.COL_DEVICE, cursor.getString(5));
+        if (text != null) {
+          cv.put(ClipsContract.Clip.COL_HASH,
+            ClipsContract.Clip.getHash(text));
+          cv.put(ClipsContract.Clip.COL_SIZE,
+            ClipsContract.Clip.getSize(text));
+        }
+        db.insertOrThrow(CLIP_NEW, null, cv);
+      }
+    } finally {
+      cursor.close();
+    }
 
-      // add contents
-      LabelTables.INST(mContext).insertLabels(labels);
-      ClipTable.INST(mContext).insert(clipItems);
+    // foreign keys are off here, so the LabelMap rows are kept
+    db.execSQL("DROP TABLE " + CLIP);
+    db.execSQL("ALTER TABLE " + CLIP_NEW + " RENAME TO " + CLIP);
+    db.execSQL(SQL_CREATE_CLIP_HASH_INDEX);
+  }
 
-      db.setTransactionSuccessful();
+  /**
+   * Fill in the preview column of all the rows
+   * @param db the Clips.db database
+   */
+  private void upgradeClipPreview(SQLiteDatabase db) {
+    final String[] projection =
+      {ClipsContract.Clip._ID, ClipsContract.Clip.COL_TEXT};
+    final SQLiteStatement stmt = db.compileStatement("UPDATE " +
+      ClipsContract.Clip.TABLE_NAME + " SET " +
+      ClipsContract.Clip.COL_PREVIEW + " = ? WHERE " +
+      ClipsContract.Clip._ID + " = ?;");
+    final Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME, projection,
+      null, null, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        final String text = cursor.getString(1);
+        if (text == null) {
+          continue;
+        }
+        stmt.bindString(1, ClipsContract.Clip.getPreview(text));
+        stmt.bindLong(2, cursor.getLong(0));
+        stmt.executeUpdateDelete();
+      }
     } finally {
-      db.endTransaction();
+      cursor.close();
+      stmt.close();
+    }
+  }
+
+  /**
+   * Fill in the sort key column of all the rows from their preview
+   * @param db the Clips.db database
+   */
+  private void upgradeClipSortKey(SQLiteDatabase db) {
+    final String[] projection =
+      {ClipsContract.Clip._ID, ClipsContract.Clip.COL_PREVIEW};
+    final SQLiteStatement stmt = db.compileStatement("UPDATE " +
+      ClipsContract.Clip.TABLE_NAME + " SET " +
+      ClipsContract.Clip.COL_SORT_KEY + " = ? WHERE " +
+      ClipsContract.Clip._ID + " = ?;");
+    final Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME, projection,
+      null, null, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        final String preview = cursor.getString(1);
+        if (preview == null) {
+          continue;
+        }
+        stmt.bindString(1, ClipsContract.Clip.getSortKey(preview));
+        stmt.bindLong(2, cursor.getLong(0));
+        stmt.executeUpdateDelete();
+      }
+    } finally {
+      cursor.close();
+      stmt.close();
+    }
+  }
+
+  /**
+   * Fill in the fingerprint column of all the rows
+   * @param db the Clips.db database
+   */
+  private void upgradeClipFingerprint(SQLiteDatabase db) {
+    final String[] projection = {
+      ClipsContract.Clip._ID,
+      ClipsContract.Clip.COL_TEXT,
+      ClipsContract.Clip.COL_DATA,
+      ClipsContract.Clip.COL_FILE,
+    };
+    final SQLiteStatement stmt = db.compileStatement("UPDATE " +
+      ClipsContract.Clip.TABLE_NAME + " SET " +
+      ClipsContract.Clip.COL_FINGERPRINT + " = ? WHERE " +
+      ClipsContract.Clip._ID + " = ?;");
+    final Cursor cursor = db.query(ClipsContract.Clip.TABLE_NAME, projection,
+      null, null, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        // rows may already be encoded
+        final String text = ClipCodec.INST(mContext).getText(cursor, 1, 2, 3);
+        if (text == null) {
+          continue;
+        }
+        stmt.bindLong(1, ClipsContract.Clip.getFingerprint(text));
+        stmt.bindLong(2, cursor.getLong(0));
+        stmt.executeUpdateDelete();
+      }
+    } finally {
+      cursor.close();
+      stmt.close();
+    }
+  }
+
+  /**
+   * Rebuild the LabelMap table with an integer Label foreign key.
+   * SQLite can't change a column or constraint, so the table has to be copied
+   * @param db the Clips.db database
+   */
+  private void upgradeLabelMapId(SQLiteDatabase db) {
+    final String MAP = ClipsContract.LabelMap.TABLE_NAME;
+    final String MAP_NEW = MAP + "_new";
+    final String LABEL = ClipsContract.Label.TABLE_NAME;
+
+    db.execSQL("CREATE TABLE " + MAP_NEW + SQL_LABEL_MAP_COLUMNS);
+
+    // drops mappings to missing Labels and duplicate mappings
+    db.execSQL("INSERT INTO " + MAP_NEW + " (" +
+      ClipsContract.LabelMap._ID + ", " +
+      ClipsContract.LabelMap.COL_CLIP_ID + ", " +
+      ClipsContract.LabelMap.COL_LABEL_ID + ")" +
+      " SELECT MIN(" + MAP + '.' + ClipsContract.LabelMap._ID + "), " +
+      MAP + '.' + ClipsContract.LabelMap.COL_CLIP_ID + ", " +
+      LABEL + '.' + ClipsContract.Label._ID +
+      " FROM " + MAP + " INNER JOIN " + LABEL +
+      " ON " + LABEL + '.' + ClipsContract.Label.COL_NAME +
+      " = " + MAP + ".label_name" +
+      " GROUP BY " + MAP + '.' + ClipsContract.LabelMap.COL_CLIP_ID + ", " +
+      LABEL + '.' + ClipsContract.Label._ID + ";");
+
+    // foreign keys are off here
+    db.execSQL("DROP TABLE " + MAP);
+    db.execSQL("ALTER TABLE " + MAP_NEW + " RENAME TO " + MAP);
+    db.execSQL(SQL_CREATE_LABEL_MAP_CLIP_INDEX);
+    db.execSQL(SQL_CREATE_LABEL_MAP_LABEL_INDEX);
+  }
+
+  /**
+   * Create the LabelMap table and its indexes
+   * @param db the Clips.db database
+   */
+  private void createLabelMap(SQLiteDatabase db) {
+    db.execSQL(SQL_CREATE_LABEL_MAP);
+    db.execSQL(SQL_CREATE_LABEL_MAP_CLIP_INDEX);
+    db.execSQL(SQL_CREATE_LABEL_MAP_LABEL_INDEX);
+  }
+
+  /**
+   * Create the FTS table for the clip text and the triggers that maintain it
+   * @param db the Clips.db database
+   */
+  private void createClipFts(SQLiteDatabase db) {
+    db.execSQL(SQL_CREATE_CLIP_FTS_CONTENT);
+    db.execSQL(SQL_CREATE_CLIP_FTS);
+    for (String sql : SQL_CREATE_CLIP_FTS_TRIGGERS) {
+      db.execSQL(sql);
+    }
+    for (String sql : SQL_CREATE_CLIP_FTS_UPDATE_TRIGGERS) {
+      db.execSQL(sql);
+    }
+  }
+
+  /**
+   * Drop the FTS table for the clip text and the triggers that maintain it
+   * @param db the Clips.db database
+   */
+  private void dropClipFts(SQLiteDatabase db) {
+    for (String name : CLIP_FTS_TRIGGER_NAMES) {
+      db.execSQL("DROP TRIGGER IF EXISTS " + name + ";");
+    }
+    db.execSQL("DROP TABLE IF EXISTS " +
+      ClipsContract.Clip.FTS_TABLE_NAME + ";");
+    db.execSQL("DROP VIEW IF EXISTS " + FTS_CONTENT_NAME + ";");
+  }
+
+  /**
+   * Create the indexes and the running totals used by {@link ClipRetention}
+   * @param db the Clips.db database
+   */
+  private void createClipRetention(SQLiteDatabase db) {
+    for (String sql : SQL_CREATE_CLIP_RETENTION_INDEXES) {
+      db.execSQL(sql);
+    }
+    db.execSQL(SQL_CREATE_CLIP_STATS);
+    for (String sql : SQL_CREATE_CLIP_STATS_TRIGGERS) {
+      db.execSQL(sql);
     }
+    db.execSQL(SQL_INIT_CLIP_STATS);
   }
 
   /**
@@ -144,14 +727,16 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
     long time = item.getTime();
     time = time + 1;
     item.setDate(time);
-    db.replace(ClipsContract.Clip.TABLE_NAME, null, item.getContentValues());
+    db.replace(ClipsContract.Clip.TABLE_NAME, null,
+      item.getContentValues(mContext));
 
     item = new ClipItem(mContext);
     item.setText(mContext, mContext.getString(R.string.default_clip_2));
     item.setFav(false);
     time = time + 1;
     item.setDate(time);
-    db.replace(ClipsContract.Clip.TABLE_NAME, null, item.getContentValues());
+    db.replace(ClipsContract.Clip.TABLE_NAME, null,
+      item.getContentValues(mContext));
 
     // create one with a label
     time = time + 1;
@@ -162,7 +747,8 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
     item.setFav(true);
     time = time + 1;
     item.setDate(time);
-    db.replace(ClipsContract.Clip.TABLE_NAME, null, item.getContentValues());
+    db.replace(ClipsContract.Clip.TABLE_NAME, null,
+      item.getContentValues(mContext));
   }
 
   /**
@@ -177,17 +763,18 @@ public class ClipsDatabaseHelper extends SQLiteOpenHelper {
     clipItem.setFav(true);
     clipItem.setDate(time);
     final long clipId = db.replace(ClipsContract.Clip.TABLE_NAME, null,
-      clipItem.getContentValues());
+      clipItem.getContentValues(mContext));
 
     // add new Label - has to come after ClipItem here
     final Label label = new Label("Example");
-    db.replace(ClipsContract.Label.TABLE_NAME, null, label.getContentValues());
+    final long labelId = db.replace(ClipsContract.Label.TABLE_NAME, null,
+      label.getContentValues());
 
     // Add to map table
-    if (clipId != -1L) {
+    if ((clipId != -1L) && (labelId != -1L)) {
       ContentValues cv = new ContentValues();
       cv.put(ClipsContract.LabelMap.COL_CLIP_ID, clipId);
-      cv.put(ClipsContract.LabelMap.COL_LABEL_NAME, label.getName());
+      cv.put(ClipsContract.LabelMap.COL_LABEL_ID, labelId);
       db.replace(ClipsContract.LabelMap.TABLE_NAME, null, cv);
     }
   }
@@ -8,11 +8,14 @@
 package com.weebly.opus1269.clipman.db;
 
 import android.annotation.SuppressLint;
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.weebly.opus1269.clipman.app.AppUtils;
@@ -20,7 +23,12 @@ import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Label;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Singleton to manage the Clips.db Label and LabelMap tables */
 public class LabelTables {
@@ -28,6 +36,46 @@ public class LabelTables {
   @SuppressLint("StaticFieldLeak")
   private static LabelTables sInstance;
 
+  // finds the Label PK by name in the same statement
+  private static final String SQL_INSERT_LABEL_MAP = "INSERT OR IGNORE INTO " +
+    ClipsContract.LabelMap.TABLE_NAME + " (" +
+    ClipsContract.LabelMap.COL_CLIP_ID + ", " +
+    ClipsContract.LabelMap.COL_LABEL_ID + ") SELECT ?, " +
+    ClipsContract.Label._ID + " FROM " + ClipsContract.Label.TABLE_NAME +
+    " WHERE " + ClipsContract.Label.COL_NAME + " = ?";
+
+  // maps each clip in a list of PKs to the Label with a name
+  private static final String SQL_INSERT_LABELS_MAP = "INSERT OR IGNORE INTO " +
+    ClipsContract.LabelMap.TABLE_NAME + " (" +
+    ClipsContract.LabelMap.COL_CLIP_ID + ", " +
+    ClipsContract.LabelMap.COL_LABEL_ID + ") SELECT " +
+    ClipsContract.Clip.TABLE_NAME + '.' + ClipsContract.Clip._ID + ", " +
+    ClipsContract.Label.TABLE_NAME + '.' + ClipsContract.Label._ID +
+    " FROM " + ClipsContract.Clip.TABLE_NAME + ", " +
+    ClipsContract.Label.TABLE_NAME + " WHERE " +
+    ClipsContract.Label.TABLE_NAME + '.' + ClipsContract.Label.COL_NAME +
+    " = ? AND ";
+
+  private static final String SQL_SELECT_LABEL_ID = "SELECT " +
+    ClipsContract.Label._ID + " FROM " + ClipsContract.Label.TABLE_NAME +
+    " WHERE " + ClipsContract.Label.COL_NAME + " = ?";
+
+  private static final String SQL_SELECT_LABELS = "SELECT " +
+    ClipsContract.Clip.LABELS_SELECT + " FROM " +
+    ClipsContract.Clip.TABLE_NAME + " WHERE " +
+    ClipsContract.Clip.TEXT_SELECTION;
+
+  private static final String SQL_SELECT_LABELS_BY_ID = "SELECT " +
+    ClipsContract.Clip.LABELS_SELECT + " FROM " +
+    ClipsContract.Clip.TABLE_NAME + " WHERE " +
+    ClipsContract.Clip._ID + " = ?";
+
+  private static final String SQL_SELECT_LABEL_MAP_ID = "SELECT " +
+    ClipsContract.LabelMap._ID + " FROM " +
+    ClipsContract.LabelMap.TABLE_NAME + " WHERE " +
+    ClipsContract.LabelMap.LABEL_NAME_SELECTION + " AND " +
+    ClipsContract.LabelMap.COL_CLIP_ID + " = ?";
+
   /** Global Application Context */
   private final Context mContext;
 
@@ -59,21 +107,7 @@ public class LabelTables {
       return false;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final String[] projection = {ClipsContract.Label.COL_NAME};
-    final String selection = ClipsContract.Label.COL_NAME + " = ? ";
-    final String[] selectionArgs = {labelName};
-
-    final Cursor cursor = resolver.query(ClipsContract.Label.CONTENT_URI,
-      projection, selection, selectionArgs, null);
-
-    if ((cursor != null) && (cursor.getCount() > 0)) {
-      // found it
-      cursor.close();
-      return true;
-    }
-    return false;
+    return getLabelId(labelName) != -1L;
   }
 
   /**
@@ -81,31 +115,8 @@ public class LabelTables {
    * @return PK for name, -1L if not found
    */
   public long getLabelId(@NonNull String labelName) {
-    long ret = -1L;
-
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final String[] projection = {ClipsContract.Label._ID};
-    final String selection = ClipsContract.Label.COL_NAME + " = ? ";
-    final String[] selectionArgs = {labelName};
-
-    final Cursor cursor = resolver.query(ClipsContract.Label.CONTENT_URI,
-      projection, selection, selectionArgs, null);
-    if ((cursor == null) || (cursor.getCount() <= 0)) {
-      if (cursor != null) {
-        cursor.close();
-      }
-      return ret;
-    }
-
-    try {
-      cursor.moveToNext();
-      final int idx = cursor.getColumnIndex(ClipsContract.Label._ID);
-      ret = cursor.getLong(idx);
-    } finally {
-      cursor.close();
-    }
-    return ret;
+    return ClipStore.INST(mContext).queryForLong(SQL_SELECT_LABEL_ID,
+      labelName);
   }
 
   /**
@@ -114,32 +125,56 @@ public class LabelTables {
    * @return List of labels
    */
   public List<Label> getLabels(@NonNull ClipItem clipItem) {
-    List<Label> ret = new ArrayList<>(0);
     if (ClipItem.isWhitespace(clipItem)) {
-      return ret;
+      return new ArrayList<>(0);
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
+    // one query gets the clip's labels with their PK's
+    final long id = clipItem.getId();
+    final String labels;
+    if (id != -1L) {
+      labels = ClipStore.INST(mContext).queryForString(
+        SQL_SELECT_LABELS_BY_ID, id);
+    } else {
+      // a capture, not loaded from the db
+      labels = ClipStore.INST(mContext).queryForString(
+        SQL_SELECT_LABELS, ClipsContract.Clip.getHash(clipItem.getText()));
+    }
 
-    final String[] projection = {ClipsContract.LabelMap.COL_LABEL_NAME};
-    final long id = clipItem.getId(mContext);
-    final String selection = ClipsContract.LabelMap.COL_CLIP_ID + " = " + id;
+    return parseLabels(labels);
+  }
 
-    Cursor cursor = resolver.query(ClipsContract.LabelMap.CONTENT_URI,
-      projection, selection, null, null);
-    if (cursor == null) {
-      return ret;
+  /**
+   * Parse the {@link ClipsContract.Clip#COL_LABELS} value of a row
+   * @param labels value of column, may be null
+   * @return List of labels sorted by name
+   */
+  @NonNull
+  public static List<Label> parseLabels(@Nullable String labels) {
+    if (TextUtils.isEmpty(labels)) {
+      return new ArrayList<>(0);
     }
 
-    try {
-      while (cursor.moveToNext()) {
-        int idx = cursor.getColumnIndex(ClipsContract.LabelMap.COL_LABEL_NAME);
-        final String name = cursor.getString(idx);
-        long labelId = getLabelId(name);
-        ret.add(new Label(name, labelId));
+    final String[] entries = labels.split(ClipsContract.Clip.LABELS_SEP);
+    final List<Label> ret = new ArrayList<>(entries.length);
+    for (String entry : entries) {
+      final int pos = entry.indexOf(ClipsContract.Clip.LABELS_ID_SEP);
+      if (pos == -1) {
+        continue;
       }
-    } finally {
-      cursor.close();
+      final long id = Long.parseLong(entry.substring(0, pos));
+      final String name = entry.substring(pos + 1);
+      ret.add(new Label(name, id));
+    }
+
+    if (ret.size() > 1) {
+      // GROUP_CONCAT order is undefined
+      Collections.sort(ret, new Comparator<Label>() {
+        @Override
+        public int compare(Label lhs, Label rhs) {
+          return lhs.getName().compareToIgnoreCase(rhs.getName());
+        }
+      });
     }
 
     return ret;
@@ -151,16 +186,11 @@ public class LabelTables {
    */
   public List<Label> getAllLabels() {
     final ArrayList<Label> list = new ArrayList<>(0);
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final String[] projection = {" * "};
 
     // query for all
-    final Cursor cursor = resolver.query(ClipsContract.Label.CONTENT_URI,
-      projection, null, null, null);
-    if ((cursor == null) || (cursor.getCount() <= 0)) {
-      return list;
-    }
+    final Cursor cursor = ClipStore.INST(mContext).query(
+      ClipsContract.Label.TABLE_NAME, null, null, null,
+      ClipsContract.Label.getDefaultSortOrder());
 
     try {
       while (cursor.moveToNext()) {
@@ -179,27 +209,25 @@ public class LabelTables {
 
   /** Delete all the {@link Label} objects from the db */
   public void deleteAllLabels() {
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    resolver.delete(ClipsContract.Label.CONTENT_URI, null, null);
+    ClipStore.INST(mContext).delete(ClipsContract.Label.CONTENT_URI,
+      ClipsContract.Label.TABLE_NAME, null, null);
   }
 
   /**
-   * Update the name of a {@link Label}
+   * Update the name of a {@link Label}. The LabelMap refers to the PK, so
+   * only the one row changes
    * @param newName new name
    * @param oldName current name
    */
   public void updateLabel(@NonNull String newName,
                           @NonNull String oldName) {
-    final ContentResolver resolver = mContext.getContentResolver();
-
     // update Label
     final String[] selectionArgs = {oldName};
     final String selection = ClipsContract.Label.COL_NAME + " = ? ";
     ContentValues cv = new ContentValues();
     cv.put(ClipsContract.Label.COL_NAME, newName);
-    resolver.update(ClipsContract.Label.CONTENT_URI, cv, selection,
-      selectionArgs);
+    ClipStore.INST(mContext).update(ClipsContract.Label.CONTENT_URI,
+      ClipsContract.Label.TABLE_NAME, cv, selection, selectionArgs);
   }
 
   /**
@@ -213,14 +241,13 @@ public class LabelTables {
       return false;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
     if (exists(name)) {
       return false;
     }
 
     // insert into db
-    resolver.insert(ClipsContract.Label.CONTENT_URI, label.getContentValues());
+    ClipStore.INST(mContext).insert(ClipsContract.Label.CONTENT_URI,
+      ClipsContract.Label.TABLE_NAME, label.getContentValues());
 
     return true;
   }
@@ -230,50 +257,89 @@ public class LabelTables {
    * @param labels labels to add
    */
   public void insertLabels(@NonNull List<Label> labels) {
-    final ContentResolver resolver = mContext.getContentResolver();
+    final ArrayList<ContentProviderOperation> ops =
+      new ArrayList<>(labels.size());
+    addInsertLabelsOps(ops, labels);
+    ClipsContentProvider.runBatch(mContext, ops);
+  }
 
-    final ContentValues[] cvs = new ContentValues[labels.size()];
-    int count = 0;
+  /**
+   * Add the operations to insert {@link Label} objects to a batch
+   * @param ops    the batch
+   * @param labels labels to add
+   * @return index of the operation in the batch for each name
+   */
+  Map<String, Integer> addInsertLabelsOps(
+    @NonNull ArrayList<ContentProviderOperation> ops,
+    @NonNull List<Label> labels) {
+    final Map<String, Integer> ret = new HashMap<>(labels.size());
     for (Label label : labels) {
-      cvs[count] = label.getContentValues();
-      count++;
+      ret.put(label.getName(), ops.size());
+      ops.add(ContentProviderOperation
+        .newInsert(ClipsContract.Label.CONTENT_URI)
+        .withValues(label.getContentValues())
+        .build());
     }
-
-    resolver.bulkInsert(ClipsContract.Label.CONTENT_URI, cvs);
+    return ret;
   }
 
   /**
-   * Add the {@link Label} map for a group of {@link ClipItem} objects to the
-   * database
-   * @param clipItems the items to add Labels for
-   * @return number of items added
+   * Add the {@link Label} map of a new {@link ClipItem}
+   * @param db       writable database, in a transaction
+   * @param clipItem the item to add Labels for
+   * @param clipId   row id of the item
    */
-  int insertLabelsMap(@NonNull List<ClipItem> clipItems) {
-    if (clipItems.size() < 1) {
-      return 0;
+  void insertLabelsMap(@NonNull SQLiteDatabase db,
+                       @NonNull ClipItem clipItem, long clipId) {
+    final List<Label> labels = clipItem.getLabels();
+    if (labels.isEmpty()) {
+      return;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    // get total number of ClipItem/Label entries
-    int size = 0;
-    for (ClipItem clipItem : clipItems) {
-      size += clipItem.getLabels().size();
+    final SQLiteStatement stmt = db.compileStatement(SQL_INSERT_LABEL_MAP);
+    try {
+      stmt.bindLong(1, clipId);
+      for (Label label : labels) {
+        stmt.bindString(2, label.getName());
+        stmt.executeInsert();
+      }
+    } finally {
+      stmt.close();
     }
+  }
 
-    final ContentValues[] mapCVs = new ContentValues[size];
-    int count = 0;
-    for (ClipItem clipItem : clipItems) {
-      for (Label label : clipItem.getLabels()) {
-        ContentValues cv = new ContentValues();
-        cv.put(ClipsContract.LabelMap.COL_CLIP_ID, clipItem.getId(mContext));
-        cv.put(ClipsContract.LabelMap.COL_LABEL_NAME, label.getName());
-        mapCVs[count] = cv;
-        count++;
+  /**
+   * Add the operations to insert the {@link Label} map of a
+   * {@link ClipItem} to a batch
+   * @param ops      the batch
+   * @param clipItem the item to add Labels for
+   * @param clipOp   index of the operation in the batch that inserts the clip
+   * @param labelOps index of the operations that insert the Labels, if the
+   *                 batch inserts them. Otherwise, the Label PK is used
+   */
+  void addLabelsMapOps(@NonNull ArrayList<ContentProviderOperation> ops,
+                       @NonNull ClipItem clipItem, int clipOp,
+                       @Nullable Map<String, Integer> labelOps) {
+    for (Label label : clipItem.getLabels()) {
+      final ContentProviderOperation.Builder builder = ContentProviderOperation
+        .newInsert(ClipsContract.LabelMap.CONTENT_URI)
+        .withValueBackReference(ClipsContract.LabelMap.COL_CLIP_ID, clipOp);
+      final Integer labelOp =
+        (labelOps == null) ? null : labelOps.get(label.getName());
+      if (labelOp != null) {
+        builder.withValueBackReference(ClipsContract.LabelMap.COL_LABEL_ID,
+          labelOp);
+      } else {
+        final long labelId = (label.getId() > 0L) ?
+          label.getId() : getLabelId(label.getName());
+        if (labelId == -1L) {
+          // not in db
+          continue;
+        }
+        builder.withValue(ClipsContract.LabelMap.COL_LABEL_ID, labelId);
       }
+      ops.add(builder.build());
     }
-
-    return resolver.bulkInsert(ClipsContract.LabelMap.CONTENT_URI, mapCVs);
   }
 
   /**
@@ -283,27 +349,36 @@ public class LabelTables {
    * @return if true, added
    */
   public boolean insert(ClipItem clipItem, Label label) {
-    if (AppUtils.isWhitespace(clipItem.getText()) ||
-      AppUtils.isWhitespace(label.getName())) {
+    if ((clipItem.getId() == -1L) || AppUtils.isWhitespace(label.getName())) {
       return false;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    if (exists(resolver, clipItem, label)) {
+    if (exists(clipItem, label)) {
       // already in db
       return false;
     }
 
-    // insert Label
-    label.save(mContext);
+    final ArrayList<ContentProviderOperation> ops = new ArrayList<>(2);
+    final ContentProviderOperation.Builder builder = ContentProviderOperation
+      .newInsert(ClipsContract.LabelMap.CONTENT_URI)
+      .withValue(ClipsContract.LabelMap.COL_CLIP_ID, clipItem.getId());
+
+    final long labelId = getLabelId(label.getName());
+    if (labelId == -1L) {
+      // insert Label
+      ops.add(ContentProviderOperation
+        .newInsert(ClipsContract.Label.CONTENT_URI)
+        .withValues(label.getContentValues())
+        .build());
+      builder.withValueBackReference(ClipsContract.LabelMap.COL_LABEL_ID, 0);
+    } else {
+      builder.withValue(ClipsContract.LabelMap.COL_LABEL_ID, labelId);
+    }
 
     // insert into LabelMap table
-    final ContentValues cv = new ContentValues();
-    cv.put(ClipsContract.LabelMap.COL_CLIP_ID, clipItem.getId(mContext));
-    cv.put(ClipsContract.LabelMap.COL_LABEL_NAME, label.getName());
+    ops.add(builder.build());
 
-    resolver.insert(ClipsContract.LabelMap.CONTENT_URI, cv);
+    ClipsContentProvider.runBatch(mContext, ops);
 
     return true;
   }
@@ -314,21 +389,59 @@ public class LabelTables {
    * @param label    the label
    */
   public void delete(ClipItem clipItem, Label label) {
-    if (ClipItem.isWhitespace(clipItem) ||
-      AppUtils.isWhitespace(label.getName())) {
+    final long id = clipItem.getId();
+    if ((id == -1L) || AppUtils.isWhitespace(label.getName())) {
       return;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
-    final long id = clipItem.getId(mContext);
     final String selection =
-      ClipsContract.LabelMap.COL_LABEL_NAME + " = ? AND " +
+      ClipsContract.LabelMap.LABEL_NAME_SELECTION + " AND " +
         ClipsContract.LabelMap.COL_CLIP_ID + " = " + id;
     final String[] selectionArgs = {label.getName()};
 
-    resolver.delete(ClipsContract.LabelMap.CONTENT_URI, selection,
-      selectionArgs);
+    ClipStore.INST(mContext).delete(ClipsContract.LabelMap.CONTENT_URI,
+      ClipsContract.LabelMap.TABLE_NAME, selection, selectionArgs);
+  }
+
+  /**
+   * Add a {@link Label} to a group of {@link ClipItem} objects in one
+   * statement, with one change notification
+   * @param clipIds PKs of the clips
+   * @param label   an existing label
+   * @return number of clips the label was added to
+   */
+  public int insert(@NonNull Collection<Long> clipIds, @NonNull Label label) {
+    if (clipIds.isEmpty() || AppUtils.isWhitespace(label.getName())) {
+      return 0;
+    }
+
+    final String sql = SQL_INSERT_LABELS_MAP + ClipStore.getIdSelection(
+      ClipsContract.Clip.TABLE_NAME + '.' + ClipsContract.Clip._ID, clipIds);
+
+    // the clips may now be in the current MainActivity view
+    return ClipStore.INST(mContext).executeOnce(
+      ClipsContract.Clip.CONTENT_URI, sql, label.getName());
+  }
+
+  /**
+   * Remove a {@link Label} from a group of {@link ClipItem} objects in one
+   * statement, with one change notification
+   * @param clipIds PKs of the clips
+   * @param label   the label
+   * @return number of clips the label was removed from
+   */
+  public int delete(@NonNull Collection<Long> clipIds, @NonNull Label label) {
+    if (clipIds.isEmpty() || AppUtils.isWhitespace(label.getName())) {
+      return 0;
+    }
+
+    final String selection =
+      ClipsContract.LabelMap.LABEL_NAME_SELECTION + " AND " +
+        ClipStore.getIdSelection(ClipsContract.LabelMap.COL_CLIP_ID, clipIds);
+    final String[] selectionArgs = {label.getName()};
+
+    return ClipStore.INST(mContext).delete(ClipsContract.LabelMap.CONTENT_URI,
+      ClipsContract.LabelMap.TABLE_NAME, selection, selectionArgs);
   }
 
   /**
@@ -342,39 +455,24 @@ public class LabelTables {
       return false;
     }
 
-    final ContentResolver resolver = mContext.getContentResolver();
-
     final String[] selectionArgs = {name};
     String selection = ClipsContract.Label.COL_NAME + " = ? ";
 
-    long nRows = resolver.delete(ClipsContract.Label.CONTENT_URI, selection,
-      selectionArgs);
+    long nRows = ClipStore.INST(mContext).delete(
+      ClipsContract.Label.CONTENT_URI, ClipsContract.Label.TABLE_NAME,
+      selection, selectionArgs);
 
     return (nRows != 1L);
   }
 
   /**
    * Does the ClipItem and Label exist in the LabelMap table
-   * @param resolver to db
+   * @param clipItem ClipItem to check
    * @param label    Label to check
    * @return if true, already in db
    */
-  private boolean exists(ContentResolver resolver, ClipItem clipItem,
-                         Label label) {
-    final String[] projection = {ClipsContract.LabelMap.COL_LABEL_NAME};
-    final long id = clipItem.getId(mContext);
-    final String selection =
-      ClipsContract.LabelMap.COL_LABEL_NAME + " = ? AND " +
-        ClipsContract.LabelMap.COL_CLIP_ID + " = " + id;
-    final String[] selectionArgs = {label.getName()};
-
-    final Cursor cursor = resolver.query(ClipsContract.LabelMap.CONTENT_URI,
-      projection, selection, selectionArgs, null);
-    if ((cursor != null) && (cursor.getCount() > 0)) {
-      // found it
-      cursor.close();
-      return true;
-    }
-    return false;
+  private boolean exists(ClipItem clipItem, Label label) {
+    return ClipStore.INST(mContext).queryForLong(SQL_SELECT_LABEL_MAP_ID,
+      label.getName(), clipItem.getId()) != -1L;
   }
 }
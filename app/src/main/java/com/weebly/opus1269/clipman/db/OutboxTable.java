@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+import com.weebly.opus1269.clipman.app.App;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Singleton to manage the messages waiting to be sent in the Clips.db */
+public class OutboxTable {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static OutboxTable sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  private static final String[] PROJECTION = {
+    ClipsContract.Outbox._ID,
+    ClipsContract.Outbox.COL_DATA,
+    ClipsContract.Outbox.COL_DATE,
+    ClipsContract.Outbox.COL_ATTEMPTS,
+  };
+
+  // the queue order
+  private static final String ORDER = ClipsContract.Outbox._ID + " ASC";
+
+  private static final String SQL_INSERT = "INSERT OR IGNORE INTO " +
+    ClipsContract.Outbox.TABLE_NAME + " (" +
+    ClipsContract.Outbox.COL_MSG_ID + ", " +
+    ClipsContract.Outbox.COL_DATA + ", " +
+    ClipsContract.Outbox.COL_DATE + ")" +
+    " VALUES (?, ?, ?)";
+
+  private static final String SQL_SET_ATTEMPTS = "UPDATE " +
+    ClipsContract.Outbox.TABLE_NAME + " SET " +
+    ClipsContract.Outbox.COL_ATTEMPTS + " = ?" +
+    " WHERE " + ClipsContract.Outbox._ID + " = ?";
+
+  private static final String ID_SELECTION =
+    ClipsContract.Outbox._ID + " = ?";
+
+  private static final String AFTER_SELECTION =
+    ClipsContract.Outbox._ID + " > ?";
+
+  private OutboxTable(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static OutboxTable INST(@NonNull Context context) {
+    synchronized (OutboxTable.class) {
+      if (sInstance == null) {
+        sInstance = new OutboxTable(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Add a message to the end of the queue
+   * @param msgId unique id of the message
+   * @param data  the message JSON
+   * @return true if added, false if it was already queued
+   */
+  public boolean insert(@NonNull String msgId, @NonNull String data) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final SQLiteStatement stmt = db.compileStatement(SQL_INSERT);
+    try {
+      stmt.bindString(1, msgId);
+      stmt.bindString(2, data);
+      stmt.bindLong(3, System.currentTimeMillis());
+      return stmt.executeInsert() != -1L;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Get the messages in the queue after a message
+   * @param afterId PK of the message, 0 for the front of the queue
+   * @param count   most messages to get
+   * @return the messages in queue order, empty if none
+   */
+  @NonNull
+  public List<Message> getNext(long afterId, int count) {
+    final SQLiteDatabase db = App.getDbHelper().getReadableDatabase();
+    final Cursor cursor = db.query(ClipsContract.Outbox.TABLE_NAME,
+      PROJECTION, AFTER_SELECTION, new String[]{Long.toString(afterId)},
+      null, null, ORDER, Integer.toString(count));
+    final List<Message> ret = new ArrayList<>(cursor.getCount());
+    try {
+      while (cursor.moveToNext()) {
+        ret.add(new Message(cursor.getLong(0), cursor.getString(1),
+          cursor.getLong(2), cursor.getInt(3)));
+      }
+    } finally {
+      cursor.close();
+    }
+    return ret;
+  }
+
+  /**
+   * Get the number of messages in the queue
+   * @return count
+   */
+  public long getCount() {
+    final SQLiteDatabase db = App.getDbHelper().getReadableDatabase();
+    return DatabaseUtils.queryNumEntries(db, ClipsContract.Outbox.TABLE_NAME);
+  }
+
+  /**
+   * Record the failed sends of a message
+   * @param id       PK of the message
+   * @param attempts number of failed sends
+   */
+  public void setAttempts(long id, int attempts) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    final SQLiteStatement stmt = db.compileStatement(SQL_SET_ATTEMPTS);
+    try {
+      stmt.bindLong(1, attempts);
+      stmt.bindLong(2, id);
+      stmt.executeUpdateDelete();
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Remove a message from the queue
+   * @param id PK of the message
+   */
+  public void delete(long id) {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    db.delete(ClipsContract.Outbox.TABLE_NAME, ID_SELECTION,
+      new String[]{Long.toString(id)});
+  }
+
+  /**
+   * Remove all the messages
+   * @return number removed
+   */
+  public int deleteAll() {
+    final SQLiteDatabase db = App.getDbHelper().getWritableDatabase();
+    return db.delete(ClipsContract.Outbox.TABLE_NAME, "1", null);
+  }
+
+  /** A message waiting to be sent */
+  public static class Message {
+    public final long id;
+    public final String data;
+    public final long date;
+    public final int attempts;
+
+    Message(long id, String data, long date, int attempts) {
+      this.id = id;
+      this.data = data;
+      this.date = date;
+      this.attempts = attempts;
+    }
+  }
+}
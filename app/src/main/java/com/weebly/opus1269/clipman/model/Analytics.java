@@ -22,6 +22,12 @@ import com.google.android.gms.analytics.HitBuilders;
 import com.google.android.gms.analytics.Tracker;
 import com.weebly.opus1269.clipman.app.AppUtils;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Singleton for Google Analytics tracking.
  * @see <a href="https://goo.gl/VUowF7">Android Analytics</a>
@@ -51,9 +57,24 @@ public class Analytics {
 
   private final String NO_SCREEN = "none";
 
+  private final String CAT_DB = "database";
+
+  /** Separates action and label in the key of a database event count */
+  private static final String KEY_SEP = "\n";
+
+  /** Longest a database event count waits to be sent */
+  private static final long FLUSH_SECS = 60L;
+
   /** Google Analytics tracker */
   private Tracker mTracker;
 
+  /** Database event counts not sent yet, by action and label */
+  private final Map<String, Long> mDBCounts = new HashMap<>();
+
+  /** Sends the database events off the caller's thread */
+  private final ScheduledExecutorService mExecutor =
+    Executors.newSingleThreadScheduledExecutor();
+
   private Analytics(@NonNull Context context) {
     mContext = context.getApplicationContext();
   }
@@ -134,7 +155,69 @@ public class Analytics {
    * @param label  Event label
    */
   public void eventDB(String action, String label) {
-    event(NO_SCREEN, "database", action, label);
+    eventDB(action, label, 1L);
+  }
+
+  /**
+   * Database event for a number of rows. Events are counted in memory and
+   * sent as one event per action and label by {@link #flushDB()}, which
+   * runs at most {@value #FLUSH_SECS} seconds later
+   * @param action Event action
+   * @param label  Event label
+   * @param count  number of rows
+   */
+  public void eventDB(String action, String label, long count) {
+    if (count <= 0L) {
+      return;
+    }
+
+    final String key = action + KEY_SEP + label;
+    synchronized (mDBCounts) {
+      final boolean schedule = mDBCounts.isEmpty();
+      final Long total = mDBCounts.get(key);
+      mDBCounts.put(key, (total == null) ? count : (total + count));
+      if (schedule) {
+        mExecutor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            sendDB();
+          }
+        }, FLUSH_SECS, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /** Send the database event counts now, e.g. when the app goes away */
+  public void flushDB() {
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        sendDB();
+      }
+    });
+  }
+
+  /** Send an event for each database event count */
+  private void sendDB() {
+    final Map<String, Long> counts;
+    synchronized (mDBCounts) {
+      if (mDBCounts.isEmpty()) {
+        return;
+      }
+      counts = new HashMap<>(mDBCounts);
+      mDBCounts.clear();
+    }
+
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      final String[] key = entry.getKey().split(KEY_SEP);
+      getTracker().setScreenName(NO_SCREEN);
+      getTracker().send(new HitBuilders.EventBuilder()
+        .setCategory(CAT_DB)
+        .setAction(key[0])
+        .setLabel(key[1])
+        .setValue(entry.getValue())
+        .build());
+    }
   }
 
   /**
@@ -29,6 +29,7 @@ import com.google.gson.reflect.TypeToken;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.AppUtils;
 import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.db.ClipCodec;
 import com.weebly.opus1269.clipman.db.ClipTable;
 import com.weebly.opus1269.clipman.db.ClipsContract;
 import com.weebly.opus1269.clipman.db.LabelTables;
@@ -36,6 +37,9 @@ import com.weebly.opus1269.clipman.msg.MessagingClient;
 
 import org.threeten.bp.Instant;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
@@ -50,6 +54,11 @@ public class ClipItem implements Serializable {
   private static final String LABELS_LABEL = "ClipItem Labels";
   private static final String ERROR_CLIPBOARD_READ = "Failed to read clipboard";
 
+  /**
+   * Our database PK. Not part of a backup, since it is only valid in this
+   * database. Serialized for Intents and Bundles by writeObject
+   */
+  private transient long id;
   private String text;
   private long date;
   private Boolean fav;
@@ -60,6 +69,12 @@ public class ClipItem implements Serializable {
   /** PK's of the labels - only used for backup/restore */
   private List<Long> labelsId;
 
+  /**
+   * Unparsed {@link ClipsContract.Clip#COL_LABELS} value from a Cursor.
+   * The labels are only built from it when they are first needed
+   */
+  private transient String labelsValue;
+
   public ClipItem(Context context) {
     init(context);
   }
@@ -85,8 +100,11 @@ public class ClipItem implements Serializable {
 
   public ClipItem(Context context, Cursor cursor) {
     init(context);
-    int idx = cursor.getColumnIndex(ClipsContract.Clip.COL_TEXT);
-    this.text = cursor.getString(idx);
+    this.text = ClipCodec.INST(context).getText(cursor);
+    int idx = cursor.getColumnIndex(ClipsContract.Clip._ID);
+    if (idx != -1) {
+      this.id = cursor.getLong(idx);
+    }
     idx = cursor.getColumnIndex(ClipsContract.Clip.COL_DATE);
     this.date = cursor.getLong(idx);
     idx = cursor.getColumnIndex(ClipsContract.Clip.COL_FAV);
@@ -97,22 +115,46 @@ public class ClipItem implements Serializable {
     this.remote = remote != 0L;
     idx = cursor.getColumnIndex(ClipsContract.Clip.COL_DEVICE);
     this.device = cursor.getString(idx);
-    loadLabels(context);
+    idx = cursor.getColumnIndex(ClipsContract.Clip.COL_LABELS);
+    if (idx == -1) {
+      // not in projection, have to query
+      loadLabels(context);
+    } else {
+      setLabelsValue(cursor.getString(idx));
+    }
+  }
+
+  /**
+   * Create from the values of a database row - no database access
+   * @see com.weebly.opus1269.clipman.db.ClipRowMapper
+   */
+  public ClipItem(long id, String text, long date, boolean fav,
+                  boolean remote, String device, String labelsValue) {
+    this.id = id;
+    this.text = text;
+    this.date = date;
+    this.fav = fav;
+    this.remote = remote;
+    this.device = device;
+    setLabelsValue(labelsValue);
   }
 
   public ClipItem(Context context, ClipItem clipItem) {
     init(context);
+    this.id = clipItem.getId();
     this.text = clipItem.getText();
     this.date = clipItem.getDate();
     this.fav = clipItem.isFav();
     this.remote = clipItem.isRemote();
     this.device = clipItem.getDevice();
-    loadLabels(context);
+    this.labels = new ArrayList<>(clipItem.getLabels());
+    this.labelsId = new ArrayList<>(clipItem.getLabelsId());
   }
 
   public ClipItem(Context context, ClipItem clipItem,
                   List<Label> labels, List<Long> labelsId) {
     init(context);
+    this.id = clipItem.getId();
     this.text = clipItem.getText();
     this.date = clipItem.getDate();
     this.fav = clipItem.isFav();
@@ -137,6 +179,17 @@ public class ClipItem implements Serializable {
     return text.equals(clipItem.text);
   }
 
+  /**
+   * Get our database PK
+   * @return table row, -1L if we are not in the database
+   */
+  public long getId() {
+    // PKs start at 1, Gson leaves the field 0
+    return (id > 0L) ? id : -1L;
+  }
+
+  public void setId(long id) {this.id = id;}
+
   public String getText() {return text;}
 
   public void setText(@NonNull Context context, @NonNull String text) {
@@ -179,6 +232,7 @@ public class ClipItem implements Serializable {
   public void setDevice(String device) {this.device = device;}
 
   public List<Label> getLabels() {
+    resolveLabels();
     return labels;
   }
 
@@ -187,6 +241,7 @@ public class ClipItem implements Serializable {
   }
 
   public List<Long> getLabelsId() {
+    resolveLabels();
     return labelsId;
   }
 
@@ -196,7 +251,7 @@ public class ClipItem implements Serializable {
    * @return true if we have label
    */
   public boolean hasLabel(Label label) {
-    return this.labels.contains(label);
+    return getLabels().contains(label);
   }
 
   /**
@@ -391,6 +446,7 @@ public class ClipItem implements Serializable {
    * @param theLabel label with new id
    */
   public void updateLabelIdNoSave(@NonNull Label theLabel) {
+    resolveLabels();
     long newId = theLabel.getId();
 
     int pos = this.labels.indexOf(theLabel);
@@ -409,6 +465,7 @@ public class ClipItem implements Serializable {
    * @param labels label list to add from
    */
   public void addLabelsNoSave(@NonNull List<Label> labels) {
+    resolveLabels();
     for (Label label: labels) {
       if (!hasLabel(label)) {
         this.labels.add(label);
@@ -417,37 +474,49 @@ public class ClipItem implements Serializable {
     }
   }
 
+  /**
+   * Add a {@link Label}. If we are in the database, it is added there too,
+   * otherwise when we are saved
+   * @param label the label
+   */
   public void addLabel(Context context, Label label) {
     if (!hasLabel(label)) {
       this.labels.add(label);
-      LabelTables.INST(context).insert(this, label);
+      if (getId() != -1L) {
+        LabelTables.INST(context).insert(this, label);
+      }
     }
   }
 
   public void removeLabel(Context context, Label label) {
     if (hasLabel(label)) {
       this.labels.remove(label);
-      LabelTables.INST(context).delete(this, label);
+      if (getId() != -1L) {
+        LabelTables.INST(context).delete(this, label);
+      }
     }
   }
 
   /**
-   * Get our database PK
-   * @return table row, -1L if not found
-   */
-  public long getId(Context context) {
-    return ClipTable.INST(context).getId(this);
-  }
-
-  /**
-   * Get as a {@link ContentValues object}
+   * Get as a {@link ContentValues object}, with the text in its stored form.
+   * Text large enough for a file is deflated into the row, and
+   * {@link ClipCodec#encodeRows()} moves it to its file later
+   * @param context a Context
    * @return value
    */
-  public ContentValues getContentValues() {
+  public ContentValues getContentValues(@NonNull Context context) {
     final long fav = this.fav ? 1L : 0L;
     final long remote = this.remote ? 1L : 0L;
     final ContentValues cv = new ContentValues();
-    cv.put(ClipsContract.Clip.COL_TEXT, text);
+    ClipCodec.INST(context).put(cv, text);
+    cv.put(ClipsContract.Clip.COL_HASH, ClipsContract.Clip.getHash(text));
+    cv.put(ClipsContract.Clip.COL_FINGERPRINT,
+      ClipsContract.Clip.getFingerprint(text));
+    cv.put(ClipsContract.Clip.COL_SIZE, ClipsContract.Clip.getSize(text));
+    final String preview = ClipsContract.Clip.getPreview(text);
+    cv.put(ClipsContract.Clip.COL_PREVIEW, preview);
+    cv.put(ClipsContract.Clip.COL_SORT_KEY,
+      ClipsContract.Clip.getSortKey(preview));
     cv.put(ClipsContract.Clip.COL_DATE, date);
     cv.put(ClipsContract.Clip.COL_FAV, fav);
     cv.put(ClipsContract.Clip.COL_REMOTE, remote);
@@ -488,7 +557,7 @@ public class ClipItem implements Serializable {
       label = label + REMOTE_DESC_LABEL + "(" + device + ")\n";
     }
 
-    if (this.labels.size() > 0) {
+    if (getLabels().size() > 0) {
       // add our labels
       final Gson gson = new Gson();
       final String labelsString = gson.toJson(this.labels);
@@ -563,17 +632,54 @@ public class ClipItem implements Serializable {
 
   /** Get our {@link Label} names from the database */
   public void loadLabels(Context context) {
-    this.labels.clear();
-    this.labelsId.clear();
-
     final List<Label> labels = LabelTables.INST(context).getLabels(this);
+    setLabelsValue(null);
+    setLabelsFromList(labels);
+  }
 
+  /**
+   * Defer building our labels until they are needed
+   * @param labelsValue the {@link ClipsContract.Clip#COL_LABELS} value
+   */
+  private void setLabelsValue(String labelsValue) {
+    this.labelsValue = labelsValue;
+    this.labels = null;
+    this.labelsId = null;
+  }
+
+  /** Build our labels from the Cursor value if we haven't yet */
+  private void resolveLabels() {
+    if (this.labels == null) {
+      setLabelsFromList(LabelTables.parseLabels(this.labelsValue));
+      this.labelsValue = null;
+    }
+  }
+
+  /**
+   * Set the labels and their ids
+   * @param labels the labels
+   */
+  private void setLabelsFromList(@NonNull List<Label> labels) {
     this.labels = labels;
+    this.labelsId = new ArrayList<>(labels.size());
     for (Label label: labels) {
       this.labelsId.add(label.getId());
     }
   }
 
+  /** Make sure the lazy labels and the PK are included */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    resolveLabels();
+    out.defaultWriteObject();
+    out.writeLong(id);
+  }
+
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    id = in.readLong();
+  }
+
   /**
    * Send to our devices
    * @return true if sent
@@ -590,6 +696,7 @@ public class ClipItem implements Serializable {
 
   /** Initialize the members */
   private void init(Context context) {
+    id = -1L;
     text = "";
     date = Instant.now().toEpochMilli();
     fav = false;
@@ -43,17 +43,26 @@ public class Device {
   private final String mNickname;
   private final long mLastSeen;
 
+  /** true if it reads batched clips, false for older versions */
+  private final boolean mCanBatch;
+
   public Device(String model, String sn, String os, String nickname) {
+    this(model, sn, os, nickname, false);
+  }
+
+  public Device(String model, String sn, String os, String nickname,
+                boolean canBatch) {
     mModel = model;
     mSN = sn;
     mOS = os;
     mNickname = nickname;
     mLastSeen = Instant.now().toEpochMilli();
+    mCanBatch = canBatch;
   }
 
   public static Device getMyDevice(Context context) {
     return new Device(getMyModel(), getMySN(context), getMyOS(),
-      Prefs.INST(context).getDeviceNickname());
+      Prefs.INST(context).getDeviceNickname(), true);
   }
 
   public static String getMyName(Context context) {
@@ -117,6 +126,10 @@ public class Device {
 
   public long getLastSeen() {return mLastSeen;}
 
+  public boolean canBatch() {
+    return mCanBatch;
+  }
+
   public String getDisplayName() {
     String name = getNickname();
     if (TextUtils.isEmpty(name)) {
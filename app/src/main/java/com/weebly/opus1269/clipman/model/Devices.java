@@ -155,6 +155,23 @@ public class Devices {
     }
   }
 
+  /**
+   * Determine if all our devices read batched clips. A device we haven't
+   * heard from since it was updated is assumed not to
+   * @return true if there are devices and all of them can
+   */
+  public boolean canBatch() {
+    if (sDevices.isEmpty()) {
+      return false;
+    }
+    for (final Device device : sDevices) {
+      if (!device.canBatch()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Remove all devices
    */
@@ -18,6 +18,7 @@ import android.support.annotation.Nullable;
 import android.support.v7.preference.PreferenceManager;
 import android.text.TextUtils;
 
+import com.weebly.opus1269.clipman.BuildConfig;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.AppUtils;
 
@@ -37,6 +38,8 @@ public class Prefs {
 
   private final String DEF_THEME;
   private final String DEF_DURATION;
+  private final String DEF_RETENTION;
+  private final String DEF_DUPLICATES;
   private final String DEF_RINGTONE;
 
   // app notification types
@@ -60,6 +63,7 @@ public class Prefs {
   private final String PREF_NO_DEVICES_CT = "prefNoDeviceCt";
   private final String PREF_SN = "prefSN";
   private final String PREF_LAST_BACKUP = "prefLastBackup";
+  private final String PREF_METRICS = "prefMetrics";
 
 
   private Prefs(@NonNull Context context) {
@@ -67,6 +71,9 @@ public class Prefs {
 
     DEF_THEME = mContext.getString(R.string.ar_theme_light_value);
     DEF_DURATION = mContext.getString(R.string.ar_duration_forever_value);
+    DEF_RETENTION = mContext.getString(R.string.ar_retention_oldest_value);
+    DEF_DUPLICATES =
+      mContext.getString(R.string.ar_duplicates_whitespace_value);
     DEF_RINGTONE = Settings.System.DEFAULT_NOTIFICATION_URI.toString();
     NOTIFY_REMOTE_COPY = mContext.getString(R.string.ar_not_remote_value);
     NOTIFY_LOCAL_COPY = mContext.getString(R.string.ar_not_local_value);
@@ -132,6 +139,16 @@ public class Prefs {
     return Integer.parseInt(get(key, "5"));
   }
 
+  public int getBatchSecs() {
+    final String key = mContext.getString(R.string.key_pref_batch_msg);
+    return Integer.parseInt(get(key, "1"));
+  }
+
+  public int getMaxClipLen() {
+    final String key = mContext.getString(R.string.key_pref_max_clip);
+    return Integer.parseInt(get(key, "65536"));
+  }
+
   public boolean isHighPriority() {
     final String key = mContext.getString(R.string.key_pref_priority_msg);
     return get(key, true);
@@ -147,6 +164,34 @@ public class Prefs {
     return get(key, DEF_DURATION);
   }
 
+  public int getMaxClips() {
+    final String key = mContext.getString(R.string.key_pref_max_clips);
+    return Integer.parseInt(get(key, "0"));
+  }
+
+  public long getMaxStorage() {
+    final String key = mContext.getString(R.string.key_pref_max_storage);
+    return Long.parseLong(get(key, "0")) * 1024L * 1024L;
+  }
+
+  public boolean isDeleteLargestFirst() {
+    final String key = mContext.getString(R.string.key_pref_retention);
+    return mContext.getString(R.string.ar_retention_largest_value)
+      .equals(get(key, DEF_RETENTION));
+  }
+
+  public boolean isMergeWhitespace() {
+    final String key = mContext.getString(R.string.key_pref_duplicates);
+    return !mContext.getString(R.string.ar_duplicates_exact_value)
+      .equals(get(key, DEF_DUPLICATES));
+  }
+
+  public boolean isMergeCase() {
+    final String key = mContext.getString(R.string.key_pref_duplicates);
+    return mContext.getString(R.string.ar_duplicates_case_value)
+      .equals(get(key, DEF_DUPLICATES));
+  }
+
   public boolean isAutoBackup() {
     final String key = mContext.getString(R.string.key_pref_auto_backup);
     return get(key, false);
@@ -349,6 +394,14 @@ public class Prefs {
     set(PREF_LAST_BACKUP, value);
   }
 
+  public boolean isMetrics() {
+    return get(PREF_METRICS, BuildConfig.DEBUG);
+  }
+
+  public void setMetrics(Boolean value) {
+    set(PREF_METRICS, value);
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // Setter and getter helpers
   ///////////////////////////////////////////////////////////////////////////
@@ -43,6 +43,7 @@ import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.Log;
 import com.weebly.opus1269.clipman.app.ThreadedAsyncTask;
 import com.weebly.opus1269.clipman.backup.DriveHelper;
+import com.weebly.opus1269.clipman.msg.IdTokenCache;
 import com.weebly.opus1269.clipman.ui.helpers.BitmapHelper;
 
 import java.io.IOException;
@@ -142,6 +143,9 @@ public class User {
 
     // clear Devices list
     Devices.INST(mContext).clear();
+
+    // don't authorize server calls for the old user
+    IdTokenCache.INST(mContext).invalidate();
   }
 
   /**
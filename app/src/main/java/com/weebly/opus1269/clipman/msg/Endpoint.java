@@ -23,12 +23,6 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
-import com.google.android.gms.auth.api.Auth;
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
-import com.google.android.gms.auth.api.signin.GoogleSignInResult;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.api.client.extensions.android.json.AndroidJsonFactory;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
@@ -36,6 +30,8 @@ import com.google.api.client.googleapis.services.GoogleClientRequestInitializer;
 import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.weebly.opus1269.clipman.BuildConfig;
@@ -44,7 +40,6 @@ import com.weebly.opus1269.clipman.app.Log;
 import com.weebly.opus1269.clipman.model.User;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 /** Base class for Google App Engine Endpoints */
 abstract class Endpoint {
@@ -59,38 +54,36 @@ abstract class Endpoint {
 
   final String ERROR_CREDENTIAL;
 
-  final private String ERROR_ID_TOKEN;
-
-  final private String ERROR_ACCOUNT;
-
   /** Log tag */
   @SuppressWarnings("FieldCanBeLocal")
   final private String TAG = "Endpoint";
 
-  /** Access id */
-  final private String WEB_CLIENT_ID;
-
   /** Network timeout in millisecs */
   final private int TIMEOUT = 40000;
 
   final private String ERROR_NOT_SIGNED_IN;
 
-  /** Global NetHttpTransport instance */
-  private NetHttpTransport mNetHttpTransport = null;
+  /**
+   * Global NetHttpTransport instance. Shared by all the endpoints, so the
+   * keep-alive connections to the server are reused
+   */
+  private static NetHttpTransport sNetHttpTransport = null;
 
   /** Global AndroidJacksonFactory instance */
-  private AndroidJsonFactory mAndroidJsonFactory = null;
+  private static AndroidJsonFactory sAndroidJsonFactory = null;
+
+  /** Credential of our calls, only its token changes between them */
+  private GoogleCredential mCredential = null;
+
+  /** Email of the user {@link #mCredential} is for */
+  private String mCredentialEmail = null;
 
   Endpoint(@NonNull Context context) {
     mContext = context.getApplicationContext();
 
     ERROR_UNKNOWN = mContext.getString(R.string.err_unknown);
     ERROR_CREDENTIAL = mContext.getString(R.string.err_credential);
-    ERROR_ACCOUNT = mContext.getString(R.string.err_account);
-    ERROR_ID_TOKEN = mContext.getString(R.string.err_id_token);
     ERROR_NOT_SIGNED_IN = mContext.getString(R.string.err_not_signed_in);
-
-    WEB_CLIENT_ID = mContext.getString(R.string.default_web_client_id);
   }
 
   /**
@@ -122,10 +115,14 @@ abstract class Endpoint {
    * @return regToken
    */
   NetHttpTransport getNetHttpTransport() {
-    if (mNetHttpTransport == null) {
-      mNetHttpTransport = new NetHttpTransport();
+    synchronized (Endpoint.class) {
+      if (sNetHttpTransport == null) {
+        // HttpURLConnection keeps the connections alive by default
+        System.setProperty("http.keepAlive", "true");
+        sNetHttpTransport = new NetHttpTransport();
+      }
+      return sNetHttpTransport;
     }
-    return mNetHttpTransport;
   }
 
   /**
@@ -133,96 +130,63 @@ abstract class Endpoint {
    * @return regToken
    */
   AndroidJsonFactory getAndroidJsonFactory() {
-    if (mAndroidJsonFactory == null) {
-      mAndroidJsonFactory = new AndroidJsonFactory();
-    }
-    return mAndroidJsonFactory;
-  }
-
-  /**
-   * Get an idToken for authorization
-   * @return idToken
-   */
-  private String getIdToken() throws IOException {
-    String idToken;
-
-    // Get the IDToken that can be used securely on the backend for a short time
-    final GoogleSignInOptions gso =
-      new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
-        .requestIdToken(WEB_CLIENT_ID)
-        .build();
-
-    // Build a GoogleApiClient with access to the Google Sign-In API and the
-    // options specified by gso.
-    final GoogleApiClient googleApiClient =
-      new GoogleApiClient.Builder(mContext)
-        .addApi(Auth.GOOGLE_SIGN_IN_API, gso)
-        .build();
-
-    try {
-      final ConnectionResult connRes =
-        googleApiClient.blockingConnect(TIMEOUT, TimeUnit.MILLISECONDS);
-      if (connRes.isSuccess()) {
-        final GoogleSignInResult signInRes =
-          Auth.GoogleSignInApi
-            .silentSignIn(googleApiClient)
-            .await(TIMEOUT, TimeUnit.MILLISECONDS);
-        if (signInRes.isSuccess()) {
-          final GoogleSignInAccount acct =
-            signInRes.getSignInAccount();
-          if (acct != null) {
-            idToken = acct.getIdToken();
-          } else {
-            throw new IOException(ERROR_ACCOUNT);
-          }
-        } else {
-          final String msg = signInRes.getStatus().toString();
-          throw new IOException(msg);
-        }
-      } else {
-        final String msg = connRes.getErrorMessage() +
-          "Code=" + connRes.getErrorCode();
-        throw new IOException(msg);
+    synchronized (Endpoint.class) {
+      if (sAndroidJsonFactory == null) {
+        sAndroidJsonFactory = new AndroidJsonFactory();
       }
-    } catch (Exception ex) {
-      final String msg = ERROR_ID_TOKEN + ": " + ex.getLocalizedMessage();
-      throw new IOException(msg);
-    } finally {
-      googleApiClient.disconnect();
+      return sAndroidJsonFactory;
     }
-
-    return idToken;
   }
 
   /**
-   * Get a {@link GoogleCredential} for authorized server call
+   * Get a {@link GoogleCredential} for authorized server call. The same one
+   * is returned until the user changes, so the services built with it can
+   * be reused
    * @param idToken - authorization token for user
    * @return {@link GoogleCredential} for authorized server call
    */
   @Nullable
   GoogleCredential getCredential(String idToken) throws IOException {
-
-    // get credential for a server call
-    final GoogleCredential.Builder builder = new GoogleCredential.Builder();
-    final GoogleCredential credential = builder
-      .setTransport(getNetHttpTransport())
-      .setJsonFactory(getAndroidJsonFactory())
-      .build();
-
     final String token;
     if (TextUtils.isEmpty(idToken)) {
-      token = getIdToken();
+      token = IdTokenCache.INST(mContext).get();
     } else {
+      // fresh from signing in
       token = idToken;
+      IdTokenCache.INST(mContext).put(token);
     }
 
     if (TextUtils.isEmpty(token)) {
       return null;
     }
 
-    credential.setAccessToken(token);
+    final String email = User.INST(mContext).getEmail();
+    synchronized (this) {
+      if ((mCredential == null) || !email.equals(mCredentialEmail)) {
+        // get credential for server calls
+        final GoogleCredential.Builder builder = new GoogleCredential.Builder();
+        mCredential = builder
+          .setTransport(getNetHttpTransport())
+          .setJsonFactory(getAndroidJsonFactory())
+          .build();
+        mCredentialEmail = email;
+      }
+      mCredential.setAccessToken(token);
+      return mCredential;
+    }
+  }
 
-    return credential;
+  /**
+   * Forget the cached idToken if the server rejected it, so the next call
+   * gets a new one
+   * @param ex error from a server call
+   */
+  void checkAuthError(Exception ex) {
+    if ((ex instanceof HttpResponseException) &&
+      (((HttpResponseException) ex).getStatusCode() ==
+        HttpStatusCodes.STATUS_CODE_UNAUTHORIZED)) {
+      IdTokenCache.INST(mContext).invalidate();
+    }
   }
 
   /**
@@ -243,6 +207,15 @@ abstract class Endpoint {
             request.setDisableGZipContent(true);
           }
         });
+    } else {
+      // compress the requests, the messages are mostly text
+      builder.setGoogleClientRequestInitializer(
+        new GoogleClientRequestInitializer() {
+          @Override
+          public void initialize(AbstractGoogleClientRequest<?> request) {
+            request.setDisableGZipContent(false);
+          }
+        });
     }
   }
 
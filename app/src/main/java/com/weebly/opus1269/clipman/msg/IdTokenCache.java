@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.google.android.gms.auth.api.Auth;
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
+import com.google.android.gms.auth.api.signin.GoogleSignInResult;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.api.client.util.Base64;
+import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.AppUtils;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that caches the Google Sign-In idToken used to authorize our
+ * {@link Endpoint} calls until it expires. It is refreshed in the
+ * background shortly before then, and callers that need a refresh at the
+ * same time share one
+ */
+public class IdTokenCache {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static IdTokenCache sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  private static final String TAG = "IdTokenCache";
+
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "idToken.";
+
+  /** Network timeout in millisecs */
+  private static final int TIMEOUT = 40000;
+
+  /** Lifetime of a token we can't read the expiry of */
+  static final long DEFAULT_LIFETIME = TimeUnit.HOURS.toMillis(1);
+
+  /** Refresh in the background when this close to the expiry */
+  static final long REFRESH_AHEAD = TimeUnit.MINUTES.toMillis(5);
+
+  /** Don't use a token this close to the expiry, allows for clock skew */
+  static final long EXPIRY_MARGIN = TimeUnit.MINUTES.toMillis(1);
+
+  /** Access id */
+  private final String WEB_CLIENT_ID;
+
+  private final String ERROR_ID_TOKEN;
+
+  private final String ERROR_ACCOUNT;
+
+  /** Guards the fields below */
+  private final Object mLock = new Object();
+
+  /** The cached token, null if none */
+  private String mToken = null;
+
+  /** When mToken expires, in millisecs */
+  private long mExpires = 0L;
+
+  /** The refresh in progress, null if none */
+  private FutureTask<String> mRefresh = null;
+
+  /** Incremented on invalidation, so older refreshes are not cached */
+  private int mGeneration = 0;
+
+  private IdTokenCache(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+
+    WEB_CLIENT_ID = mContext.getString(R.string.default_web_client_id);
+    ERROR_ID_TOKEN = mContext.getString(R.string.err_id_token);
+    ERROR_ACCOUNT = mContext.getString(R.string.err_account);
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static IdTokenCache INST(@NonNull Context context) {
+    synchronized (IdTokenCache.class) {
+      if (sInstance == null) {
+        sInstance = new IdTokenCache(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Get an idToken for authorization - Blocks if it has to be refreshed
+   * @return idToken, may be empty
+   * @throws IOException if we failed to get one
+   */
+  @Nullable
+  String get() throws IOException {
+    final FutureTask<String> refresh;
+    synchronized (mLock) {
+      final long now = System.currentTimeMillis();
+      if ((mToken != null) && isUsable(mExpires, now)) {
+        if (isRefreshDue(mExpires, now)) {
+          // still good, get the next one before it is needed
+          AsyncTask.THREAD_POOL_EXECUTOR.execute(getRefresh());
+        }
+        Metrics.count(METRIC + "hit", 1L);
+        return mToken;
+      }
+      refresh = getRefresh();
+    }
+
+    Metrics.count(METRIC + "miss", 1L);
+    return await(refresh);
+  }
+
+  /**
+   * Cache a token we got from signing in
+   * @param idToken the token
+   */
+  void put(@NonNull String idToken) {
+    synchronized (mLock) {
+      mToken = idToken;
+      mExpires = getExpiry(idToken, System.currentTimeMillis());
+    }
+  }
+
+  /** Forget the token. Call on sign-out or when it is rejected */
+  public void invalidate() {
+    synchronized (mLock) {
+      mToken = null;
+      mExpires = 0L;
+      mRefresh = null;
+      mGeneration++;
+    }
+    Log.logD(TAG, "invalidated");
+  }
+
+  /**
+   * Get the refresh in progress, or a new one. Call holding mLock
+   * @return refresh that has not necessarily started
+   */
+  @NonNull
+  private FutureTask<String> getRefresh() {
+    if (mRefresh == null) {
+      final int generation = mGeneration;
+      mRefresh = new FutureTask<>(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return refresh(generation);
+        }
+      });
+    }
+    return mRefresh;
+  }
+
+  /**
+   * Wait for a refresh
+   * @param refresh the refresh
+   * @return idToken
+   * @throws IOException if it failed
+   */
+  private String await(@NonNull FutureTask<String> refresh)
+    throws IOException {
+    // does nothing if it was already run by another thread or the
+    // executor, so a queued background refresh can't hold us up
+    refresh.run();
+    try {
+      return refresh.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ERROR_ID_TOKEN + ": " + ex.getLocalizedMessage());
+    } catch (ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(ERROR_ID_TOKEN + ": " +
+        cause.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Get a new token and cache it, unless we were invalidated meanwhile
+   * @param generation value of mGeneration when the refresh was created
+   * @return idToken
+   * @throws IOException if we failed to get one
+   */
+  private String refresh(int generation) throws IOException {
+    final long start = Metrics.start();
+    String idToken = null;
+    try {
+      idToken = fetch();
+      Metrics.time(METRIC + "refresh", start);
+      return idToken;
+    } finally {
+      synchronized (mLock) {
+        if (generation == mGeneration) {
+          mRefresh = null;
+          if (!TextUtils.isEmpty(idToken)) {
+            mToken = idToken;
+            mExpires = getExpiry(idToken, System.currentTimeMillis());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Get an idToken from Google Sign-In - Blocks
+   * @return idToken
+   * @throws IOException if we failed to get one
+   */
+  private String fetch() throws IOException {
+    String idToken;
+
+    // Get the IDToken that can be used securely on the backend for a short time
+    final GoogleSignInOptions gso =
+      new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
+        .requestIdToken(WEB_CLIENT_ID)
+        .build();
+
+    // Build a GoogleApiClient with access to the Google Sign-In API and the
+    // options specified by gso.
+    final GoogleApiClient googleApiClient =
+      new GoogleApiClient.Builder(mContext)
+        .addApi(Auth.GOOGLE_SIGN_IN_API, gso)
+        .build();
+
+    try {
+      final ConnectionResult connRes =
+        googleApiClient.blockingConnect(TIMEOUT, TimeUnit.MILLISECONDS);
+      if (connRes.isSuccess()) {
+        final GoogleSignInResult signInRes =
+          Auth.GoogleSignInApi
+            .silentSignIn(googleApiClient)
+            .await(TIMEOUT, TimeUnit.MILLISECONDS);
+        if (signInRes.isSuccess()) {
+          final GoogleSignInAccount acct =
+            signInRes.getSignInAccount();
+          if (acct != null) {
+            idToken = acct.getIdToken();
+          } else {
+            throw new IOException(ERROR_ACCOUNT);
+          }
+        } else {
+          final String msg = signInRes.getStatus().toString();
+          throw new IOException(msg);
+        }
+      } else {
+        final String msg = connRes.getErrorMessage() +
+          "Code=" + connRes.getErrorCode();
+        throw new IOException(msg);
+      }
+    } catch (Exception ex) {
+      final String msg = ERROR_ID_TOKEN + ": " + ex.getLocalizedMessage();
+      throw new IOException(msg);
+    } finally {
+      googleApiClient.disconnect();
+    }
+
+    return idToken;
+  }
+
+  /**
+   * Determine if a token can still be used
+   * @param expires expiry of the token in millisecs
+   * @param now     current time in millisecs
+   * @return true if not too close to the expiry
+   */
+  static boolean isUsable(long expires, long now) {
+    return now < (expires - EXPIRY_MARGIN);
+  }
+
+  /**
+   * Determine if a token should be refreshed in the background
+   * @param expires expiry of the token in millisecs
+   * @param now     current time in millisecs
+   * @return true if close to the expiry
+   */
+  static boolean isRefreshDue(long expires, long now) {
+    return now >= (expires - REFRESH_AHEAD);
+  }
+
+  /**
+   * Get the expiry of a token from its JWT "exp" claim
+   * @param idToken the token
+   * @param now     current time in millisecs
+   * @return expiry in millisecs, a default lifetime if it can't be read
+   */
+  static long getExpiry(@NonNull String idToken, long now) {
+    try {
+      final String[] parts = idToken.split("\\.");
+      if (parts.length == 3) {
+        // URL safe and unpadded, this decoder reads both alphabets
+        final byte[] payload = Base64.decodeBase64(parts[1]);
+        final JSONObject claims =
+          new JSONObject(new String(payload, AppUtils.UTF_8));
+        final long exp = claims.optLong("exp", 0L);
+        if (exp > 0L) {
+          return TimeUnit.SECONDS.toMillis(exp);
+        }
+      }
+    } catch (Exception ex) {
+      Log.logD(TAG, "Failed to read expiry: " + ex.getLocalizedMessage());
+    }
+    return now + DEFAULT_LIFETIME;
+  }
+}
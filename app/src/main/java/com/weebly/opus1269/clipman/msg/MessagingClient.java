@@ -20,6 +20,7 @@ package com.weebly.opus1269.clipman.msg;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -27,18 +28,19 @@ import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.AppUtils;
 import com.weebly.opus1269.clipman.app.Log;
-import com.weebly.opus1269.clipman.app.ThreadedAsyncTask;
+import com.weebly.opus1269.clipman.app.Metrics;
 import com.weebly.opus1269.clipman.backend.messaging.Messaging;
 import com.weebly.opus1269.clipman.backend.messaging.model.EndpointRet;
 import com.weebly.opus1269.clipman.model.Analytics;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Device;
-import com.weebly.opus1269.clipman.model.Devices;
 import com.weebly.opus1269.clipman.model.Prefs;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.UUID;
+
 /** Singleton that is the interface to our gae Messaging endpoint */
 public class MessagingClient extends Endpoint {
 
@@ -56,6 +58,12 @@ public class MessagingClient extends Endpoint {
   /** Send error message */
   private final String ERROR_SEND;
 
+  /** Connection to the server, reused until the credential changes */
+  private Messaging mMsgService = null;
+
+  /** Credential {@link #mMsgService} was built with */
+  private GoogleCredential mMsgServiceCredential = null;
+
   private MessagingClient(@NonNull Context context) {
     super(context);
 
@@ -81,25 +89,30 @@ public class MessagingClient extends Endpoint {
   }
 
   /**
-   * Send contents of {@link ClipItem}
+   * Send contents of {@link ClipItem}. A text too large for a message is
+   * compressed and sent in parts, older versions ignore those, so a clip
+   * that fits is always sent as plain text
    * @param clipItem - contents to send
    */
   public void send(ClipItem clipItem) {
-    // Max length of fcm data message
-    final int MAX_LEN = 4096;
-
     if (notSignedIn() || !Prefs.INST(mContext).isPushClipboard()) {
       return;
     }
 
-    String message = clipItem.getText();
-    if (message.length() > MAX_LEN) {
-      // 4KB limit with FCM - server will do final limiting
-      message = message.substring(0, MAX_LEN - 1);
+    String text = clipItem.getText();
+    final int maxLen = Prefs.INST(mContext).getMaxClipLen();
+    if (text.length() > maxLen) {
+      Log.logD(TAG, "Clip truncated to: " + maxLen);
+      text = text.substring(0, maxLen);
     }
     final String favString = clipItem.isFav() ? "1" : "0";
 
-    JSONObject data = getJSONData(Msg.ACTION_MESSAGE, message);
+    if (Uri.encode(text).length() > Msg.MAX_MESSAGE_LEN) {
+      sendParts(Payload.deflate(text), favString);
+      return;
+    }
+
+    JSONObject data = getJSONData(Msg.ACTION_MESSAGE, text);
     try {
       if (data != null) {
         data.put(Msg.FAV, favString);
@@ -110,7 +123,43 @@ public class MessagingClient extends Endpoint {
     }
 
     if (data != null) {
-      new MessagingAsyncTask(mContext, true).executeMe(data);
+      Outbox.INST(mContext).enqueue(data);
+    }
+  }
+
+  /**
+   * Send a clip that is too large for a message in parts
+   * @param message   the clip, encoded with {@link Msg#ENCODING_DEFLATE}
+   * @param favString "1" if a favorite
+   */
+  private void sendParts(String message, String favString) {
+    final int len = Msg.MAX_MESSAGE_LEN;
+    final int parts = (message.length() + len - 1) / len;
+    if (parts > Transfers.MAX_PARTS) {
+      Log.logE(mContext, TAG, "Clip is too large: " + message.length(),
+        ERROR_SEND);
+      return;
+    }
+
+    final String transferId = UUID.randomUUID().toString();
+    for (int i = 0; i < parts; i++) {
+      final String part = message.substring(i * len,
+        Math.min(message.length(), (i + 1) * len));
+      final JSONObject data = getJSONData(Msg.ACTION_MESSAGE_PART, part);
+      if (data == null) {
+        return;
+      }
+      try {
+        data.put(Msg.FAV, favString);
+        data.put(Msg.ENCODING, Msg.ENCODING_DEFLATE);
+        data.put(Msg.TRANSFER_ID, transferId);
+        data.put(Msg.PART, Integer.toString(i));
+        data.put(Msg.PARTS, Integer.toString(parts));
+      } catch (JSONException ex) {
+        Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, ERROR_SEND);
+        return;
+      }
+      Outbox.INST(mContext).enqueue(data);
     }
   }
 
@@ -122,7 +171,7 @@ public class MessagingClient extends Endpoint {
 
     JSONObject data = getJSONData(Msg.ACTION_DEVICE_ADDED, DEVICE_ADDED);
     if (data != null) {
-      new MessagingAsyncTask(mContext, true).executeMe(data);
+      Outbox.INST(mContext).enqueue(data);
     }
   }
 
@@ -134,7 +183,7 @@ public class MessagingClient extends Endpoint {
 
     JSONObject data = getJSONData(Msg.ACTION_DEVICE_REMOVED, DEVICE_REMOVED);
     if (data != null) {
-      new MessagingAsyncTask(mContext, true).executeMe(data);
+      Outbox.INST(mContext).enqueue(data);
     }
   }
 
@@ -146,7 +195,7 @@ public class MessagingClient extends Endpoint {
 
     JSONObject data = getJSONData(Msg.ACTION_PING, PING);
     if (data != null) {
-      new MessagingAsyncTask(mContext, true).executeMe(data);
+      Outbox.INST(mContext).enqueue(data);
     }
   }
 
@@ -171,7 +220,7 @@ public class MessagingClient extends Endpoint {
     }
 
     if (data != null) {
-      new MessagingAsyncTask(mContext, true).executeMe(data);
+      Outbox.INST(mContext).enqueue(data);
     }
   }
 
@@ -180,7 +229,12 @@ public class MessagingClient extends Endpoint {
    * @param credential - authorization for current user
    * @return Connection to MessagingEndpoint on server
    */
-  private Messaging getMessagingService(GoogleCredential credential) {
+  private synchronized Messaging getMessagingService(
+    GoogleCredential credential) {
+    if ((mMsgService != null) && (credential == mMsgServiceCredential)) {
+      return mMsgService;
+    }
+
     final Messaging.Builder builder =
       new Messaging.Builder(getNetHttpTransport(),
         getAndroidJsonFactory(), setHttpTimeout(credential));
@@ -190,7 +244,9 @@ public class MessagingClient extends Endpoint {
     // for development purposes
     setLocalServer(builder);
 
-    return builder.build();
+    mMsgService = builder.build();
+    mMsgServiceCredential = credential;
+    return mMsgService;
   }
 
   /**
@@ -210,6 +266,7 @@ public class MessagingClient extends Endpoint {
       data.put(Msg.DEVICE_SN, Device.getMyDevice(mContext).getSN());
       data.put(Msg.DEVICE_OS, Device.getMyDevice(mContext).getOS());
       data.put(Msg.DEVICE_NICKNAME, Device.getMyDevice(mContext).getNickname());
+      data.put(Msg.CAN_BATCH, "1");
     } catch (JSONException ex) {
       Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex,
         ERROR_SEND);
@@ -223,7 +280,8 @@ public class MessagingClient extends Endpoint {
    * @param data Message payload
    * @return getSuccess() false on error
    */
-  private EndpointRet sendMessage(JSONObject data) {
+  EndpointRet sendMessage(JSONObject data) {
+    final long start = Metrics.start();
     EndpointRet ret = new EndpointRet();
     ret.setSuccess(false);
     ret.setReason(ERROR_UNKNOWN);
@@ -249,119 +307,18 @@ public class MessagingClient extends Endpoint {
       if (ret.getSuccess()) {
         Log.logD(TAG, "Message sent to server: " + action);
         Analytics.INST(mContext).sent(action);
+        Metrics.time("messaging.send", start);
       } else {
         ret.setReason(
           Log.logE(mContext, TAG, ret.getReason(), ERROR_SEND));
+        Metrics.count("messaging.sendFailed", 1L);
       }
     } catch (Exception ex) {
+      checkAuthError(ex);
       ret.setReason(
         Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, ERROR_SEND));
+      Metrics.count("messaging.sendFailed", 1L);
     }
     return ret;
   }
-
-  /** AsyncTask to call GAE Messaging Endpoint */
-  private static class MessagingAsyncTask extends
-    ThreadedAsyncTask<JSONObject, Void, EndpointRet> {
-
-    private final static String TAG = "MessagingAsyncTask";
-
-    // OK, if mAppContext is the global Application context
-    @SuppressLint("StaticFieldLeak")
-    private final Context mAppContext;
-
-    private final String ERROR_SEND;
-
-    private final String ERROR_NO_SERVER_ENTRY;
-
-    /** Max number of no devices error before disabling push */
-    private final int MAX_NO_DEVICES_CT = 10;
-
-    /** If true, retry on any error */
-    private boolean mRetryOnError;
-
-    /** Data to send */
-    private JSONObject mData;
-
-    /** Message type */
-    private String mAction;
-
-    MessagingAsyncTask(Context context, boolean retryOnError) {
-      mAppContext = context;
-      mRetryOnError = retryOnError;
-      ERROR_SEND = context.getString(R.string.err_send);
-      ERROR_NO_SERVER_ENTRY = context.getString(R.string.err_no_server_entry);
-
-      if (mRetryOnError) {
-        // skip error and exception logging on first try
-        Log.disableErrorLogging();
-      } else {
-        Log.enableErrorLogging();
-      }
-    }
-
-    @Override
-    protected EndpointRet doInBackground(JSONObject... params) {
-      EndpointRet ret = new EndpointRet();
-      ret.setSuccess(false);
-      ret.setReason(ERROR_SEND);
-
-      try {
-        mData = params[0];
-        mAction = mData.getString(Msg.ACTION);
-
-        // send message to server - blocks
-        ret = MessagingClient.INST(mAppContext).sendMessage(mData);
-      } catch (JSONException ex) {
-        ret.setReason(Log.logEx(mAppContext, TAG, ex.getLocalizedMessage(),
-          ex, ERROR_SEND));
-      }
-      return ret;
-    }
-
-    @Override
-    protected void onPostExecute(@NonNull EndpointRet ret) {
-      final String reason = ret.getReason();
-
-      // !Important - make sure to reenable
-      Log.enableErrorLogging();
-
-      if (reason.contains(Msg.SERVER_ERR_NO_DB_ENTRY)) {
-        // unrecoverable error - not in server database
-        mRetryOnError = false;
-        Log.logE(mAppContext, TAG, ERROR_NO_SERVER_ENTRY, ERROR_SEND);
-      } else if (reason.contains(Msg.SERVER_ERR_NO_DEVICES)) {
-        // unrecoverable error - no other devices registered
-        mRetryOnError = false;
-
-        // let listeners know
-        Devices.INST(mAppContext).notifyNoRemoteDevicesError();
-
-        int noDevicesCt = Prefs.INST(mAppContext).getNoDevicesCt();
-        if (noDevicesCt >= MAX_NO_DEVICES_CT) {
-          // disable push silently
-          //Log.logE(mAppContext, TAG, "No devices", ERROR_SEND);
-          if (Prefs.INST(mAppContext).isPushClipboard()) {
-            Prefs.INST(mAppContext).setPushClipboard(false);
-          }
-        } else if (Msg.ACTION_MESSAGE.equals(mAction)) {
-          // let regular messages go but increment error count
-          noDevicesCt++;
-          Prefs.INST(mAppContext).setNoDevicesCt(noDevicesCt);
-        }
-      }
-
-      if (mRetryOnError && !ret.getSuccess()) {
-        // try again on most errors
-        Log.logD(TAG, "Retrying message send");
-        new MessagingAsyncTask(mAppContext, false).executeMe(mData);
-      } else {
-        if (Msg.ACTION_DEVICE_REMOVED.equals(mAction)) {
-          // remove device notification. SignInActivity will be notified that it
-          // can now unregister and sign-out
-          Devices.INST(mAppContext).notifyMyDeviceRemoved();
-        }
-      }
-    }
-  }
 }
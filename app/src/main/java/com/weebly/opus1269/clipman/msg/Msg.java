@@ -25,6 +25,10 @@ public class Msg {
 
   public static final String ACTION = "act";
   public static final String ACTION_MESSAGE = "m";
+  /** Several {@link #ACTION_MESSAGE}, its MESSAGE is a JSON array of them */
+  public static final String ACTION_MESSAGES = "ms";
+  /** Part of an {@link #ACTION_MESSAGE} too large for one message */
+  public static final String ACTION_MESSAGE_PART = "mp";
   public static final String ACTION_PING = "ping_others";
   public static final String ACTION_PING_RESPONSE = "respond_to_ping";
   public static final String ACTION_DEVICE_ADDED = "add_our_device";
@@ -39,6 +43,28 @@ public class Msg {
   public static final String DEVICE_NICKNAME = "dN";
   public static final String FAV = "fav";
   public static final String SRC_REG_ID = "srcRegId";
+  /** Unique id of a message, the same for its retries */
+  public static final String MESSAGE_ID = "mId";
+  /** How MESSAGE is encoded, missing if it is plain text */
+  public static final String ENCODING = "enc";
+  /** Deflated UTF-8, then URL safe base64 */
+  public static final String ENCODING_DEFLATE = "z";
+  /** Id shared by the parts of a clip */
+  public static final String TRANSFER_ID = "tId";
+  /** Index of a part, from 0 */
+  public static final String PART = "pt";
+  /** Number of parts */
+  public static final String PARTS = "pts";
+  /** "1" if the sender reads {@link #ACTION_MESSAGES}, missing if not */
+  public static final String CAN_BATCH = "cB";
+
+  // limits
+
+  /**
+   * Most characters of an encoded MESSAGE. Leaves room for the other fields
+   * in the 4KB FCM data limit
+   */
+  static final int MAX_MESSAGE_LEN = 3584;
 
   // shared error messages
 
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.backend.messaging.model.EndpointRet;
+import com.weebly.opus1269.clipman.db.OutboxTable;
+import com.weebly.opus1269.clipman.model.Devices;
+import com.weebly.opus1269.clipman.model.Prefs;
+import com.weebly.opus1269.clipman.model.User;
+import com.weebly.opus1269.clipman.services.OutboxJobService;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton queue of the messages to our other devices. Messages are stored
+ * in the {@link OutboxTable} before they are sent, so they survive the
+ * network being down and the process being killed. The queue is sent in
+ * order. A clip that fails to send is retried with a growing, jittered delay
+ * by the {@link OutboxJobService} when there is a network, and the clips
+ * after it wait for it. The other messages are only useful right away, so
+ * they don't wait for the clips, and are retried once, at once.
+ * Clips copied close together are sent in one {@link Msg#ACTION_MESSAGES}
+ * when all our devices can read it
+ */
+public class Outbox {
+  // OK, because mContext is the global Application context
+  @SuppressLint("StaticFieldLeak")
+  private static Outbox sInstance;
+
+  /** Global Application Context */
+  private final Context mContext;
+
+  /** Class identifier */
+  private final String TAG = this.getClass().getSimpleName();
+
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "outbox.";
+
+  /** Most sends of a clip */
+  private static final int MAX_ATTEMPTS = 10;
+
+  /** Most sends of the other messages */
+  private static final int MAX_ATTEMPTS_OTHER = 2;
+
+  /** Oldest message we still send */
+  private static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+  /** Delay after the first failed send, doubled for each one after */
+  private static final int BACKOFF_SECS = 30;
+
+  /** Longest delay between sends */
+  private static final int MAX_BACKOFF_SECS =
+    (int) TimeUnit.HOURS.toSeconds(1);
+
+  /** Most clips in one envelope */
+  private static final int MAX_BATCH = 20;
+
+  /** Max number of no devices error before disabling push */
+  private static final int MAX_NO_DEVICES_CT = 10;
+
+  private final String ERROR_SEND;
+
+  private final String ERROR_NO_SERVER_ENTRY;
+
+  /** Queues and sends the messages, one at a time */
+  private final ScheduledExecutorService mExecutor =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(@NonNull final Runnable runnable) {
+        final Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+          }
+        }, TAG);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  /** Spreads out the retries of our devices */
+  private final Random mRandom = new Random();
+
+  private Outbox(@NonNull Context context) {
+    mContext = context.getApplicationContext();
+
+    ERROR_SEND = mContext.getString(R.string.err_send);
+    ERROR_NO_SERVER_ENTRY = mContext.getString(R.string.err_no_server_entry);
+  }
+
+  /**
+   * Lazily create our instance
+   * @param context any old context
+   */
+  public static Outbox INST(@NonNull Context context) {
+    synchronized (Outbox.class) {
+      if (sInstance == null) {
+        sInstance = new Outbox(context);
+      }
+      return sInstance;
+    }
+  }
+
+  /**
+   * Queue a message and start sending. It gets a unique id, so the
+   * receivers can ignore it if a retry delivers it twice. A clip waits
+   * for the batch time set by the user, so the next ones can join it
+   * @param data message payload
+   */
+  void enqueue(@NonNull final JSONObject data) {
+    final int batchSecs =
+      (Msg.ACTION_MESSAGE.equals(data.optString(Msg.ACTION)) &&
+        Devices.INST(mContext).canBatch()) ?
+        Prefs.INST(mContext).getBatchSecs() : 0;
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (!data.has(Msg.MESSAGE_ID)) {
+            data.put(Msg.MESSAGE_ID, UUID.randomUUID().toString());
+          }
+          OutboxTable.INST(mContext).insert(data.getString(Msg.MESSAGE_ID),
+            data.toString());
+        } catch (Exception ex) {
+          Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, ERROR_SEND);
+          return;
+        }
+        if (batchSecs == 0) {
+          send();
+        }
+      }
+    });
+
+    if (batchSecs > 0) {
+      mExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          send();
+        }
+      }, batchSecs, TimeUnit.SECONDS);
+    }
+  }
+
+  /** Start sending the queue, e.g. when the app starts */
+  public void flush() {
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        send();
+      }
+    });
+  }
+
+  /**
+   * Send the queue and schedule the retry, if needed. The clips that are
+   * waiting for a retry are left to the {@link OutboxJobService} - Blocks
+   */
+  private void send() {
+    final int delaySecs = drain(false);
+    if (delaySecs > 0) {
+      OutboxJobService.schedule(mContext, delaySecs);
+    }
+  }
+
+  /**
+   * Send the queue, including the clips waiting for a retry - Blocks
+   * @return seconds until the retry, 0 if no clip failed
+   */
+  public int drain() {
+    return drain(true);
+  }
+
+  /**
+   * Send the queue in order. Once a clip fails, or is waiting for a retry
+   * we don't make, the clips after it stay queued - Blocks
+   * @param retryClips if true, send the clips that are waiting for a retry
+   * @return seconds until the retry, 0 if no clip failed
+   */
+  private synchronized int drain(boolean retryClips) {
+    final OutboxTable table = OutboxTable.INST(mContext);
+    if (!User.INST(mContext).isLoggedIn()) {
+      // not for whoever signs in next
+      table.deleteAll();
+      return 0;
+    }
+
+    // the messages up to this one are held back
+    long heldId = 0L;
+    boolean holdClips = false;
+    int delaySecs = 0;
+    List<OutboxTable.Message> msgs;
+    while (!(msgs = table.getNext(heldId, MAX_BATCH)).isEmpty()) {
+      final OutboxTable.Message msg = msgs.get(0);
+      final JSONObject data;
+      final String action;
+      try {
+        data = new JSONObject(msg.data);
+        action = data.getString(Msg.ACTION);
+      } catch (JSONException ex) {
+        Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, ERROR_SEND);
+        table.delete(msg.id);
+        continue;
+      }
+
+      final boolean isClip = Msg.ACTION_MESSAGE.equals(action) ||
+        Msg.ACTION_MESSAGE_PART.equals(action);
+      final int maxAttempts = isClip ? MAX_ATTEMPTS : MAX_ATTEMPTS_OTHER;
+      if ((System.currentTimeMillis() - msg.date) > MAX_AGE) {
+        Log.logD(TAG, "Dropped stale message: " + action);
+        Metrics.count(METRIC + "dropped", 1L);
+        table.delete(msg.id);
+        onDone(action);
+        continue;
+      }
+
+      if (isClip && (holdClips || (!retryClips && (msg.attempts > 0)))) {
+        // keep the order of the clips, they wait for the one that failed
+        holdClips = true;
+        heldId = msg.id;
+        continue;
+      }
+
+      // the clips at the front are sent together
+      final List<OutboxTable.Message> batch = new ArrayList<>(msgs.size());
+      batch.add(msg);
+      final JSONObject sendData = (Msg.ACTION_MESSAGE.equals(action) &&
+        Devices.INST(mContext).canBatch()) ? pack(data, msgs, batch) : data;
+
+      final int attempts = msg.attempts + 1;
+      final boolean isLastTry = (attempts >= maxAttempts);
+      if (!isLastTry) {
+        // skip error and exception logging until the last try
+        Log.disableErrorLogging();
+      }
+      EndpointRet ret;
+      try {
+        ret = MessagingClient.INST(mContext).sendMessage(sendData);
+      } finally {
+        // !Important - make sure to reenable
+        Log.enableErrorLogging();
+      }
+
+      if (ret.getSuccess()) {
+        Metrics.count(METRIC + "sent", batch.size());
+        Metrics.record(METRIC + "batchSize", batch.size());
+        delete(batch);
+        onDone(action);
+      } else if (isPermanentError(ret.getReason(), action)) {
+        delete(batch);
+        onDone(action);
+      } else if (isLastTry) {
+        Log.logD(TAG, "Giving up on message: " + action);
+        Metrics.count(METRIC + "dropped", 1L);
+        table.delete(msg.id);
+        onDone(action);
+        // the rest of the batch gets its own tries
+        for (int i = 1; i < batch.size(); i++) {
+          table.setAttempts(batch.get(i).id, batch.get(i).attempts + 1);
+        }
+      } else {
+        Log.logD(TAG, "Retrying message send: " + action);
+        Metrics.count(METRIC + "retried", 1L);
+        for (OutboxTable.Message failed : batch) {
+          table.setAttempts(failed.id, failed.attempts + 1);
+        }
+        if (isClip) {
+          // the network is probably down, keep the order and wait
+          holdClips = true;
+          heldId = msg.id;
+          delaySecs = getBackoffSecs(attempts);
+        }
+      }
+    }
+    return delaySecs;
+  }
+
+  /**
+   * Pack the clips at the front of the queue into one envelope, as many as
+   * fit in a FCM message. The order is kept, so packing stops at the first
+   * message that isn't a clip
+   * @param data  the first clip
+   * @param msgs  the front of the queue, starting with the first clip
+   * @param batch the first clip, the others in the envelope are added
+   * @return the envelope, or data if there is only one clip
+   */
+  @NonNull
+  private JSONObject pack(@NonNull JSONObject data,
+                          @NonNull List<OutboxTable.Message> msgs,
+                          @NonNull List<OutboxTable.Message> batch) {
+    // the brackets of the encoded array
+    final int ENCODED_BRACKETS = 6;
+    // an encoded comma
+    final int ENCODED_SEP = 3;
+    try {
+      final JSONArray clips = new JSONArray();
+      JSONObject clip = toClip(data);
+      int len = ENCODED_BRACKETS + Uri.encode(clip.toString()).length();
+      clips.put(clip);
+      for (int i = 1; i < msgs.size(); i++) {
+        final JSONObject next = new JSONObject(msgs.get(i).data);
+        if (!Msg.ACTION_MESSAGE.equals(next.optString(Msg.ACTION))) {
+          break;
+        }
+        clip = toClip(next);
+        len += ENCODED_SEP + Uri.encode(clip.toString()).length();
+        if (len > Msg.MAX_MESSAGE_LEN) {
+          break;
+        }
+        clips.put(clip);
+        batch.add(msgs.get(i));
+      }
+
+      if (batch.size() == 1) {
+        return data;
+      }
+
+      final JSONObject envelope = new JSONObject(data.toString());
+      envelope.put(Msg.ACTION, Msg.ACTION_MESSAGES);
+      envelope.put(Msg.MESSAGE, clips.toString());
+      envelope.put(Msg.MESSAGE_ID, UUID.randomUUID().toString());
+      envelope.remove(Msg.FAV);
+      return envelope;
+    } catch (JSONException ex) {
+      Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex, false);
+      // send the first one on its own
+      batch.subList(1, batch.size()).clear();
+      return data;
+    }
+  }
+
+  /**
+   * Get the fields of a clip message that go in an envelope
+   * @param data the clip message
+   * @return entry of the envelope
+   * @throws JSONException if it has no text
+   */
+  @NonNull
+  private static JSONObject toClip(@NonNull JSONObject data)
+    throws JSONException {
+    final JSONObject ret = new JSONObject();
+    ret.put(Msg.MESSAGE, data.getString(Msg.MESSAGE));
+    ret.put(Msg.FAV, data.optString(Msg.FAV, "0"));
+    ret.put(Msg.MESSAGE_ID, data.optString(Msg.MESSAGE_ID));
+    if (data.has(Msg.ENCODING)) {
+      ret.put(Msg.ENCODING, data.getString(Msg.ENCODING));
+    }
+    return ret;
+  }
+
+  /**
+   * Remove messages from the queue
+   * @param msgs the messages
+   */
+  private void delete(@NonNull List<OutboxTable.Message> msgs) {
+    for (OutboxTable.Message msg : msgs) {
+      OutboxTable.INST(mContext).delete(msg.id);
+    }
+  }
+
+  /**
+   * Handle the errors that a retry won't fix
+   * @param reason server error
+   * @param action type of the message
+   * @return true if the message should be dropped
+   */
+  private boolean isPermanentError(String reason, @NonNull String action) {
+    if (reason == null) {
+      return false;
+    }
+
+    if (reason.contains(Msg.SERVER_ERR_NO_DB_ENTRY)) {
+      // unrecoverable error - not in server database
+      Log.logE(mContext, TAG, ERROR_NO_SERVER_ENTRY, ERROR_SEND);
+      return true;
+    } else if (reason.contains(Msg.SERVER_ERR_NO_DEVICES)) {
+      // unrecoverable error - no other devices registered
+
+      // let listeners know
+      Devices.INST(mContext).notifyNoRemoteDevicesError();
+
+      int noDevicesCt = Prefs.INST(mContext).getNoDevicesCt();
+      if (noDevicesCt >= MAX_NO_DEVICES_CT) {
+        // disable push silently
+        if (Prefs.INST(mContext).isPushClipboard()) {
+          Prefs.INST(mContext).setPushClipboard(false);
+        }
+      } else if (Msg.ACTION_MESSAGE.equals(action)) {
+        // let regular messages go but increment error count
+        noDevicesCt++;
+        Prefs.INST(mContext).setNoDevicesCt(noDevicesCt);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * A message left the queue, sent or not
+   * @param action type of the message
+   */
+  private void onDone(@NonNull String action) {
+    if (Msg.ACTION_DEVICE_REMOVED.equals(action)) {
+      // remove device notification. SignInActivity will be notified that it
+      // can now unregister and sign-out
+      Devices.INST(mContext).notifyMyDeviceRemoved();
+    }
+  }
+
+  /**
+   * Get the delay before the next send. It doubles with each failure,
+   * and is randomly shortened by up to half, so our devices don't all retry
+   * at the same time
+   * @param attempts number of failed sends
+   * @return delay in seconds
+   */
+  private int getBackoffSecs(int attempts) {
+    final int half = (int) (getMaxBackoffSecs(attempts) / 2L);
+    return half + mRandom.nextInt(half + 1);
+  }
+
+  /**
+   * Get the longest delay before the next send
+   * @param attempts number of failed sends
+   * @return delay in seconds
+   */
+  private static long getMaxBackoffSecs(int attempts) {
+    return Math.min((long) MAX_BACKOFF_SECS,
+      (long) BACKOFF_SECS << Math.min(attempts - 1, 20));
+  }
+
+  /**
+   * Get the longest time between the first and the last send of a clip,
+   * about 3 hours
+   * @return time in milli seconds
+   */
+  static long getRetryMillis() {
+    long secs = 0L;
+    for (int attempts = 1; attempts < MAX_ATTEMPTS; attempts++) {
+      secs += getMaxBackoffSecs(attempts);
+    }
+    return TimeUnit.SECONDS.toMillis(secs);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.api.client.util.Base64;
+import com.weebly.opus1269.clipman.app.AppUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Static methods to encode the text of our messages */
+public class Payload {
+
+  /** Most bytes of a decoded text, guards against bad messages */
+  static final int MAX_DECODED_LEN = 1024 * 1024;
+
+  private Payload() {
+  }
+
+  /**
+   * Compress text with {@link Msg#ENCODING_DEFLATE}
+   * @param text text to compress
+   * @return encoded text
+   */
+  @NonNull
+  static String deflate(@NonNull String text) {
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buf = new byte[4096];
+    try {
+      deflater.setInput(text.getBytes(AppUtils.UTF_8));
+      deflater.finish();
+      while (!deflater.finished()) {
+        out.write(buf, 0, deflater.deflate(buf));
+      }
+    } finally {
+      deflater.end();
+    }
+    // the URL safe alphabet has no characters a URL encoding changes
+    return Base64.encodeBase64URLSafeString(out.toByteArray());
+  }
+
+  /**
+   * Get the text of a message
+   * @param encoding the {@link Msg#ENCODING}, null if plain text
+   * @param message  the message
+   * @return the text
+   * @throws IOException if it can't be decoded
+   */
+  @NonNull
+  public static String decode(@Nullable String encoding,
+                              @Nullable String message) throws IOException {
+    if (message == null) {
+      throw new IOException("Message has no text");
+    } else if (encoding == null) {
+      return message;
+    } else if (!Msg.ENCODING_DEFLATE.equals(encoding)) {
+      throw new IOException("Unknown message encoding: " + encoding);
+    }
+
+    final Inflater inflater = new Inflater();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buf = new byte[4096];
+    try {
+      inflater.setInput(Base64.decodeBase64(message));
+      while (!inflater.finished()) {
+        final int len = inflater.inflate(buf);
+        if ((len == 0) && !inflater.finished() &&
+          (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Message is truncated");
+        }
+        out.write(buf, 0, len);
+        if (out.size() > MAX_DECODED_LEN) {
+          throw new IOException("Message is too large");
+        }
+      }
+    } catch (IllegalArgumentException | DataFormatException ex) {
+      throw new IOException(ex.getLocalizedMessage());
+    } finally {
+      inflater.end();
+    }
+    return new String(out.toByteArray(), AppUtils.UTF_8);
+  }
+}
@@ -51,6 +51,12 @@ public class RegistrationClient extends Endpoint {
   private final String ERROR_INVALID_REGID;
   private final String ERROR_NOT_REGISTERED;
 
+  /** Connection to the server, reused until the credential changes */
+  private Registration mRegService = null;
+
+  /** Credential {@link #mRegService} was built with */
+  private GoogleCredential mRegServiceCredential = null;
+
   private RegistrationClient(@NonNull Context context) {
     super(context);
 
@@ -124,6 +130,7 @@ public class RegistrationClient extends Endpoint {
         ret.setReason(Log.logE(mContext, TAG, ret.getReason(), ERROR_REGISTER));
       }
     } catch (final Exception ex) {
+      checkAuthError(ex);
       ret.setReason(Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex,
         ERROR_REGISTER));
     } finally {
@@ -178,6 +185,7 @@ public class RegistrationClient extends Endpoint {
           Log.logE(mContext, TAG, ret.getReason(), ERROR_UNREGISTER));
       }
     } catch (final Exception ex) {
+      checkAuthError(ex);
       ret.setReason(Log.logEx(mContext, TAG, ex.getLocalizedMessage(), ex,
         ERROR_UNREGISTER));
     } finally {
@@ -193,7 +201,12 @@ public class RegistrationClient extends Endpoint {
    * @return Connection to RegistrationEndpoint on server
    */
   @NonNull
-  private Registration getRegistrationService(GoogleCredential credential) {
+  private synchronized Registration getRegistrationService(
+    GoogleCredential credential) {
+    if ((mRegService != null) && (credential == mRegServiceCredential)) {
+      return mRegService;
+    }
+
     final Registration.Builder builder =
       new Registration.Builder(getNetHttpTransport(),
         getAndroidJsonFactory(), setHttpTimeout(credential));
@@ -203,7 +216,9 @@ public class RegistrationClient extends Endpoint {
     // for development purposes
     setLocalServer(builder);
 
-    return builder.build();
+    mRegService = builder.build();
+    mRegServiceCredential = credential;
+    return mRegService;
   }
 
   /** AsyncTask to register our with the server */
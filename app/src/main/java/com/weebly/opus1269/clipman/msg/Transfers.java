@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Assembles the {@link Msg#ACTION_MESSAGE_PART} messages of clips too large
+ * for one message. Only a few transfers are kept, and only while their
+ * parts keep coming, so the parts of a lost one don't pile up
+ */
+public class Transfers {
+  private static final String TAG = "Transfers";
+
+  /** Prefix of our {@link Metrics} names */
+  private static final String METRIC = "transfers.";
+
+  /** Most transfers in progress, the oldest is dropped */
+  static final int MAX_TRANSFERS = 4;
+
+  /** Most parts of a transfer */
+  static final int MAX_PARTS = 512;
+
+  /**
+   * Longest time to wait for the next part. The parts are sent in order,
+   * so this is as long as the sender retries one of them
+   */
+  static final long MAX_AGE = Outbox.getRetryMillis();
+
+  /** The transfers in progress, oldest first */
+  private final Map<String, Transfer> mTransfers =
+    new LinkedHashMap<String, Transfer>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Transfer> eldest) {
+        if (size() > MAX_TRANSFERS) {
+          Log.logD(TAG, "Dropped transfer: " + eldest.getKey());
+          Metrics.count(METRIC + "dropped", 1L);
+          return true;
+        }
+        return false;
+      }
+    };
+
+  /**
+   * Add a part
+   * @param transferId id of the transfer
+   * @param part       index of the part
+   * @param parts      number of parts
+   * @param message    the part
+   * @return the whole message, null if parts are still missing
+   */
+  @Nullable
+  public String add(@NonNull String transferId, int part, int parts,
+                    @NonNull String message) {
+    return add(transferId, part, parts, message, System.currentTimeMillis());
+  }
+
+  /**
+   * Add a part
+   * @param transferId id of the transfer
+   * @param part       index of the part
+   * @param parts      number of parts
+   * @param message    the part
+   * @param now        current time in millisecs
+   * @return the whole message, null if parts are still missing
+   */
+  @Nullable
+  synchronized String add(@NonNull String transferId, int part, int parts,
+                          @NonNull String message, long now) {
+    removeStale(now);
+
+    if ((parts < 1) || (parts > MAX_PARTS) || (part < 0) ||
+      (part >= parts)) {
+      Log.logD(TAG, "Bad part: " + part + " of " + parts);
+      return null;
+    }
+
+    Transfer transfer = mTransfers.get(transferId);
+    if ((transfer == null) || (transfer.parts.length != parts)) {
+      transfer = new Transfer(now, parts);
+      mTransfers.put(transferId, transfer);
+    }
+
+    if (transfer.parts[part] == null) {
+      transfer.parts[part] = message;
+      transfer.count++;
+    }
+    transfer.date = now;
+
+    if (transfer.count < parts) {
+      return null;
+    }
+
+    mTransfers.remove(transferId);
+    final StringBuilder ret = new StringBuilder();
+    for (String msg : transfer.parts) {
+      ret.append(msg);
+    }
+    Metrics.record(METRIC + "parts", parts);
+    return ret.toString();
+  }
+
+  /**
+   * Drop the transfers we gave up on
+   * @param now current time
+   */
+  private void removeStale(long now) {
+    final Iterator<Transfer> it = mTransfers.values().iterator();
+    while (it.hasNext()) {
+      if ((now - it.next().date) > MAX_AGE) {
+        Metrics.count(METRIC + "dropped", 1L);
+        it.remove();
+      }
+    }
+  }
+
+  /** A clip being assembled */
+  private static class Transfer {
+    /** When the last part arrived */
+    long date;
+    final String[] parts;
+    int count = 0;
+
+    Transfer(long date, int parts) {
+      this.date = date;
+      this.parts = new String[parts];
+    }
+  }
+}
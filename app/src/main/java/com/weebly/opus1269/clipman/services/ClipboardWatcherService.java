@@ -13,22 +13,23 @@ import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.weebly.opus1269.clipman.app.AppUtils;
 import com.weebly.opus1269.clipman.app.Log;
-import com.weebly.opus1269.clipman.db.ClipsContentProvider;
+import com.weebly.opus1269.clipman.db.ClipWriter;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Prefs;
 import com.weebly.opus1269.clipman.model.Notifications;
 
 /**
  * An app private {@link Service} to listen for changes to the clipboard,
- * persist them to storage using {@link ClipsContentProvider} and push them to
- * registered FCM devices
+ * persist them to storage off the main thread using {@link ClipWriter} and
+ * push them to registered FCM devices
  */
 public class ClipboardWatcherService extends Service implements
-  ClipboardManager.OnPrimaryClipChangedListener {
+  ClipboardManager.OnPrimaryClipChangedListener, ClipWriter.Listener {
   private static final String TAG = "ClipboardWatcherService";
 
   /**
@@ -164,13 +165,12 @@ public class ClipboardWatcherService extends Service implements
    * @param onNewOnly if true, only save if the text doesn't exist
    */
   private void saveAndSend(ClipItem clipItem, boolean onNewOnly) {
-    boolean saved;
-    if (onNewOnly) {
-      saved = clipItem.saveIfNew(this);
-    } else {
-      saved = clipItem.save(this);
-    }
+    // the result comes back in onSaved
+    ClipWriter.INST(this).save(clipItem, onNewOnly, this);
+  }
 
+  @Override
+  public void onSaved(@NonNull ClipItem clipItem, boolean saved) {
     if (saved) {
       Notifications.INST(this).show(clipItem);
 
@@ -15,7 +15,6 @@ import android.content.Intent;
 
 import com.weebly.opus1269.clipman.app.Log;
 import com.weebly.opus1269.clipman.backup.BackupHelper;
-import com.weebly.opus1269.clipman.db.ClipTable;
 import com.weebly.opus1269.clipman.model.Prefs;
 import com.weebly.opus1269.clipman.model.User;
 
@@ -24,7 +23,8 @@ public class DailyAlarmReceiver extends BroadcastReceiver {
   private static final String TAG = "DailyAlarmReceiver";
 
   /**
-   * Add daily alarm to delete old DB entries and perform backup
+   * Add daily alarm to perform backup and the jobs that keep the DB
+   * within the storage limits and compact
    * @param caller  caller's class name
    * @param context a Context
    */
@@ -47,8 +47,12 @@ public class DailyAlarmReceiver extends BroadcastReceiver {
 
     Log.logD(TAG, "Initialized");
 
-    // run now
-    ClipTable.INST(context).deleteOldItems();
+    // enforce the storage limits daily and now
+    RetentionJobService.schedule(context);
+    RetentionJobService.runNow(context);
+
+    // compact and analyze the DB when the device isn't in use
+    MaintenanceJobService.schedule(context);
   }
 
   @Override
@@ -58,7 +62,5 @@ public class DailyAlarmReceiver extends BroadcastReceiver {
     if (User.INST(context).isLoggedIn() && Prefs.INST(context).isAutoBackup()) {
       BackupHelper.INST(context).createBackup(null);
     }
-
-    ClipTable.INST(context).deleteOldItems();
   }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.services;
+
+import android.content.Context;
+
+import com.firebase.jobdispatcher.Constraint;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.GooglePlayDriver;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.Trigger;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.db.ClipMaintenance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobService to vacuum, analyze and check the Clips.db with
+ * {@link ClipMaintenance} while the device is idle and charging
+ */
+public class MaintenanceJobService extends JobService {
+  public static final String TAG = "MaintenanceJobService";
+
+  /** Run about once a week */
+  private static final int PERIOD_SECS = (int) TimeUnit.DAYS.toSeconds(7);
+  private static final int FLEX_SECS = (int) TimeUnit.DAYS.toSeconds(1);
+
+  /**
+   * Schedule the weekly job, if it isn't already
+   * @param context A Context
+   */
+  public static void schedule(Context context) {
+    final FirebaseJobDispatcher dispatcher =
+      new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+    final Job job = dispatcher.newJobBuilder()
+      .setService(MaintenanceJobService.class)
+      .setTrigger(Trigger.executionWindow(PERIOD_SECS - FLEX_SECS,
+        PERIOD_SECS))
+      .setConstraints(Constraint.DEVICE_IDLE, Constraint.DEVICE_CHARGING)
+      .setLifetime(Lifetime.FOREVER)
+      .setRecurring(true)
+      .setReplaceCurrent(false)
+      .setTag(TAG)
+      .build();
+
+    dispatcher.mustSchedule(job);
+  }
+
+  @Override
+  public boolean onStartJob(final JobParameters job) {
+    Log.logD(TAG, "onStartJob: " + job.getTag());
+    final Context ctxt = this;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ClipMaintenance.INST(ctxt).run();
+        } catch (Exception ex) {
+          Log.logEx(ctxt, TAG, ex.getLocalizedMessage(), ex,
+            "Database maintenance failed", false);
+        }
+        jobFinished(job, false);
+      }
+    });
+    thread.start();
+    return true; // Answers the question: "Is there still work going on?"
+  }
+
+  @Override
+  public boolean onStopJob(JobParameters job) {
+    return false; // Answers the question: "Should this job be retried?"
+  }
+}
@@ -26,6 +26,8 @@ import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.db.ClipTable;
 import com.weebly.opus1269.clipman.model.Analytics;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Device;
@@ -33,11 +35,22 @@ import com.weebly.opus1269.clipman.model.Devices;
 import com.weebly.opus1269.clipman.model.User;
 import com.weebly.opus1269.clipman.msg.MessagingClient;
 import com.weebly.opus1269.clipman.msg.Msg;
+import com.weebly.opus1269.clipman.msg.Payload;
+import com.weebly.opus1269.clipman.msg.Transfers;
 import com.weebly.opus1269.clipman.model.Notifications;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.threeten.bp.Instant;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /** A service that listens for messages from firebase */
 public class MyFcmListenerService extends FirebaseMessagingService {
@@ -49,6 +62,35 @@ public class MyFcmListenerService extends FirebaseMessagingService {
   private static final String FCM_MESSAGE_ERROR =
     "Unknown FCM message received: ";
 
+  /** Most message ids remembered */
+  private static final int MAX_MSG_IDS = 64;
+
+  /** Ids of the latest messages, a message resent by a retry is ignored */
+  private static final Set<String> sMsgIds =
+    Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+        return size() > MAX_MSG_IDS;
+      }
+    });
+
+  /** The clips that arrive in parts */
+  private static final Transfers sTransfers = new Transfers();
+
+  /**
+   * Determine if we already received a message
+   * @param msgId id of the message, null from older versions
+   * @return true if a duplicate
+   */
+  private static boolean isDuplicate(String msgId) {
+    if (msgId == null) {
+      return false;
+    }
+    synchronized (sMsgIds) {
+      return !sMsgIds.add(msgId);
+    }
+  }
+
   /**
    * Save {@link ClipItem} to database and copy to clipboard
    * @param ctxt   A Context
@@ -57,7 +99,14 @@ public class MyFcmListenerService extends FirebaseMessagingService {
    */
   private static void saveClipItem(Context ctxt, Map<String, String> data,
                                    Device device) {
-    final String clipTxt = data.get(Msg.MESSAGE);
+    final String clipTxt;
+    try {
+      clipTxt = Payload.decode(data.get(Msg.ENCODING), data.get(Msg.MESSAGE));
+    } catch (IOException ex) {
+      Log.logEx(ctxt, TAG, ex.getLocalizedMessage(), ex, FCM_MESSAGE_ERROR,
+        false);
+      return;
+    }
     final String favString = data.get(Msg.FAV);
     Boolean fav = "1".equals(favString);
     final String deviceName = device.getDisplayName();
@@ -81,6 +130,101 @@ public class MyFcmListenerService extends FirebaseMessagingService {
     Notifications.INST(ctxt).show(clipItem);
   }
 
+  /**
+   * Save the {@link ClipItem} objects of a batch to database in one
+   * transaction and copy the last one to clipboard
+   * @param ctxt   A Context
+   * @param data   {@link Map} of key value pairs
+   * @param device Source {@link Device}
+   */
+  private static void saveClipItems(Context ctxt, Map<String, String> data,
+                                    Device device) {
+    final String deviceName = device.getDisplayName();
+    final Instant now = Instant.now();
+    final List<ClipItem> clipItems = new ArrayList<>();
+
+    try {
+      final JSONArray clips = new JSONArray(data.get(Msg.MESSAGE));
+      for (int i = 0; i < clips.length(); i++) {
+        final JSONObject clip = clips.getJSONObject(i);
+        if (isDuplicate(clip.optString(Msg.MESSAGE_ID, null))) {
+          continue;
+        }
+        final String clipTxt;
+        try {
+          clipTxt = Payload.decode(clip.optString(Msg.ENCODING, null),
+            clip.getString(Msg.MESSAGE));
+        } catch (IOException ex) {
+          Log.logEx(ctxt, TAG, ex.getLocalizedMessage(), ex,
+            FCM_MESSAGE_ERROR, false);
+          continue;
+        }
+        Boolean fav = "1".equals(clip.optString(Msg.FAV));
+        if (!fav && ClipItem.hasClipWithFav(ctxt, clipTxt)) {
+          // don't override fav of an existing item
+          fav = true;
+        }
+        // keep the order they were copied in
+        final Instant date = now.plusMillis(i);
+        clipItems.add(new ClipItem(ctxt, clipTxt, date, fav, true,
+          deviceName));
+      }
+    } catch (JSONException ex) {
+      Log.logEx(ctxt, TAG, ex.getLocalizedMessage(), ex, FCM_MESSAGE_ERROR,
+        false);
+    }
+
+    if (clipItems.isEmpty()) {
+      return;
+    }
+
+    // save to DB
+    final boolean[] saved = ClipTable.INST(ctxt).save(clipItems,
+      new boolean[clipItems.size()]);
+
+    // add to clipboard
+    clipItems.get(clipItems.size() - 1).copyToClipboard(ctxt);
+
+    // display notification if requested by user
+    for (int i = 0; i < clipItems.size(); i++) {
+      if (saved[i]) {
+        Notifications.INST(ctxt).show(clipItems.get(i));
+      }
+    }
+  }
+
+  /**
+   * Add a part of a large {@link ClipItem}, save it when it is complete
+   * @param ctxt   A Context
+   * @param data   {@link Map} of key value pairs
+   * @param device Source {@link Device}
+   */
+  private static void saveClipPart(Context ctxt, Map<String, String> data,
+                                   Device device) {
+    final String transferId = data.get(Msg.TRANSFER_ID);
+    final String message = data.get(Msg.MESSAGE);
+    final int part;
+    final int parts;
+    try {
+      part = Integer.parseInt(data.get(Msg.PART));
+      parts = Integer.parseInt(data.get(Msg.PARTS));
+    } catch (NumberFormatException ex) {
+      Log.logEx(ctxt, TAG, ex.getLocalizedMessage(), ex, FCM_MESSAGE_ERROR,
+        false);
+      return;
+    }
+    if ((transferId == null) || (message == null)) {
+      Log.logE(ctxt, TAG, Msg.ACTION_MESSAGE_PART, FCM_MESSAGE_ERROR, false);
+      return;
+    }
+
+    final String whole = sTransfers.add(transferId, part, parts, message);
+    if (whole != null) {
+      data.put(Msg.MESSAGE, whole);
+      saveClipItem(ctxt, data, device);
+    }
+  }
+
   @Override
   public void onCreate() {
     super.onCreate();
@@ -123,7 +267,8 @@ public class MyFcmListenerService extends FirebaseMessagingService {
     final String SN = data.get(Msg.DEVICE_SN);
     final String OS = data.get(Msg.DEVICE_OS);
     final String nickname = data.get(Msg.DEVICE_NICKNAME);
-    final Device device = new Device(model, SN, OS, nickname);
+    final boolean canBatch = "1".equals(data.get(Msg.CAN_BATCH));
+    final Device device = new Device(model, SN, OS, nickname, canBatch);
 
     // decode message text
     final String msg = data.get(Msg.MESSAGE);
@@ -136,8 +281,14 @@ public class MyFcmListenerService extends FirebaseMessagingService {
       return;
     }
 
+    if (isDuplicate(data.get(Msg.MESSAGE_ID))) {
+      Log.logD(TAG, "Ignoring duplicate message: " + action);
+      return;
+    }
+
     Log.logD(TAG, FCM_RECEIVED + action);
     Analytics.INST(this).received(action);
+    final long start = Metrics.start();
 
     switch (action) {
       case Msg.ACTION_MESSAGE:
@@ -145,6 +296,16 @@ public class MyFcmListenerService extends FirebaseMessagingService {
         Devices.INST(this).add(device, true);
         saveClipItem(this, data, device);
         break;
+      case Msg.ACTION_MESSAGES:
+        // several messages, save and copy the last to clipboard
+        Devices.INST(this).add(device, true);
+        saveClipItems(this, data, device);
+        break;
+      case Msg.ACTION_MESSAGE_PART:
+        // part of a large message, save and copy to clipboard when complete
+        Devices.INST(this).add(device, true);
+        saveClipPart(this, data, device);
+        break;
       case Msg.ACTION_PING:
         // We were pinged
         Devices.INST(this).add(device, true);
@@ -171,6 +332,8 @@ public class MyFcmListenerService extends FirebaseMessagingService {
         break;
     }
 
+    Metrics.time("fcm.received", start);
+
     // slow down the message stream
     SystemClock.sleep(250);
   }
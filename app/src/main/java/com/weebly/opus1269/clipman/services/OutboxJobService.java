@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.services;
+
+import android.content.Context;
+
+import com.firebase.jobdispatcher.Constraint;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.GooglePlayDriver;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.Trigger;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.msg.Outbox;
+
+/**
+ * JobService to retry sending the {@link Outbox} when there is a network
+ */
+public class OutboxJobService extends JobService {
+  public static final String TAG = "OutboxJobService";
+
+  /** Extra seconds the job may wait for */
+  private static final int FLEX_SECS = 30;
+
+  /**
+   * Schedule the retry, replacing any earlier one
+   * @param context   A Context
+   * @param delaySecs seconds to wait at least
+   */
+  public static void schedule(Context context, int delaySecs) {
+    final FirebaseJobDispatcher dispatcher =
+      new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+    final Job job = dispatcher.newJobBuilder()
+      .setService(OutboxJobService.class)
+      .setTrigger(Trigger.executionWindow(delaySecs, delaySecs + FLEX_SECS))
+      .setConstraints(Constraint.ON_ANY_NETWORK)
+      .setLifetime(Lifetime.FOREVER)
+      .setRecurring(false)
+      .setReplaceCurrent(true)
+      .setTag(TAG)
+      .build();
+
+    dispatcher.mustSchedule(job);
+  }
+
+  @Override
+  public boolean onStartJob(final JobParameters job) {
+    Log.logD(TAG, "onStartJob");
+    final Context ctxt = this;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        final int delaySecs = Outbox.INST(ctxt).drain();
+        jobFinished(job, false);
+        if (delaySecs > 0) {
+          // still failing, try again later
+          schedule(ctxt, delaySecs);
+        }
+      }
+    });
+    thread.start();
+    return true; // Answers the question: "Is there still work going on?"
+  }
+
+  @Override
+  public boolean onStopJob(JobParameters job) {
+    return false; // Answers the question: "Should this job be retried?"
+  }
+}
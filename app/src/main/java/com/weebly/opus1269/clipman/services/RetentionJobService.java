@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.services;
+
+import android.content.Context;
+
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.GooglePlayDriver;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+import com.firebase.jobdispatcher.Trigger;
+import com.weebly.opus1269.clipman.app.App;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.db.ClipCodec;
+import com.weebly.opus1269.clipman.db.ClipRetention;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobService to keep the Clips.db within the storage limits
+ * with {@link ClipRetention}
+ */
+public class RetentionJobService extends JobService {
+  public static final String TAG = "RetentionJobService";
+
+  /** Tag of the one time job */
+  private static final String TAG_NOW = TAG + "Now";
+
+  /** Run about once a day */
+  private static final int PERIOD_SECS = (int) TimeUnit.DAYS.toSeconds(1);
+  private static final int FLEX_SECS = (int) TimeUnit.HOURS.toSeconds(6);
+
+  /**
+   * Schedule the daily job, if it isn't already
+   * @param context A Context
+   */
+  public static void schedule(Context context) {
+    final FirebaseJobDispatcher dispatcher =
+      new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+    final Job job = dispatcher.newJobBuilder()
+      .setService(RetentionJobService.class)
+      .setTrigger(Trigger.executionWindow(PERIOD_SECS - FLEX_SECS,
+        PERIOD_SECS))
+      .setRecurring(true)
+      .setReplaceCurrent(false)
+      .setTag(TAG)
+      .build();
+
+    dispatcher.mustSchedule(job);
+  }
+
+  /**
+   * Run the job as soon as possible, e.g. when a limit changes
+   * @param context A Context
+   */
+  public static void runNow(Context context) {
+    final FirebaseJobDispatcher dispatcher =
+      new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+    final Job job = dispatcher.newJobBuilder()
+      .setService(RetentionJobService.class)
+      .setTrigger(Trigger.executionWindow(0, 0))
+      .setRecurring(false)
+      .setReplaceCurrent(true)
+      .setTag(TAG_NOW)
+      .build();
+
+    dispatcher.mustSchedule(job);
+  }
+
+  @Override
+  public boolean onStartJob(final JobParameters job) {
+    Log.logD(TAG, "onStartJob: " + job.getTag());
+    final Context ctxt = this;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final int deleted = ClipRetention.INST(ctxt).run();
+          // store large rows compactly and remove files of deleted rows
+          final int encoded = ClipCodec.INST(ctxt).encodeRows();
+          ClipCodec.INST(ctxt).deleteOrphanFiles();
+          if ((deleted > 0) || (encoded > 0) ||
+            TAG.equals(job.getTag())) {
+            // keep the write-ahead log from growing, at least once a day
+            App.getDbHelper().checkpoint();
+          }
+        } catch (Exception ex) {
+          Log.logEx(ctxt, TAG, ex.getLocalizedMessage(), ex,
+            "Database cleanup failed", false);
+        } finally {
+          jobFinished(job, false);
+        }
+      }
+    });
+    thread.start();
+    return true; // Answers the question: "Is there still work going on?"
+  }
+
+  @Override
+  public boolean onStopJob(JobParameters job) {
+    return false; // Answers the question: "Should this job be retried?"
+  }
+}
@@ -124,15 +124,16 @@ public class ClipEditorActvity extends BaseActivity {
             AppUtils.showMessage(this, null,
               getString(R.string.err_clip_exits));
           } else if (mIsAddMode || !newText.equals(oldText)) {
-            if (!mIsAddMode) {
-              // delete old
-              mClipItem.delete(this);
-            }
             // save and send new or changed
             mClipItem.setText(this, newText);
             mClipItem.setRemote(false);
             mClipItem.setDate(Instant.now().toEpochMilli());
-            mClipItem.save(this);
+            if (mIsAddMode) {
+              mClipItem.save(this);
+            } else {
+              // same row, keeps its labels
+              ClipTable.INST(this).saveText(mClipItem);
+            }
             mClipItem.copyToClipboard(this);
             finish();
           }
@@ -48,13 +48,20 @@ public class ClipViewerActivity extends BaseActivity implements
     if (savedInstanceState == null) {
       // Create the viewer fragment and add it to the activity
       // using a fragment transaction.
-      final Serializable clipItem =
-        getIntent().getSerializableExtra(Intents.EXTRA_CLIP_ITEM);
       final String highlightText =
         getIntent().getStringExtra(Intents.EXTRA_TEXT);
 
-      final ClipViewerFragment fragment =
-        ClipViewerFragment.newInstance(clipItem, highlightText);
+      final ClipViewerFragment fragment;
+      if (getIntent().hasExtra(Intents.EXTRA_CLIP_ID)) {
+        // fragment will load the clip
+        final long clipId =
+          getIntent().getLongExtra(Intents.EXTRA_CLIP_ID, -1L);
+        fragment = ClipViewerFragment.newInstance(clipId, highlightText);
+      } else {
+        final Serializable clipItem =
+          getIntent().getSerializableExtra(Intents.EXTRA_CLIP_ITEM);
+        fragment = ClipViewerFragment.newInstance(clipItem, highlightText);
+      }
       getSupportFragmentManager().beginTransaction()
         .replace(R.id.clip_viewer_container, fragment)
         .commit();
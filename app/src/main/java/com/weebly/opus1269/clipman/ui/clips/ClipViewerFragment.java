@@ -33,6 +33,8 @@ import android.widget.TextView;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.AppUtils;
 import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.ThreadedAsyncTask;
+import com.weebly.opus1269.clipman.db.ClipTable;
 import com.weebly.opus1269.clipman.model.Analytics;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Intents;
@@ -41,6 +43,7 @@ import com.weebly.opus1269.clipman.ui.base.BaseFragment;
 import com.weebly.opus1269.clipman.ui.labels.LabelsSelectActivity;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.text.Collator;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -73,6 +76,9 @@ public class ClipViewerFragment extends BaseFragment
   /** Receive {@link ClipItem} actions */
   private BroadcastReceiver mClipItemReceiver = null;
 
+  /** PK of the clip being loaded, -1L if none */
+  private long mLoadingId = -1L;
+
   /**
    * Factory method to create new fragment
    * @param item      ClipItem to view
@@ -92,6 +98,25 @@ public class ClipViewerFragment extends BaseFragment
     return fragment;
   }
 
+  /**
+   * Factory method to create new fragment that loads its clip from the db
+   * @param clipId    PK of the ClipItem to view
+   * @param highlight text to highlight
+   * @return new ClipViewerFragment
+   */
+  public static ClipViewerFragment newInstance(long clipId,
+                                               String highlight) {
+    final ClipViewerFragment fragment = new ClipViewerFragment();
+
+    final Bundle args = new Bundle();
+    args.putLong(Intents.EXTRA_CLIP_ID, clipId);
+    args.putString(Intents.EXTRA_TEXT, highlight);
+
+    fragment.setArguments(args);
+
+    return fragment;
+  }
+
   @Override
   public void onAttach(Context context) {
     super.onAttach(context);
@@ -178,6 +203,10 @@ public class ClipViewerFragment extends BaseFragment
         final String highlightText = args.getString(Intents.EXTRA_TEXT);
         setHighlightText(highlightText);
       }
+
+      if (args.containsKey(Intents.EXTRA_CLIP_ID)) {
+        loadClipItem(args.getLong(Intents.EXTRA_CLIP_ID), mHighlightText);
+      }
     }
 
     final FloatingActionButton fab = findViewById(R.id.fab);
@@ -272,6 +301,21 @@ public class ClipViewerFragment extends BaseFragment
     mOnClipChanged.clipChanged(mClipItem);
   }
 
+  /**
+   * Load a ClipItem with its full text in the background and view it
+   * @param clipId    PK of the ClipItem
+   * @param highlight text to highlight
+   */
+  public void loadClipItem(long clipId, String highlight) {
+    mHighlightText = highlight;
+    final Context context = getContext();
+    if (context == null) {
+      return;
+    }
+    mLoadingId = clipId;
+    new LoadClipTask(context, this, clipId).executeMe();
+  }
+
   /** Copy our ClipItem to the Clipboard */
   void copyToClipboard() {
     if (!ClipItem.isWhitespace(mClipItem)) {
@@ -439,6 +483,41 @@ public class ClipViewerFragment extends BaseFragment
   }
 
 
+  /** AsyncTask to load a {@link ClipItem} with its full text */
+  private static class LoadClipTask extends
+    ThreadedAsyncTask<Void, Void, ClipItem> {
+
+    private final WeakReference<ClipViewerFragment> mFragment;
+    private final Context mContext;
+    private final long mClipId;
+
+    LoadClipTask(Context context, ClipViewerFragment fragment, long clipId) {
+      mFragment = new WeakReference<>(fragment);
+      mContext = context.getApplicationContext();
+      mClipId = clipId;
+    }
+
+    @Override
+    protected ClipItem doInBackground(Void... params) {
+      return ClipTable.INST(mContext).get(mClipId);
+    }
+
+    @Override
+    protected void onPostExecute(ClipItem clipItem) {
+      final ClipViewerFragment fragment = mFragment.get();
+      if ((fragment == null) || !fragment.isAdded() ||
+        (fragment.mLoadingId != mClipId)) {
+        // gone, or a newer load was started
+        return;
+      }
+      fragment.mLoadingId = -1L;
+      if (clipItem != null) {
+        fragment.setClipItem(clipItem);
+        fragment.setHighlightText(fragment.mHighlightText);
+      }
+    }
+  }
+
   /** {@link BroadcastReceiver} to handle {@link ClipItem} actions */
   class ClipItemReceiver extends BroadcastReceiver {
 
@@ -457,11 +536,13 @@ public class ClipViewerFragment extends BaseFragment
         case Intents.TYPE_TEXT_CHANGED_CLIP_ITEM:
           Log.logD(TAG, "text changed");
           // text changed on a clip, see if it is us
+          final ClipItem clipItem =
+            (ClipItem) bundle.getSerializable(Intents.EXTRA_CLIP_ITEM);
           final String oldText = bundle.getString(Intents.EXTRA_TEXT);
-          if ((oldText != null) && oldText.equals(mClipItem.getText())) {
-            // us
-            final ClipItem clipItem =
-              (ClipItem) bundle.getSerializable(Intents.EXTRA_CLIP_ITEM);
+          final boolean isUs = (mClipItem.getId() != -1L) ?
+            ((clipItem != null) && (clipItem.getId() == mClipItem.getId())) :
+            ((oldText != null) && oldText.equals(mClipItem.getText()));
+          if (isUs) {
             setClipItem(clipItem);
           }
           break;
@@ -7,7 +7,9 @@
 
 package com.weebly.opus1269.clipman.ui.main;
 
+import android.content.Context;
 import android.database.Cursor;
+import android.support.annotation.NonNull;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
@@ -20,11 +22,18 @@ import com.androidessence.recyclerviewcursoradapter
   .RecyclerViewCursorViewHolder;
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.AppUtils;
+import com.weebly.opus1269.clipman.app.ThreadedAsyncTask;
+import com.weebly.opus1269.clipman.db.ClipTable;
 import com.weebly.opus1269.clipman.db.ClipsContract;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Prefs;
 import com.weebly.opus1269.clipman.ui.helpers.DrawableHelper;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /** Bridge between the main RecyclerView and the Clips.db database */
 class ClipCursorAdapter extends
   RecyclerViewCursorAdapter<ClipCursorAdapter.ClipViewHolder> {
@@ -34,6 +43,8 @@ class ClipCursorAdapter extends
   private int mSelectedPos = 0;
   // The database _ID of the selection list item
   private long mSelectedItemID = -1L;
+  // The database _IDs of the items checked in multi-select mode
+  private final Set<Long> mCheckedItemIDs = new HashSet<>();
 
   ClipCursorAdapter(MainActivity activity) {
     super(activity);
@@ -57,6 +68,7 @@ class ClipCursorAdapter extends
     holder.favCheckBox.setOnClickListener(mActivity.getClipLoaderManager());
     holder.copyButton.setOnClickListener(mActivity.getClipLoaderManager());
     holder.labelButton.setOnClickListener(mActivity.getClipLoaderManager());
+    holder.itemView.setOnLongClickListener(mActivity.getClipLoaderManager());
 
     return holder;
   }
@@ -79,6 +91,9 @@ class ClipCursorAdapter extends
     // color the icons
     tintIcons(holder);
 
+    // set checked state of the view
+    holder.itemView.setActivated(mCheckedItemIDs.contains(holder.itemID));
+
     if (AppUtils.isDualPane(mContext)) {
       // set selected state of the view
       if (getSelectedPos() == position) {
@@ -108,29 +123,6 @@ class ClipCursorAdapter extends
     mSelectedItemID = id;
   }
 
-  /** Get position in view from db PK */
-  int getPosFromItemID(long itemID) {
-    int pos = -1;
-
-    if (itemID == -1L) {
-      return pos;
-    }
-
-    final Cursor cursor = mCursorAdapter.getCursor();
-    if (cursor.moveToFirst()) {
-      final int colIndex = cursor.getColumnIndex(ClipsContract.Clip._ID);
-      while (!cursor.isAfterLast()) {
-        if (cursor.getLong(colIndex) == itemID) {
-          pos = cursor.getPosition();
-          break;
-        }
-        cursor.moveToNext();
-      }
-    }
-
-    return pos;
-  }
-
   int getSelectedPos() {
     return mSelectedPos;
   }
@@ -156,7 +148,47 @@ class ClipCursorAdapter extends
 
   void setSelectedItemID(long itemID) {
     mSelectedItemID = itemID;
-    setSelectedPos(getPosFromItemID(mSelectedItemID));
+    setSelectedPos(
+      mActivity.getClipLoaderManager().getPosFromItemID(mSelectedItemID));
+  }
+
+  /**
+   * Set the selection when the position is already known
+   * @param pos position in list
+   * @param id  DB id of the row
+   */
+  void setSelection(int pos, long id) {
+    setSelectedPos(pos);
+    mSelectedItemID = (pos < 0) ? -1L : id;
+  }
+
+  /**
+   * Toggle the checked state of an item in multi-select mode
+   * @param pos position in list
+   * @param id  DB id of the row
+   */
+  void toggleChecked(int pos, long id) {
+    if (!mCheckedItemIDs.remove(id)) {
+      mCheckedItemIDs.add(id);
+    }
+    notifyItemChanged(pos);
+  }
+
+  /** @return DB ids of the checked items */
+  List<Long> getCheckedItemIDs() {
+    return new ArrayList<>(mCheckedItemIDs);
+  }
+
+  int getCheckedCount() {
+    return mCheckedItemIDs.size();
+  }
+
+  /** Uncheck all the items */
+  void clearChecked() {
+    if (!mCheckedItemIDs.isEmpty()) {
+      mCheckedItemIDs.clear();
+      notifyDataSetChanged();
+    }
   }
 
   /**
@@ -204,6 +236,11 @@ class ClipCursorAdapter extends
       .applyToDrawableLeft(holder.favCheckBox);
   }
 
+  /** Callback for {@link ClipViewHolder#loadClipItem} */
+  interface OnClipLoaded {
+    void onClipLoaded(@NonNull ClipItem clipItem);
+  }
+
   /** ViewHolder inner class used to display the info. in the RecyclerView. */
   static class ClipViewHolder extends RecyclerViewCursorViewHolder {
     final RelativeLayout clipBackground;
@@ -213,7 +250,6 @@ class ClipCursorAdapter extends
     final ImageButton copyButton;
     final ImageButton labelButton;
     final TextView clipText;
-    ClipItem clipItem;
     long itemID;
 
     ClipViewHolder(View view) {
@@ -226,7 +262,6 @@ class ClipCursorAdapter extends
       clipText = view.findViewById(R.id.clipText);
       copyButton = view.findViewById(R.id.copyButton);
       labelButton = view.findViewById(R.id.labelButton);
-      clipItem = null;
       itemID = -1L;
 
       itemView.setTag(this);
@@ -237,17 +272,54 @@ class ClipCursorAdapter extends
 
     @Override
     public void bindCursor(final Cursor cursor) {
-      clipItem = new ClipItem(clipText.getContext(), cursor);
       itemID = cursor.getLong(cursor.getColumnIndex(ClipsContract.Clip._ID));
-      clipText.setText(clipItem.getText());
-      favCheckBox.setChecked(clipItem.isFav());
+      clipText.setText(cursor.getString(
+        cursor.getColumnIndex(ClipsContract.Clip.COL_PREVIEW)));
+      final int favIdx = cursor.getColumnIndex(ClipsContract.Clip.COL_FAV);
+      favCheckBox.setChecked(cursor.getLong(favIdx) != 0L);
 
-      long time = clipItem.getTime();
+      long time =
+        cursor.getLong(cursor.getColumnIndex(ClipsContract.Clip.COL_DATE));
       final CharSequence value =
-        AppUtils
-          .getRelativeDisplayTime(clipText.getContext(), clipItem.getDate());
+        AppUtils.getRelativeDisplayTime(clipText.getContext(), time);
       dateText.setText(value);
       dateText.setTag(time);
     }
+
+    /**
+     * Load the clip of this row with its full text in the background. It
+     * may be large, and stored compressed or in a file
+     * @param listener called with the clip, not if it is no longer in the db
+     */
+    void loadClipItem(@NonNull OnClipLoaded listener) {
+      new LoadClipTask(itemView.getContext(), itemID, listener).executeMe();
+    }
+  }
+
+  /** AsyncTask to load a {@link ClipItem} with its full text */
+  private static class LoadClipTask extends
+    ThreadedAsyncTask<Void, Void, ClipItem> {
+
+    private final Context mContext;
+    private final long mClipId;
+    private final OnClipLoaded mListener;
+
+    LoadClipTask(Context context, long clipId, OnClipLoaded listener) {
+      mContext = context.getApplicationContext();
+      mClipId = clipId;
+      mListener = listener;
+    }
+
+    @Override
+    protected ClipItem doInBackground(Void... params) {
+      return ClipTable.INST(mContext).get(mClipId);
+    }
+
+    @Override
+    protected void onPostExecute(ClipItem clipItem) {
+      if (clipItem != null) {
+        mListener.onClipLoaded(clipItem);
+      }
+    }
   }
 }
@@ -8,6 +8,7 @@
 package com.weebly.opus1269.clipman.ui.main;
 
 import android.graphics.Canvas;
+import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
@@ -59,30 +60,40 @@ class ClipItemTouchHelper extends ItemTouchHelper.SimpleCallback {
       // delete item
       final ClipCursorAdapter.ClipViewHolder holder =
         (ClipCursorAdapter.ClipViewHolder) viewHolder;
-
       final int selectedPos =
         mActivity.getClipLoaderManager().getAdapter().getSelectedPos();
-      mUndoItem = new UndoItem(holder.clipItem, selectedPos,
-        holder.itemView.isSelected());
-      holder.clipItem.delete(mActivity);
-
-      final Snackbar snack = Snackbar
-        .make(mActivity.findViewById(R.id.fab), R.string.deleted_1_item,
-          Snackbar.LENGTH_LONG)
-        .setAction(R.string.button_undo, new View.OnClickListener() {
-          @Override
-          public void onClick(View v) {
-            Analytics.INST(mActivity).imageClick(mActivity.getTAG(),
-              mActivity.getString(R.string.button_undo));
-            if (mUndoItem != null) {
-              mUndoItem.undo();
-              mUndoItem = null;
-            }
+      final boolean isSelected = holder.itemView.isSelected();
+
+      // keep the whole clip for undo
+      holder.loadClipItem(new ClipCursorAdapter.OnClipLoaded() {
+        @Override
+        public void onClipLoaded(@NonNull ClipItem clipItem) {
+          mUndoItem = new UndoItem(clipItem, selectedPos, isSelected);
+          clipItem.delete(mActivity);
+          showUndo();
+        }
+      });
+    }
+  }
+
+  /** Let the user undo the last delete */
+  private void showUndo() {
+    final Snackbar snack = Snackbar
+      .make(mActivity.findViewById(R.id.fab), R.string.deleted_1_item,
+        Snackbar.LENGTH_LONG)
+      .setAction(R.string.button_undo, new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+          Analytics.INST(mActivity).imageClick(mActivity.getTAG(),
+            mActivity.getString(R.string.button_undo));
+          if (mUndoItem != null) {
+            mUndoItem.undo();
+            mUndoItem = null;
           }
-        });
+        }
+      });
 
-      snack.show();
-    }
+    snack.show();
   }
 
   /**
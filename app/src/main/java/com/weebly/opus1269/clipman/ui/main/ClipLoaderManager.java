@@ -7,33 +7,52 @@
 
 package com.weebly.opus1269.clipman.ui.main;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
+import android.support.v4.content.ContextCompat;
 import android.support.v4.content.Loader;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.view.ActionMode;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 
 import com.weebly.opus1269.clipman.R;
 import com.weebly.opus1269.clipman.app.AppUtils;
+import com.weebly.opus1269.clipman.db.ClipTable;
 import com.weebly.opus1269.clipman.db.ClipsContract;
+import com.weebly.opus1269.clipman.db.LabelTables;
 import com.weebly.opus1269.clipman.model.Analytics;
 import com.weebly.opus1269.clipman.model.ClipItem;
 import com.weebly.opus1269.clipman.model.Device;
 import com.weebly.opus1269.clipman.model.Intents;
+import com.weebly.opus1269.clipman.model.Label;
 import com.weebly.opus1269.clipman.model.Prefs;
+import com.weebly.opus1269.clipman.ui.helpers.MenuTintHelper;
 import com.weebly.opus1269.clipman.ui.labels.LabelsSelectActivity;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /** This class manages most everything related to the main RecyclerViev */
 class ClipLoaderManager implements
   LoaderManager.LoaderCallbacks<Cursor>,
-  View.OnClickListener {
+  View.OnClickListener,
+  View.OnLongClickListener,
+  ActionMode.Callback {
 
   /** Main app activity */
   private final MainActivity mMainActivity;
@@ -41,6 +60,14 @@ class ClipLoaderManager implements
   /** Adapter being used to display the list's data */
   private ClipCursorAdapter mAdapter = null;
 
+  /** Query of the current load, for finding positions */
+  private Uri mUri = ClipsContract.Clip.CONTENT_URI;
+  private String mSelection = null;
+  private String[] mSelectionArgs = null;
+
+  /** Multi-select mode, null if not active */
+  private ActionMode mActionMode = null;
+
   ClipLoaderManager(MainActivity activity) {
     mMainActivity = activity;
 
@@ -55,46 +82,60 @@ class ClipLoaderManager implements
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
     Uri uri = ClipsContract.Clip.CONTENT_URI;
-    final String[] projection = ClipsContract.Clip.FULL_PROJECTION;
+    final String[] projection = ClipsContract.Clip.LIST_PROJECTION;
     final String queryString = mMainActivity.getQueryString();
     final String labelFilter = mMainActivity.getLabelFilter();
 
+    // the text may be encoded, so check its size
     String selection = "(" +
-      "(" + ClipsContract.Clip.COL_TEXT + " NOTNULL) AND (" +
-      ClipsContract.Clip.COL_TEXT + " != '' )";
+      "(" + ClipsContract.Clip.COL_SIZE + " > 0 )";
 
     if (mMainActivity.getFavFilter()) {
       // filter by favorite setting selected
       selection += " AND (" + ClipsContract.Clip.COL_FAV + " = 1 )";
     }
 
-    String[] selectionArgs = null;
-    if (!TextUtils.isEmpty(queryString)) {
-      // filter by search query
-      selection += " AND (" + ClipsContract.Clip.COL_TEXT +
-        " LIKE ? )";
-      selectionArgs = new String[1];
-      selectionArgs[0] = "%" + queryString + "%";
+    final List<String> selectionArgs = new ArrayList<>(2);
+    boolean isSearch = false;
+    if (ClipsContract.Clip.getSearchMatch(queryString) != null) {
+      // filter by search query with the full text index
+      uri = ClipsContract.Clip.getSearchUri(queryString);
+      isSearch = true;
+    } else if (!TextUtils.isEmpty(queryString)) {
+      // nothing the index can match, filter by search query
+      selection += " AND (" + ClipsContract.Clip.TEXT_LIKE_SELECTION + " )";
+      selectionArgs.add("%" + queryString + "%");
     }
 
     if (!AppUtils.isWhitespace(labelFilter)) {
-      // speical Uri to JOIN
-      uri = ClipsContract.Clip.CONTENT_URI_JOIN;
-      // filter by Label name
-      selection += " AND (" + ClipsContract.LabelMap.COL_LABEL_NAME +
-        " = '" + labelFilter + "' )";
+      if (isSearch) {
+        // filter by Label PK without a JOIN
+        selection += " AND (" + ClipsContract.Clip.LABEL_NAME_SELECTION + " )";
+      } else {
+        // speical Uri to JOIN
+        uri = ClipsContract.Clip.CONTENT_URI_JOIN;
+        // filter by Label PK
+        selection += " AND (" + ClipsContract.LabelMap.LABEL_NAME_SELECTION +
+          " )";
+      }
+      selectionArgs.add(labelFilter);
     }
 
     selection += ")";
 
+    mUri = uri;
+    mSelection = selection;
+    mSelectionArgs = selectionArgs.isEmpty() ?
+      null : selectionArgs.toArray(new String[selectionArgs.size()]);
+
     // Now create and return a CursorLoader that will take care of
-    // creating a Cursor for the data being displayed.
-    return new CursorLoader(
+    // creating a Cursor for the data being displayed a page at a time.
+    return new ClipPageLoader(
       mMainActivity,
-      uri,
+      mUri,
       projection,
-      selection,
-      selectionArgs,
+      mSelection,
+      mSelectionArgs,
       ClipsContract.Clip.getSortOrder(mMainActivity));
   }
 
@@ -117,18 +158,27 @@ class ClipLoaderManager implements
         mAdapter.setSelectedItemID(-1L);
         mMainActivity.startOrUpdateClipViewer(new ClipItem(mMainActivity));
       } else {
-        int pos;
-        if (mAdapter.getSelectedItemID() == -1L) {
+        int pos = -1;
+        if (mAdapter.getSelectedItemID() != -1L) {
+          pos = getPosFromItemID(mAdapter.getSelectedItemID());
+        }
+        if (pos == -1) {
           pos = mAdapter.getSelectedPos();
-        } else {
-          pos = mAdapter.getPosFromItemID(mAdapter.getSelectedItemID());
         }
         pos = Math.max(0, pos);
+        if ((pos >= cursor.getCount()) && (loader instanceof ClipPageLoader)) {
+          final ClipPageLoader pageLoader = (ClipPageLoader) loader;
+          if (pageLoader.ensurePages(pos / ClipPageLoader.PAGE_SIZE + 1)) {
+            // selection is on a page we don't have yet
+            return;
+          }
+        }
+        pos = Math.min(pos, cursor.getCount() - 1);
         cursor.moveToPosition(pos);
         final int index = cursor.getColumnIndex(ClipsContract.Clip._ID);
-        mAdapter.setSelectedItemID(cursor.getLong(index));
-        mMainActivity
-          .startOrUpdateClipViewer(new ClipItem(mMainActivity, cursor));
+        final long itemID = cursor.getLong(index);
+        mAdapter.setSelection(pos, itemID);
+        mMainActivity.startOrUpdateClipViewer(itemID);
       }
     }
   }
@@ -150,6 +200,10 @@ class ClipLoaderManager implements
     switch (id) {
       case R.id.clipRow:
         holder = (ClipCursorAdapter.ClipViewHolder) v.getTag();
+        if (mActionMode != null) {
+          toggleChecked(holder);
+          break;
+        }
         onItemViewClicked(holder);
         Analytics.INST(context).click(mMainActivity.getTAG(), "clipItemRow");
         break;
@@ -168,10 +222,7 @@ class ClipLoaderManager implements
         break;
       case R.id.labelButton:
         holder = (ClipCursorAdapter.ClipViewHolder) v.getTag();
-        final Intent intent =
-          new Intent(mMainActivity, LabelsSelectActivity.class);
-        intent.putExtra(Intents.EXTRA_CLIP_ITEM, holder.clipItem);
-        AppUtils.startActivity(mMainActivity, intent);
+        onLabelClicked(holder);
         Analytics.INST(context)
           .imageClick(mMainActivity.getTAG(), "clipItemLabels");
         break;
@@ -180,30 +231,238 @@ class ClipLoaderManager implements
     }
   }
 
+  @Override
+  public boolean onLongClick(View v) {
+    if (v.getId() != R.id.clipRow) {
+      return false;
+    }
+
+    final ClipCursorAdapter.ClipViewHolder holder =
+      (ClipCursorAdapter.ClipViewHolder) v.getTag();
+    if (mActionMode == null) {
+      mActionMode = mMainActivity.startSupportActionMode(this);
+      Analytics.INST(v.getContext())
+        .click(mMainActivity.getTAG(), "clipItemRowLong");
+    }
+    toggleChecked(holder);
+
+    return true;
+  }
+
+  @Override
+  public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+    mode.getMenuInflater().inflate(R.menu.menu_clip_select, menu);
+    final int color = ContextCompat.getColor(mMainActivity, R.color.icons);
+    MenuTintHelper.on(menu)
+      .setMenuItemIconColor(color)
+      .apply(mMainActivity);
+    return true;
+  }
+
+  @Override
+  public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+    return false;
+  }
+
+  @Override
+  public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+    boolean processed = true;
+    final List<Long> ids = mAdapter.getCheckedItemIDs();
+
+    switch (item.getItemId()) {
+      case R.id.action_fav_add:
+        ClipTable.INST(mMainActivity).setFav(ids, true);
+        break;
+      case R.id.action_fav_remove:
+        ClipTable.INST(mMainActivity).setFav(ids, false);
+        break;
+      case R.id.action_label_add:
+        showLabelDialog(ids, true);
+        break;
+      case R.id.action_label_remove:
+        showLabelDialog(ids, false);
+        break;
+      case R.id.action_delete:
+        final int count = ClipTable.INST(mMainActivity).delete(ids);
+        AppUtils.showMessage(mMainActivity, mMainActivity.getFab(),
+          mMainActivity.getString(R.string.items_deleted_fmt, count));
+        break;
+      default:
+        processed = false;
+        break;
+    }
+
+    if (processed) {
+      Analytics.INST(mMainActivity).menuClick(mMainActivity.getTAG(), item);
+      mode.finish();
+    }
+
+    return processed;
+  }
+
+  @Override
+  public void onDestroyActionMode(ActionMode mode) {
+    mActionMode = null;
+    mAdapter.clearChecked();
+  }
+
   ClipCursorAdapter getAdapter() {
     return mAdapter;
   }
 
+  /**
+   * Get the position of a row in the current list. Counts the rows before it
+   * with the sort order indexes, so it works for rows not loaded yet
+   * @param itemID db PK
+   * @return position, -1 if not in the list
+   */
+  int getPosFromItemID(long itemID) {
+    if (itemID == -1L) {
+      return -1;
+    }
+
+    final String idSelection = "(" + ClipsContract.Clip.TABLE_NAME + '.' +
+      ClipsContract.Clip._ID + " = " + itemID + ")";
+    final String selection = TextUtils.isEmpty(mSelection) ?
+      idSelection : mSelection + " AND " + idSelection;
+    final ContentResolver resolver = mMainActivity.getContentResolver();
+
+    // sort keys of the row
+    String[] beforeArgs = null;
+    Cursor cursor = resolver.query(mUri,
+      ClipsContract.Clip.SORT_KEY_PROJECTION, selection, mSelectionArgs, null);
+    if (cursor != null) {
+      try {
+        if (cursor.moveToFirst()) {
+          beforeArgs = ClipsContract.Clip.getBeforeArgs(mMainActivity, cursor);
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+    if (beforeArgs == null) {
+      return -1;
+    }
+
+    // number of rows before it
+    final String beforeSelection =
+      ClipsContract.Clip.getBeforeSelection(mMainActivity);
+    final List<String> args = new ArrayList<>();
+    if (mSelectionArgs != null) {
+      args.addAll(Arrays.asList(mSelectionArgs));
+    }
+    args.addAll(Arrays.asList(beforeArgs));
+    int pos = -1;
+    cursor = resolver.query(mUri, new String[]{"COUNT(*)"},
+      TextUtils.isEmpty(mSelection) ?
+        beforeSelection : mSelection + " AND " + beforeSelection,
+      args.toArray(new String[args.size()]), null);
+    if (cursor != null) {
+      try {
+        if (cursor.moveToFirst()) {
+          pos = cursor.getInt(0);
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+
+    return pos;
+  }
+
   private void onItemViewClicked(ClipCursorAdapter.ClipViewHolder holder) {
-    getAdapter().setSelectedItemID(holder.itemID);
-    mMainActivity.startOrUpdateClipViewer(holder.clipItem);
+    getAdapter().setSelection(holder.getAdapterPosition(), holder.itemID);
+    mMainActivity.startOrUpdateClipViewer(holder.itemID);
+  }
+
+  /**
+   * Check or uncheck an item in multi-select mode. Ends the mode when none
+   * are checked
+   * @param holder the item
+   */
+  private void toggleChecked(ClipCursorAdapter.ClipViewHolder holder) {
+    mAdapter.toggleChecked(holder.getAdapterPosition(), holder.itemID);
+    final int count = mAdapter.getCheckedCount();
+    if (count == 0) {
+      mActionMode.finish();
+    } else {
+      mActionMode.setTitle(
+        mMainActivity.getString(R.string.items_checked_fmt, count));
+    }
+  }
+
+  /**
+   * Let the user pick a {@link Label} to add to or remove from a group of
+   * clips
+   * @param ids PKs of the clips
+   * @param add if true, add the Label, otherwise remove it
+   */
+  private void showLabelDialog(final List<Long> ids, final boolean add) {
+    final List<Label> labels = LabelTables.INST(mMainActivity).getAllLabels();
+    if (labels.isEmpty()) {
+      AppUtils.showMessage(mMainActivity, mMainActivity.getFab(),
+        mMainActivity.getString(R.string.label_none));
+      return;
+    }
+
+    final String[] names = new String[labels.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = labels.get(i).getName();
+    }
+
+    new AlertDialog.Builder(mMainActivity)
+      .setTitle(R.string.label_choose)
+      .setItems(names, new DialogInterface.OnClickListener() {
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+          final Label label = labels.get(which);
+          if (add) {
+            LabelTables.INST(mMainActivity).insert(ids, label);
+          } else {
+            LabelTables.INST(mMainActivity).delete(ids, label);
+          }
+        }
+      })
+      .setNegativeButton(R.string.button_cancel, null)
+      .show();
   }
 
   private void onFavClicked(ClipCursorAdapter.ClipViewHolder holder) {
     final boolean checked = holder.favCheckBox.isChecked();
 
-    holder.clipItem.setFav(checked);
-    holder.clipItem.save(mMainActivity);
+    // by PK, the text isn't needed
+    ClipTable.INST(mMainActivity)
+      .setFav(Collections.singletonList(holder.itemID), checked);
   }
 
   private void onCopyClicked(ClipCursorAdapter.ClipViewHolder holder) {
-    holder.clipItem.setRemote(false);
-    holder.clipItem.setDevice(Device.getMyName(mMainActivity));
-    holder.clipItem.copyToClipboard(mMainActivity);
-    if (!Prefs.INST(mMainActivity).isMonitorClipboard()) {
-      AppUtils.showMessage(mMainActivity, mMainActivity.getFab(),
-        mMainActivity.getString(R.string.clipboard_copy));
-    }
+    holder.loadClipItem(new ClipCursorAdapter.OnClipLoaded() {
+      @Override
+      public void onClipLoaded(@NonNull ClipItem clipItem) {
+        clipItem.setRemote(false);
+        clipItem.setDevice(Device.getMyName(mMainActivity));
+        clipItem.copyToClipboard(mMainActivity);
+        if (!Prefs.INST(mMainActivity).isMonitorClipboard()) {
+          AppUtils.showMessage(mMainActivity, mMainActivity.getFab(),
+            mMainActivity.getString(R.string.clipboard_copy));
+        }
+      }
+    });
+  }
+
+  private void onLabelClicked(ClipCursorAdapter.ClipViewHolder holder) {
+    holder.loadClipItem(new ClipCursorAdapter.OnClipLoaded() {
+      @Override
+      public void onClipLoaded(@NonNull ClipItem clipItem) {
+        if (mMainActivity.isFinishing()) {
+          return;
+        }
+        final Intent intent =
+          new Intent(mMainActivity, LabelsSelectActivity.class);
+        intent.putExtra(Intents.EXTRA_CLIP_ITEM, clipItem);
+        AppUtils.startActivity(mMainActivity, intent);
+      }
+    });
   }
 
   /**
@@ -222,6 +481,32 @@ class ClipLoaderManager implements
     mAdapter = new ClipCursorAdapter(mMainActivity);
     recyclerView.setAdapter(mAdapter);
 
+    // load the next page when we get close to the end of this one
+    recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled(RecyclerView view, int dx, int dy) {
+        if (dy <= 0) {
+          return;
+        }
+        final LinearLayoutManager layoutManager =
+          (LinearLayoutManager) view.getLayoutManager();
+        final int count = layoutManager.getItemCount();
+        if (layoutManager.findLastVisibleItemPosition() <
+          count - ClipPageLoader.PAGE_SIZE / 4) {
+          return;
+        }
+        final Loader<Cursor> loader =
+          mMainActivity.getSupportLoaderManager().getLoader(0);
+        if (loader instanceof ClipPageLoader) {
+          final ClipPageLoader pageLoader = (ClipPageLoader) loader;
+          if (count >= pageLoader.getPages() * ClipPageLoader.PAGE_SIZE) {
+            // full pages, so there may be more
+            pageLoader.loadMore();
+          }
+        }
+      }
+    });
+
     // handle touch events on the RecyclerView
     final ItemTouchHelper.Callback callback = new ClipItemTouchHelper
       (mMainActivity);
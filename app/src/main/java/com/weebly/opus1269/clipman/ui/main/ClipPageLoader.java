@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.ui.main;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.v4.content.CursorLoader;
+
+import com.weebly.opus1269.clipman.db.ClipsContract;
+import com.weebly.opus1269.clipman.model.Prefs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CursorLoader that loads the Clip list a page at a time. Each page after
+ * the first starts after the last row of the previous one, by date or by
+ * sort key and _ID, so the database never skips over rows
+ */
+class ClipPageLoader extends CursorLoader {
+  /** Rows in a page */
+  static final int PAGE_SIZE = 200;
+
+  /** Uri of all the rows */
+  private final Uri mBaseUri;
+
+  /** true if paged by date and _ID, false if by sort key and _ID */
+  private final boolean mByDate;
+
+  /** true if favorites are sorted first */
+  private final boolean mPinFav;
+
+  /** Number of pages to load */
+  private int mPages = 1;
+
+  ClipPageLoader(@NonNull Context context, @NonNull Uri uri,
+                 String[] projection, String selection,
+                 String[] selectionArgs, String sortOrder) {
+    super(context, ClipsContract.Clip.getPageUri(uri, PAGE_SIZE), projection,
+      selection, selectionArgs, sortOrder);
+
+    mBaseUri = uri;
+    mByDate = ClipsContract.Clip.isSortByDate(context);
+    mPinFav = Prefs.INST(context).isPinFav();
+  }
+
+  @Override
+  public Cursor loadInBackground() {
+    // first page, the base class watches it for changes
+    Cursor page = super.loadInBackground();
+    if ((page == null) || (mPages == 1)) {
+      return page;
+    }
+
+    final List<Cursor> cursors = new ArrayList<>(mPages);
+    cursors.add(page);
+    for (int i = 1; i < mPages; i++) {
+      if (page.getCount() < PAGE_SIZE) {
+        // no more rows
+        break;
+      }
+      page.moveToLast();
+      final Uri uri =
+        ClipsContract.Clip.getPageUri(mBaseUri, PAGE_SIZE, page, mPinFav,
+          mByDate);
+      page = getContext().getContentResolver().query(uri, getProjection(),
+        getSelection(), getSelectionArgs(), null);
+      if (page == null) {
+        break;
+      }
+      // fill the window here, not on the UI thread
+      page.getCount();
+      cursors.add(page);
+    }
+
+    return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+  }
+
+  /** Load one more page */
+  void loadMore() {
+    mPages++;
+    onContentChanged();
+  }
+
+  /**
+   * Make sure a number of pages is loaded
+   * @param pages pages needed
+   * @return true if a new load was started
+   */
+  boolean ensurePages(int pages) {
+    if (pages <= mPages) {
+      return false;
+    }
+    mPages = pages;
+    onContentChanged();
+    return true;
+  }
+
+  /** @return number of pages to load */
+  int getPages() {
+    return mPages;
+  }
+}
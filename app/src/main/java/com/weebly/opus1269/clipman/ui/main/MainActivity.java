@@ -55,6 +55,7 @@ import com.weebly.opus1269.clipman.ui.helpers.MenuTintHelper;
 import com.weebly.opus1269.clipman.model.Notifications;
 import com.weebly.opus1269.clipman.ui.labels.LabelsEditActivity;
 import com.weebly.opus1269.clipman.ui.labels.LabelsSelectActivity;
+import com.weebly.opus1269.clipman.ui.metrics.MetricsActivity;
 import com.weebly.opus1269.clipman.ui.settings.SettingsActivity;
 import com.weebly.opus1269.clipman.ui.signin.SignInActivity;
 
@@ -342,6 +343,9 @@ public class MainActivity extends BaseActivity implements
       case R.id.nav_error:
         startActivity(ErrorViewerActivity.class);
         break;
+      case R.id.nav_metrics:
+        startActivity(MetricsActivity.class);
+        break;
       case R.id.nav_help:
         startActivity(HelpActivity.class);
         break;
@@ -471,6 +475,26 @@ public class MainActivity extends BaseActivity implements
     }
   }
 
+  /**
+   * Start the {@link ClipViewerActivity}
+   * or update the {@link ClipViewerFragment} with a row of the db.
+   * The viewer loads the full text
+   * @param clipId PK of the item to display
+   */
+  void startOrUpdateClipViewer(long clipId) {
+    if (AppUtils.isDualPane(this)) {
+      final ClipViewerFragment fragment = getClipViewerFragment();
+      if (fragment != null) {
+        fragment.loadClipItem(clipId, mQueryString);
+      }
+    } else {
+      final Intent intent = new Intent(this, ClipViewerActivity.class);
+      intent.putExtra(Intents.EXTRA_CLIP_ID, clipId);
+      intent.putExtra(Intents.EXTRA_TEXT, mQueryString);
+      AppUtils.startActivity(this, intent);
+    }
+  }
+
   /** Process intents we know about */
   private void handleIntent() {
     final Intent intent = getIntent();
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.ui.metrics;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.weebly.opus1269.clipman.R;
+import com.weebly.opus1269.clipman.app.AppUtils;
+import com.weebly.opus1269.clipman.app.Log;
+import com.weebly.opus1269.clipman.app.Metrics;
+import com.weebly.opus1269.clipman.model.Analytics;
+import com.weebly.opus1269.clipman.model.Prefs;
+import com.weebly.opus1269.clipman.ui.base.BaseActivity;
+
+import org.json.JSONException;
+
+/** This Activity shows and exports the {@link Metrics} */
+public class MetricsActivity extends BaseActivity {
+
+  /** Indent of the JSON text */
+  private static final int INDENT = 2;
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    mLayoutID = R.layout.activity_metrics;
+
+    super.onCreate(savedInstanceState);
+  }
+
+  @Override
+  protected void onResume() {
+    super.onResume();
+
+    updateText();
+  }
+
+  @Override
+  public boolean onCreateOptionsMenu(Menu menu) {
+    mOptionsMenuID = R.menu.menu_metrics;
+
+    final boolean ret = super.onCreateOptionsMenu(menu);
+
+    menu.findItem(R.id.action_record).setChecked(Metrics.isEnabled());
+
+    return ret;
+  }
+
+  @Override
+  public boolean onOptionsItemSelected(MenuItem item) {
+    boolean processed = true;
+
+    final int id = item.getItemId();
+    switch (id) {
+      case R.id.action_refresh:
+        updateText();
+        break;
+      case R.id.action_share:
+        share();
+        break;
+      case R.id.action_delete:
+        Metrics.reset();
+        updateText();
+        break;
+      case R.id.action_record:
+        final boolean enabled = !item.isChecked();
+        item.setChecked(enabled);
+        Prefs.INST(this).setMetrics(enabled);
+        Metrics.setEnabled(enabled);
+        updateText();
+        break;
+      default:
+        processed = false;
+        break;
+    }
+
+    if (processed) {
+      Analytics.INST(this).menuClick(TAG, item);
+    }
+
+    return processed || super.onOptionsItemSelected(item);
+  }
+
+  /**
+   * Get the metrics as text
+   * @return indented JSON
+   */
+  private String getJSON() {
+    String ret = "";
+    try {
+      ret = Metrics.toJSON().toString(INDENT);
+    } catch (JSONException ex) {
+      Log.logEx(this, TAG, ex.getLocalizedMessage(), ex, false);
+    }
+    return ret;
+  }
+
+  /** Export the metrics to another app */
+  private void share() {
+    final Intent intent = new Intent(Intent.ACTION_SEND);
+    intent.putExtra(Intent.EXTRA_TEXT, getJSON());
+    intent.putExtra(Intent.EXTRA_SUBJECT,
+      getString(R.string.title_activity_metrics));
+    intent.setType("application/json");
+    final Intent sendIntent = Intent.createChooser(intent,
+      getString(R.string.metrics_share_to));
+    AppUtils.startNewTaskActivity(this, sendIntent);
+  }
+
+  /** Set the {@link TextView} */
+  private void updateText() {
+    final TextView metrics = findViewById(R.id.metrics);
+    if (Metrics.isEnabled()) {
+      metrics.setText(getJSON());
+    } else {
+      metrics.setText(getString(R.string.metrics_disabled) + "\n\n" +
+        getJSON());
+    }
+  }
+}
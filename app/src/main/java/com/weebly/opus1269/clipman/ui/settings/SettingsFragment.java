@@ -44,6 +44,7 @@ import com.weebly.opus1269.clipman.model.User;
 import com.weebly.opus1269.clipman.msg.MessagingClient;
 import com.weebly.opus1269.clipman.msg.RegistrationClient;
 import com.weebly.opus1269.clipman.services.ClipboardWatcherService;
+import com.weebly.opus1269.clipman.services.RetentionJobService;
 import com.weebly.opus1269.clipman.model.Notifications;
 import com.weebly.opus1269.clipman.ui.base.BaseActivity;
 import com.weebly.opus1269.clipman.ui.main.MainActivity;
@@ -219,6 +220,10 @@ public class SettingsFragment extends PreferenceFragmentCompatDividers
     final String keyReceive = getString(R.string.key_pref_receive_msg);
     final String keyPush = getString(R.string.key_pref_push_msg);
     final String keyAutoBackup = getString(R.string.key_pref_auto_backup);
+    final String keyDuration = getString(R.string.key_pref_duration);
+    final String keyMaxClips = getString(R.string.key_pref_max_clips);
+    final String keyMaxStorage = getString(R.string.key_pref_max_storage);
+    final String keyRetention = getString(R.string.key_pref_retention);
 
     // log event
     logChange(sp, key);
@@ -271,6 +276,10 @@ public class SettingsFragment extends PreferenceFragmentCompatDividers
         // check for Drive Scope
         checkDrivePermissions();
       }
+    } else if (key.equals(keyDuration) || key.equals(keyMaxClips) ||
+      key.equals(keyMaxStorage) || key.equals(keyRetention)) {
+      // apply the new storage limits
+      RetentionJobService.runNow(activity);
     }
   }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Near duplicate detection of {@link ClipsContract.Clip} */
+public class ClipsContractTest {
+
+  @Test
+  public void normalize_whitespace() {
+    assertEquals("a\nb", ClipsContract.Clip.normalize("a\r\nb", false));
+    assertEquals("a\nb", ClipsContract.Clip.normalize("a\rb", false));
+    assertEquals("a\nb", ClipsContract.Clip.normalize("a \t\nb", false));
+    assertEquals("a\nb", ClipsContract.Clip.normalize("  a\nb \n\n", false));
+    // leading and inner whitespace of a line is kept
+    assertEquals("a\n  b", ClipsContract.Clip.normalize("a\n  b", false));
+    assertEquals("a  b", ClipsContract.Clip.normalize("a  b", false));
+    // so is the case
+    assertEquals("A b", ClipsContract.Clip.normalize("A b", false));
+  }
+
+  @Test
+  public void normalize_whitespaceAndCase() {
+    assertEquals("a b", ClipsContract.Clip.normalize("A \r\n\t B", true));
+    assertEquals("a b", ClipsContract.Clip.normalize("\n a  b \n", true));
+    assertEquals("ab", ClipsContract.Clip.normalize("AB", true));
+  }
+
+  @Test
+  public void isNearDuplicate_whitespace() {
+    assertTrue(ClipsContract.Clip.isNearDuplicate("a\r\nb ", "a\nb",
+      false));
+    assertTrue(ClipsContract.Clip.isNearDuplicate("a  \nb", " a\nb\n",
+      false));
+    assertFalse(ClipsContract.Clip.isNearDuplicate("a b", "a  b", false));
+    assertFalse(ClipsContract.Clip.isNearDuplicate("a\nb", "a\n b", false));
+    assertFalse(ClipsContract.Clip.isNearDuplicate("a\nb", "ab", false));
+    assertFalse(ClipsContract.Clip.isNearDuplicate("A", "a", false));
+  }
+
+  @Test
+  public void isNearDuplicate_whitespaceAndCase() {
+    assertTrue(ClipsContract.Clip.isNearDuplicate("a b", "a  b", true));
+    assertTrue(ClipsContract.Clip.isNearDuplicate("a\nb", "a\n b", true));
+    assertTrue(ClipsContract.Clip.isNearDuplicate("Hello World",
+      "hello\r\nworld ", true));
+    // whitespace is collapsed, not removed
+    assertFalse(ClipsContract.Clip.isNearDuplicate("a\nb", "ab", true));
+    assertFalse(ClipsContract.Clip.isNearDuplicate("a b", "a c", true));
+  }
+
+  @Test
+  public void getFingerprint_sameForNearDuplicates() {
+    final String[][] pairs = {
+      {"a\r\nb ", "a\nb"},
+      {"a  \nb", " a\nb\n"},
+      {"a b", "a \t b"},
+      {"Hello World", "hello\r\nworld "},
+    };
+    for (String[] pair : pairs) {
+      assertEquals(pair[0], ClipsContract.Clip.getFingerprint(pair[0]),
+        ClipsContract.Clip.getFingerprint(pair[1]));
+    }
+  }
+
+  @Test
+  public void getFingerprint_differentForOtherText() {
+    assertNotEquals(ClipsContract.Clip.getFingerprint("a b"),
+      ClipsContract.Clip.getFingerprint("a c"));
+    assertNotEquals(ClipsContract.Clip.getFingerprint("a b"),
+      ClipsContract.Clip.getFingerprint("ab"));
+  }
+
+  @Test
+  public void getFingerprint_notTheHash() {
+    // the exact copies are found by the hash, the fingerprint is looser
+    assertNotEquals(ClipsContract.Clip.getHash("A b"),
+      ClipsContract.Clip.getFingerprint("A b"));
+  }
+}
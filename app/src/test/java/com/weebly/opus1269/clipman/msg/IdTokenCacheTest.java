@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import com.google.api.client.util.Base64;
+import com.weebly.opus1269.clipman.app.AppUtils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Expiry and refresh decisions of {@link IdTokenCache} */
+public class IdTokenCacheTest {
+
+  private static final long NOW = TimeUnit.DAYS.toMillis(17500);
+
+  /**
+   * Make a JWT with the given claims, the header and signature are not read
+   * @param claims JSON payload
+   * @return token
+   */
+  private static String getToken(String claims) {
+    return "eyJhbGciOiJSUzI1NiJ9." +
+      Base64.encodeBase64URLSafeString(claims.getBytes(AppUtils.UTF_8)) +
+      ".c2ln";
+  }
+
+  @Test
+  public void getExpiry_readsExp() {
+    final long exp = TimeUnit.MILLISECONDS.toSeconds(NOW) + 3600L;
+    final String idToken =
+      getToken("{\"iss\":\"accounts.google.com\",\"exp\":" + exp + "}");
+    assertEquals(TimeUnit.SECONDS.toMillis(exp),
+      IdTokenCache.getExpiry(idToken, NOW));
+  }
+
+  @Test
+  public void getExpiry_unpaddedPayload() {
+    // lengths that need one and two padding characters
+    for (String sub : new String[]{"a", "ab", "abc"}) {
+      final String idToken =
+        getToken("{\"sub\":\"" + sub + "\",\"exp\":1500000000}");
+      assertFalse(idToken.contains("="));
+      assertEquals(TimeUnit.SECONDS.toMillis(1500000000L),
+        IdTokenCache.getExpiry(idToken, NOW));
+    }
+  }
+
+  @Test
+  public void getExpiry_defaultLifetime() {
+    final long expected = NOW + IdTokenCache.DEFAULT_LIFETIME;
+    // no exp claim
+    assertEquals(expected,
+      IdTokenCache.getExpiry(getToken("{\"iss\":\"x\"}"), NOW));
+    // bad exp claim
+    assertEquals(expected,
+      IdTokenCache.getExpiry(getToken("{\"exp\":0}"), NOW));
+    // payload is not JSON
+    assertEquals(expected,
+      IdTokenCache.getExpiry(getToken("not json"), NOW));
+    // not a JWT
+    assertEquals(expected, IdTokenCache.getExpiry("", NOW));
+    assertEquals(expected, IdTokenCache.getExpiry("a.b", NOW));
+    assertEquals(expected, IdTokenCache.getExpiry("a.b.c.d", NOW));
+  }
+
+  @Test
+  public void isUsable() {
+    final long expires = NOW + TimeUnit.HOURS.toMillis(1);
+    assertTrue(IdTokenCache.isUsable(expires, NOW));
+    assertTrue(IdTokenCache.isUsable(expires,
+      expires - IdTokenCache.EXPIRY_MARGIN - 1L));
+    // too close to the expiry for clock skew
+    assertFalse(IdTokenCache.isUsable(expires,
+      expires - IdTokenCache.EXPIRY_MARGIN));
+    assertFalse(IdTokenCache.isUsable(expires, expires));
+    assertFalse(IdTokenCache.isUsable(expires, expires + 1L));
+    // nothing cached
+    assertFalse(IdTokenCache.isUsable(0L, NOW));
+  }
+
+  @Test
+  public void isRefreshDue() {
+    final long expires = NOW + TimeUnit.HOURS.toMillis(1);
+    assertFalse(IdTokenCache.isRefreshDue(expires, NOW));
+    assertFalse(IdTokenCache.isRefreshDue(expires,
+      expires - IdTokenCache.REFRESH_AHEAD - 1L));
+    assertTrue(IdTokenCache.isRefreshDue(expires,
+      expires - IdTokenCache.REFRESH_AHEAD));
+  }
+
+  @Test
+  public void refreshAheadOfExpiry() {
+    // there is a window where the token is used and refreshed at once
+    assertTrue(IdTokenCache.REFRESH_AHEAD > IdTokenCache.EXPIRY_MARGIN);
+    final long expires = NOW + TimeUnit.HOURS.toMillis(1);
+    final long now = expires - IdTokenCache.REFRESH_AHEAD;
+    assertTrue(IdTokenCache.isUsable(expires, now));
+    assertTrue(IdTokenCache.isRefreshDue(expires, now));
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** Encoding of the text of our messages by {@link Payload} */
+public class PayloadTest {
+
+  /**
+   * Get a text of one character
+   * @param c   the character
+   * @param len length of the text
+   * @return text
+   */
+  private static String repeat(char c, int len) {
+    final char[] chars = new char[len];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  /**
+   * Get a text that doesn't compress well
+   * @param len about the length of the text
+   * @return text
+   */
+  private static String random(int len) {
+    final Random random = new Random(1269L);
+    final StringBuilder text = new StringBuilder(len + 16);
+    while (text.length() < len) {
+      text.append(Long.toString(random.nextLong(), 36)).append(' ');
+    }
+    return text.toString();
+  }
+
+  @Test
+  public void deflate_roundTrip() throws IOException {
+    final String[] texts = {
+      "",
+      "a",
+      "Hello, World!\r\n",
+      "héllo 😀 世界",
+      repeat('a', 100000),
+      random(50000),
+    };
+    for (String text : texts) {
+      final String encoded = Payload.deflate(text);
+      assertEquals(text, Payload.decode(Msg.ENCODING_DEFLATE, encoded));
+    }
+  }
+
+  @Test
+  public void deflate_urlSafe() {
+    final String encoded = Payload.deflate(random(10000));
+    // nothing a URL encoding changes, and no padding
+    assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+  }
+
+  @Test
+  public void deflate_compresses() {
+    final String text = repeat('a', 100000);
+    assertTrue(Payload.deflate(text).length() < (text.length() / 100));
+  }
+
+  @Test
+  public void decode_plainText() throws IOException {
+    assertEquals("a+b %", Payload.decode(null, "a+b %"));
+    assertEquals("", Payload.decode(null, ""));
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_noMessage() throws IOException {
+    Payload.decode(null, null);
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_unknownEncoding() throws IOException {
+    Payload.decode("gzip", Payload.deflate("a"));
+  }
+
+  @Test
+  public void decode_truncated() {
+    final String encoded = Payload.deflate(random(50000));
+    final int[] lengths = {
+      0,
+      encoded.length() / 2,
+      encoded.length() - 4,
+    };
+    for (int len : lengths) {
+      try {
+        Payload.decode(Msg.ENCODING_DEFLATE, encoded.substring(0, len));
+        fail("Decoded truncated message: " + len);
+      } catch (IOException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_notDeflated() throws IOException {
+    Payload.decode(Msg.ENCODING_DEFLATE, "bm90IGRlZmxhdGVk");
+  }
+
+  @Test
+  public void decode_maxLength() throws IOException {
+    final String text = repeat('a', Payload.MAX_DECODED_LEN);
+    assertEquals(text,
+      Payload.decode(Msg.ENCODING_DEFLATE, Payload.deflate(text)));
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_tooLarge() throws IOException {
+    final String text = repeat('a', Payload.MAX_DECODED_LEN + 1);
+    Payload.decode(Msg.ENCODING_DEFLATE, Payload.deflate(text));
+  }
+}
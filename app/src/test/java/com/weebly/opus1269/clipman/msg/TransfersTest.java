@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016-2017, Michael A. Updike All rights reserved.
+ * Licensed under Apache 2.0
+ * https://opensource.org/licenses/Apache-2.0
+ * https://github.com/Pushy-Clipboard/pushy-android/blob/master/LICENSE.md
+ */
+
+package com.weebly.opus1269.clipman.msg;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Assembly of the parts of large clips by {@link Transfers} */
+public class TransfersTest {
+
+  private static final long NOW = TimeUnit.DAYS.toMillis(17500);
+
+  private Transfers mTransfers;
+
+  @Before
+  public void setUp() {
+    mTransfers = new Transfers();
+  }
+
+  @Test
+  public void add_onePart() {
+    assertEquals("a", mTransfers.add("t", 0, 1, "a", NOW));
+  }
+
+  @Test
+  public void add_inOrder() {
+    assertNull(mTransfers.add("t", 0, 3, "a", NOW));
+    assertNull(mTransfers.add("t", 1, 3, "b", NOW));
+    assertEquals("abc", mTransfers.add("t", 2, 3, "c", NOW));
+  }
+
+  @Test
+  public void add_outOfOrder() {
+    assertNull(mTransfers.add("t", 2, 3, "c", NOW));
+    assertNull(mTransfers.add("t", 0, 3, "a", NOW));
+    assertEquals("abc", mTransfers.add("t", 1, 3, "b", NOW));
+  }
+
+  @Test
+  public void add_done() {
+    assertNull(mTransfers.add("t", 0, 2, "a", NOW));
+    assertEquals("ab", mTransfers.add("t", 1, 2, "b", NOW));
+    // a complete transfer is forgotten
+    assertNull(mTransfers.add("t", 1, 2, "b", NOW));
+  }
+
+  @Test
+  public void add_duplicatePart() {
+    assertNull(mTransfers.add("t", 0, 2, "a", NOW));
+    // a part a retry sent twice doesn't count twice, the first is kept
+    assertNull(mTransfers.add("t", 0, 2, "x", NOW));
+    assertEquals("ab", mTransfers.add("t", 1, 2, "b", NOW));
+  }
+
+  @Test
+  public void add_separateTransfers() {
+    assertNull(mTransfers.add("t1", 0, 2, "a", NOW));
+    assertNull(mTransfers.add("t2", 0, 2, "c", NOW));
+    assertEquals("cd", mTransfers.add("t2", 1, 2, "d", NOW));
+    assertEquals("ab", mTransfers.add("t1", 1, 2, "b", NOW));
+  }
+
+  @Test
+  public void add_badIndexes() {
+    assertNull(mTransfers.add("t", -1, 2, "x", NOW));
+    assertNull(mTransfers.add("t", 2, 2, "x", NOW));
+    assertNull(mTransfers.add("t", 0, 0, "x", NOW));
+    assertNull(mTransfers.add("t", 0, -1, "x", NOW));
+    assertNull(
+      mTransfers.add("t", 0, Transfers.MAX_PARTS + 1, "x", NOW));
+    // none of them were kept
+    assertNull(mTransfers.add("t", 0, 2, "a", NOW));
+    assertEquals("ab", mTransfers.add("t", 1, 2, "b", NOW));
+  }
+
+  @Test
+  public void add_maxParts() {
+    final int parts = Transfers.MAX_PARTS;
+    for (int i = 0; i < parts - 1; i++) {
+      assertNull(mTransfers.add("t", i, parts, "a", NOW));
+    }
+    final String whole = mTransfers.add("t", parts - 1, parts, "a", NOW);
+    assertNotNull(whole);
+    assertEquals(parts, whole.length());
+  }
+
+  @Test
+  public void add_otherNumberOfParts() {
+    assertNull(mTransfers.add("t", 0, 3, "x", NOW));
+    // the parts of another count start over
+    assertNull(mTransfers.add("t", 0, 2, "a", NOW));
+    assertEquals("ab", mTransfers.add("t", 1, 2, "b", NOW));
+  }
+
+  @Test
+  public void add_evictsOldest() {
+    for (int i = 0; i <= Transfers.MAX_TRANSFERS; i++) {
+      assertNull(mTransfers.add("t" + i, 0, 2, "a", NOW));
+    }
+    // the first one was dropped, its last part starts over
+    assertNull(mTransfers.add("t0", 1, 2, "b", NOW));
+    // the newest ones are kept
+    final int last = Transfers.MAX_TRANSFERS;
+    assertEquals("ab", mTransfers.add("t" + last, 1, 2, "b", NOW));
+  }
+
+  @Test
+  public void add_stale() {
+    assertNull(mTransfers.add("t", 0, 2, "a", NOW));
+    assertNull(
+      mTransfers.add("t", 1, 2, "b", NOW + Transfers.MAX_AGE + 1L));
+  }
+
+  @Test
+  public void add_notStale() {
+    assertNull(mTransfers.add("t", 0, 2, "a", NOW));
+    assertEquals("ab",
+      mTransfers.add("t", 1, 2, "b", NOW + Transfers.MAX_AGE));
+  }
+
+  @Test
+  public void add_partRestartsClock() {
+    final long age = Transfers.MAX_AGE;
+    assertNull(mTransfers.add("t", 0, 3, "a", NOW));
+    assertNull(mTransfers.add("t", 1, 3, "b", NOW + age));
+    assertEquals("abc", mTransfers.add("t", 2, 3, "c", NOW + 2L * age));
+  }
+
+  @Test
+  public void maxAge_coversRetries() {
+    // all the retries of a part, about 3 hours
+    assertTrue(Transfers.MAX_AGE > TimeUnit.HOURS.toMillis(3));
+    assertTrue(Transfers.MAX_AGE < TimeUnit.HOURS.toMillis(4));
+  }
+}